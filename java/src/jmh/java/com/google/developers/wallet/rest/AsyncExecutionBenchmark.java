@@ -0,0 +1,98 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.services.walletobjects.model.EventTicketObject;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Calls per second when fanning out {@value #CALLS} calls through an {@link AsyncWalletClient}
+ * against a {@link LocalWalletServer} with 50 ms latency, on a pool of 256 platform threads versus
+ * one virtual thread per call. The virtual thread variant needs Java 21 or later.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class AsyncExecutionBenchmark {
+  private static final int CALLS = 5_000;
+  private static final String OBJECT_ID = "3388000000000000000.object";
+
+  @Param({"platform", "virtual"})
+  public String threads;
+
+  private LocalWalletServer server;
+  private HttpTransport httpTransport;
+  private AsyncWalletClient client;
+
+  @Setup
+  public void setUp() throws Exception {
+    server =
+        LocalWalletServer.newBuilder().setLatency(50, 50, TimeUnit.MILLISECONDS).build().start();
+    httpTransport = new NetHttpTransport();
+    WalletClients clients = server.newClientsBuilder().setHttpTransport(httpTransport).build();
+    clients
+        .getService()
+        .eventticketobject()
+        .insert(PassFixtures.eventTicketObject("3388000000000000000", "class", "object"))
+        .execute();
+
+    AsyncWalletClient.Builder builder = AsyncWalletClient.newBuilder(clients);
+    if (threads.equals("virtual")) {
+      builder.setVirtualThreads(true).setMaxConcurrency(CALLS);
+    } else {
+      builder.setMaxConcurrency(256);
+    }
+    client = builder.build();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    client.close();
+    httpTransport.shutdown();
+    server.close();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(CALLS)
+  public void fanOut() {
+    @SuppressWarnings("unchecked")
+    CompletableFuture<EventTicketObject>[] calls = new CompletableFuture[CALLS];
+    for (int i = 0; i < CALLS; i++) {
+      calls[i] = client.getPassObject(PassType.EVENT_TICKET, OBJECT_ID);
+    }
+    CompletableFuture.allOf(calls).join();
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.walletobjects.Walletobjects;
+import com.google.api.services.walletobjects.model.EventTicketObject;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Client-side cost of a batch of object inserts: queuing the requests, writing the multipart
+ * request body and parsing the multipart response. The transport answers from memory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchAssemblyBenchmark {
+  private static final String BOUNDARY = "batch_benchmark";
+
+  private static final JsonBatchCallback<EventTicketObject> IGNORE =
+      new JsonBatchCallback<EventTicketObject>() {
+        @Override
+        public void onSuccess(EventTicketObject response, HttpHeaders responseHeaders) {}
+
+        @Override
+        public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders) {}
+      };
+
+  @Param({"100", "1000"})
+  public int batchSize;
+
+  private Walletobjects service;
+  private List<EventTicketObject> objects;
+
+  @Setup
+  public void setUp() throws IOException {
+    objects = new ArrayList<>(batchSize);
+    StringBuilder response = new StringBuilder();
+    for (int i = 0; i < batchSize; i++) {
+      EventTicketObject object =
+          PassFixtures.eventTicketObject("3388000000000000000", "class", "object_" + i);
+      objects.add(object);
+
+      // Echo each object back, as the API does for inserts
+      response
+          .append("--")
+          .append(BOUNDARY)
+          .append("\r\nContent-Type: application/http\r\n\r\n")
+          .append("HTTP/1.1 200 OK\r\nContent-Type: application/json; charset=UTF-8\r\n\r\n")
+          .append(GsonFactory.getDefaultInstance().toString(object))
+          .append("\r\n");
+    }
+    response.append("--").append(BOUNDARY).append("--\r\n");
+
+    service =
+        new Walletobjects.Builder(
+                new BatchResponseTransport(response.toString()),
+                GsonFactory.getDefaultInstance(),
+                null)
+            .setApplicationName("BatchAssemblyBenchmark")
+            .build();
+  }
+
+  @Benchmark
+  public int insertBatch() throws IOException {
+    BatchRequest batch = service.batch();
+    for (EventTicketObject object : objects) {
+      service.eventticketobject().insert(object).queue(batch, IGNORE);
+    }
+    int size = batch.size();
+    batch.execute();
+    return size;
+  }
+
+  /** Writes each request body to nowhere and answers with the same multipart response. */
+  private static final class BatchResponseTransport extends MockHttpTransport {
+    private final String responseContent;
+
+    BatchResponseTransport(String responseContent) {
+      this.responseContent = responseContent;
+    }
+
+    @Override
+    public LowLevelHttpRequest buildRequest(String method, String url) {
+      return new MockLowLevelHttpRequest(url) {
+        @Override
+        public LowLevelHttpResponse execute() throws IOException {
+          getStreamingContent().writeTo(OutputStream.nullOutputStream());
+          return new MockLowLevelHttpResponse()
+              .setContentType("multipart/mixed; boundary=" + BOUNDARY)
+              .setContent(responseContent);
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPrivateKey;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Signed "Add to Google Wallet" links per second on a single thread.
+ *
+ * <p>{@code perCall} signs the way the demo classes used to, building the claims and the RSA256
+ * algorithm for every link; {@code cachedSigner} uses a {@link WalletJwtSigner}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtSigningBenchmark {
+  private static final String ISSUER_EMAIL = "benchmark@example.iam.gserviceaccount.com";
+
+  private RSAPrivateKey privateKey;
+  private WalletJwtSigner signer;
+  private Map<String, Object> payload;
+
+  @Setup
+  public void setUp() throws Exception {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(2048);
+    privateKey = (RSAPrivateKey) generator.generateKeyPair().getPrivate();
+    signer = new WalletJwtSigner(ISSUER_EMAIL, privateKey, List.of("www.example.com"));
+
+    payload = new HashMap<String, Object>();
+    payload.put(
+        "eventTicketObjects",
+        List.of(PassFixtures.eventTicketObject("3388000000000000000", "class", "object")));
+  }
+
+  @Benchmark
+  public String perCall() {
+    HashMap<String, Object> claims = new HashMap<String, Object>();
+    claims.put("iss", ISSUER_EMAIL);
+    claims.put("aud", "google");
+    claims.put("origins", List.of("www.example.com"));
+    claims.put("typ", "savetowallet");
+    claims.put("payload", payload);
+
+    Algorithm algorithm = Algorithm.RSA256(null, privateKey);
+    return JWT.create().withPayload(claims).sign(algorithm);
+  }
+
+  @Benchmark
+  public String cachedSigner() {
+    return signer.sign(payload);
+  }
+}
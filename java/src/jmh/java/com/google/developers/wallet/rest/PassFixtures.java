@@ -0,0 +1,95 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import com.google.api.services.walletobjects.model.*;
+import java.util.List;
+
+/** Pass objects shaped like the ones the demo classes create, for use in benchmarks. */
+final class PassFixtures {
+  private PassFixtures() {}
+
+  /**
+   * Create an event ticket object with the same modules as {@link DemoEventTicket#createObject}.
+   *
+   * @param issuerId The issuer ID.
+   * @param classSuffix Developer-defined unique ID for the pass class.
+   * @param objectSuffix Developer-defined unique ID for the pass object.
+   * @return A new event ticket object.
+   */
+  static EventTicketObject eventTicketObject(
+      String issuerId, String classSuffix, String objectSuffix) {
+    return new EventTicketObject()
+        .setId(String.format("%s.%s", issuerId, objectSuffix))
+        .setClassId(String.format("%s.%s", issuerId, classSuffix))
+        .setState("ACTIVE")
+        .setHeroImage(
+            image(
+                "https://farm4.staticflickr.com/3723/11177041115_6e6a3b6f49_o.jpg",
+                "Hero image description"))
+        .setTextModulesData(
+            List.of(
+                new TextModuleData()
+                    .setHeader("Text module header")
+                    .setBody("Text module body")
+                    .setId("TEXT_MODULE_ID")))
+        .setLinksModuleData(
+            new LinksModuleData()
+                .setUris(
+                    List.of(
+                        new Uri()
+                            .setUri("http://maps.google.com/")
+                            .setDescription("Link module URI description")
+                            .setId("LINK_MODULE_URI_ID"),
+                        new Uri()
+                            .setUri("tel:6505555555")
+                            .setDescription("Link module tel description")
+                            .setId("LINK_MODULE_TEL_ID"))))
+        .setImageModulesData(
+            List.of(
+                new ImageModuleData()
+                    .setMainImage(
+                        image(
+                            "http://farm4.staticflickr.com/3738/12440799783_3dc3c20606_b.jpg",
+                            "Image module description"))
+                    .setId("IMAGE_MODULE_ID")))
+        .setBarcode(new Barcode().setType("QR_CODE").setValue("QR code value"))
+        .setLocations(
+            List.of(
+                new LatLongPoint()
+                    .setLatitude(37.424015499999996)
+                    .setLongitude(-122.09259560000001)))
+        .setSeatInfo(
+            new EventSeat()
+                .setSeat(localizedString("42"))
+                .setRow(localizedString("G3"))
+                .setSection(localizedString("5"))
+                .setGate(localizedString("A")))
+        .setTicketHolderName("Ticket holder name")
+        .setTicketNumber("Ticket number");
+  }
+
+  private static Image image(String uri, String description) {
+    return new Image()
+        .setSourceUri(new ImageUri().setUri(uri))
+        .setContentDescription(localizedString(description));
+  }
+
+  private static LocalizedString localizedString(String value) {
+    return new LocalizedString()
+        .setDefaultValue(new TranslatedString().setLanguage("en-US").setValue(value));
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.services.walletobjects.model.EventTicketObject;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of building, serializing and parsing a fully populated event ticket object, as done for
+ * every insert and every response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PassObjectBenchmark {
+  private final JsonFactory jsonFactory = GsonFactory.getDefaultInstance();
+
+  private EventTicketObject object;
+  private String json;
+
+  @Setup
+  public void setUp() throws IOException {
+    object = PassFixtures.eventTicketObject("3388000000000000000", "class", "object");
+    json = jsonFactory.toString(object);
+  }
+
+  @Benchmark
+  public EventTicketObject construct() {
+    return PassFixtures.eventTicketObject("3388000000000000000", "class", "object");
+  }
+
+  @Benchmark
+  public String serialize() throws IOException {
+    return jsonFactory.toString(object);
+  }
+
+  @Benchmark
+  public EventTicketObject parse() throws IOException {
+    return jsonFactory.fromString(json, EventTicketObject.class);
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.services.walletobjects.Walletobjects;
+import com.google.api.services.walletobjects.model.EventTicketObject;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Requests per second through {@code NetHttpTransport} and {@link OkHttpTransport}, from 32
+ * threads sharing one client, against a {@link LocalWalletServer}. {@link #getObjectLatency()}
+ * samples the time of each request, so the report includes its p50, p99 and p99.9.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(32)
+@Fork(1)
+public class TransportBenchmark {
+  private static final String OBJECT_ID = "3388000000000000000.object";
+
+  @Param({"net", "okhttp"})
+  public String transport;
+
+  /** Simulated server latency in milliseconds. */
+  @Param({"0", "20"})
+  public int latencyMillis;
+
+  private LocalWalletServer server;
+  private HttpTransport httpTransport;
+  private Walletobjects service;
+
+  @Setup
+  public void setUp() throws Exception {
+    server =
+        LocalWalletServer.newBuilder()
+            .setLatency(latencyMillis, latencyMillis, TimeUnit.MILLISECONDS)
+            .build()
+            .start();
+    httpTransport = transport.equals("okhttp") ? new OkHttpTransport() : new NetHttpTransport();
+    service = server.newClientsBuilder().setHttpTransport(httpTransport).build().getService();
+
+    service
+        .eventticketobject()
+        .insert(PassFixtures.eventTicketObject("3388000000000000000", "class", "object"))
+        .execute();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    httpTransport.shutdown();
+    server.close();
+  }
+
+  @Benchmark
+  public EventTicketObject getObject() throws IOException {
+    return service.eventticketobject().get(OBJECT_ID).execute();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public EventTicketObject getObjectLatency() throws IOException {
+    return service.eventticketobject().get(OBJECT_ID).execute();
+  }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseInterceptor;
+import com.google.api.client.http.json.JsonHttpContent;
+import com.google.api.client.util.Data;
+import com.google.api.services.walletobjects.WalletobjectsRequest;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client-side rate limiter that adapts to the quota the API actually grants.
+ *
+ * <p>Calls are limited per issuer and resource type, e.g. "3388000000022195723/loyaltyobject",
+ * each with its own token bucket. Every successful call raises the rate a little (additive
+ * increase), and a 429 or 503 response cuts it (multiplicative decrease, at most once per
+ * second), so the rate settles just below the highest one the API accepts instead of provoking
+ * retry storms.
+ *
+ * <p>Install it with {@link WalletClients.Builder#setRateLimiter} to limit every call made
+ * through the service client, including each request in a batch. Batch responses bypass the
+ * limiter's response handling, so a {@link BatchExecutor} built from the same clients reports
+ * the outcome of each request in its batches instead.
+ */
+public final class AdaptiveRateLimiter {
+  private static final String API_PATH = "/walletobjects/v1/";
+
+  /** Minimum time between two rate cuts for the same key. */
+  private static final long DECREASE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final double initialRate;
+  private final double minRate;
+  private final double maxRate;
+  private final double additiveIncrease;
+  private final double decreaseFactor;
+
+  private final ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+  private AdaptiveRateLimiter(Builder builder) {
+    this.initialRate = builder.initialRate;
+    this.minRate = builder.minRate;
+    this.maxRate = builder.maxRate;
+    this.additiveIncrease = builder.additiveIncrease;
+    this.decreaseFactor = builder.decreaseFactor;
+  }
+
+  /** @return A new builder. */
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /**
+   * Wrap a request initializer so that every API call it initializes waits for a token and
+   * reports its outcome. Batch requests themselves pass through; each of their parts waits for a
+   * token as the batch is sent, and {@link BatchExecutor} reports the parts' outcomes.
+   *
+   * @param delegate The initializer to wrap. May be null.
+   * @return An initializer that runs the delegate and then installs the limiting interceptors.
+   */
+  public HttpRequestInitializer wrap(HttpRequestInitializer delegate) {
+    return request -> {
+      if (delegate != null) {
+        delegate.initialize(request);
+      }
+
+      HttpExecuteInterceptor executeDelegate = request.getInterceptor();
+      HttpResponseInterceptor responseDelegate = request.getResponseInterceptor();
+      String[] key = new String[1];
+      request.setInterceptor(
+          limited -> {
+            // Only the first attempt waits; retries are paced by their own backoff
+            if (key[0] == null) {
+              key[0] = keyOf(limited.getUrl(), limited.getContent());
+              if (key[0] != null) {
+                acquire(key[0]);
+              }
+            }
+            if (executeDelegate != null) {
+              executeDelegate.intercept(limited);
+            }
+          });
+      request.setResponseInterceptor(
+          response -> {
+            if (key[0] != null) {
+              onResponse(key[0], response.getStatusCode());
+            }
+            if (responseDelegate != null) {
+              responseDelegate.interceptResponse(response);
+            }
+          });
+    };
+  }
+
+  /**
+   * Wait for a token.
+   *
+   * @param key The issuer and resource type, see {@link #keyOf(WalletobjectsRequest)}.
+   */
+  public void acquire(String key) throws InterruptedIOException {
+    long waitNanos = bucket(key).reserve();
+    if (waitNanos > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for the rate limiter");
+      }
+    }
+  }
+
+  /**
+   * Adjust the rate after a call: cut it after 429 or 503, raise it after a success.
+   *
+   * @param key The issuer and resource type, see {@link #keyOf(WalletobjectsRequest)}.
+   * @param statusCode The HTTP status code of the call.
+   */
+  public void onResponse(String key, int statusCode) {
+    if (statusCode == 429 || statusCode == 503) {
+      bucket(key).decrease();
+    } else if (statusCode >= 200 && statusCode < 300) {
+      bucket(key).increase();
+    }
+  }
+
+  /**
+   * Get the current rate for a key.
+   *
+   * @param key The issuer and resource type, see {@link #keyOf(WalletobjectsRequest)}.
+   * @return The rate in calls per second.
+   */
+  public double getRate(String key) {
+    Bucket bucket = buckets.get(key);
+    return bucket == null ? initialRate : bucket.getRate();
+  }
+
+  /** @return The current rate in calls per second of every key used so far, sorted by key. */
+  public SortedMap<String, Double> getRates() {
+    SortedMap<String, Double> rates = new TreeMap<>();
+    for (Map.Entry<String, Bucket> entry : buckets.entrySet()) {
+      rates.put(entry.getKey(), entry.getValue().getRate());
+    }
+    return rates;
+  }
+
+  /**
+   * Get the key a request is limited by.
+   *
+   * @param request A request built from the service client.
+   * @return The issuer and resource type, e.g. "3388000000022195723/loyaltyobject", or null for
+   *     requests that are not limited.
+   */
+  public static String keyOf(WalletobjectsRequest<?> request) {
+    return keyOf(request.buildHttpRequestUrl(), request.getHttpContent());
+  }
+
+  /**
+   * Derive the key from the URL and body: the resource type from the path, and the issuer from
+   * the resource ID in the path, the list filter or the ID in the inserted body.
+   */
+  static String keyOf(GenericUrl url, HttpContent content) {
+    String path = url.getRawPath();
+    int apiPath = path == null ? -1 : path.indexOf(API_PATH);
+    if (apiPath < 0) {
+      return null;
+    }
+
+    String[] segments = path.substring(apiPath + API_PATH.length()).split("/");
+    String resource = segments[0].toLowerCase();
+    String id = null;
+    if (segments.length > 1) {
+      id = segments[1];
+    } else if (url.getFirst("issuerId") != null) {
+      return url.getFirst("issuerId") + "/" + resource;
+    } else if (url.getFirst("classId") != null) {
+      id = url.getFirst("classId").toString();
+    } else if (content instanceof JsonHttpContent) {
+      Object data = ((JsonHttpContent) content).getData();
+      Object bodyId = data == null ? null : Data.mapOf(data).get("id");
+      id = bodyId == null ? null : bodyId.toString();
+    }
+
+    int dot = id == null ? -1 : id.indexOf('.');
+    return (dot > 0 ? id.substring(0, dot) : "-") + "/" + resource;
+  }
+
+  private Bucket bucket(String key) {
+    return buckets.computeIfAbsent(key, k -> new Bucket(initialRate));
+  }
+
+  /** Token bucket whose rate adapts; holds at most one second of tokens. */
+  private final class Bucket {
+    private double rate;
+    private double tokens;
+    private long updatedNanos = System.nanoTime();
+    private long lastDecreaseNanos = updatedNanos - DECREASE_INTERVAL_NANOS;
+
+    Bucket(double rate) {
+      this.rate = rate;
+      this.tokens = 1;
+    }
+
+    /** Take a token, going into debt if there is none, and return how long to wait for it. */
+    synchronized long reserve() {
+      long now = System.nanoTime();
+      tokens = Math.min(Math.max(1, rate), tokens + (now - updatedNanos) * rate / 1e9);
+      updatedNanos = now;
+      tokens--;
+      return tokens >= 0 ? 0 : (long) (-tokens / rate * 1e9);
+    }
+
+    /** Raise the rate by about {@code additiveIncrease} per second of calls at the full rate. */
+    synchronized void increase() {
+      rate = Math.min(maxRate, rate + additiveIncrease / rate);
+    }
+
+    synchronized void decrease() {
+      long now = System.nanoTime();
+      if (now - lastDecreaseNanos >= DECREASE_INTERVAL_NANOS) {
+        lastDecreaseNanos = now;
+        rate = Math.max(minRate, rate * decreaseFactor);
+        // Forget the burst allowance so the new rate applies at once
+        tokens = Math.min(tokens, 0);
+      }
+    }
+
+    synchronized double getRate() {
+      return rate;
+    }
+  }
+
+  /** Builder for {@link AdaptiveRateLimiter}. */
+  public static final class Builder {
+    private double initialRate = 20;
+    private double minRate = 1;
+    private double maxRate = 1_000;
+    private double additiveIncrease = 1;
+    private double decreaseFactor = 0.5;
+
+    private Builder() {}
+
+    /** Calls per second for each key until it has adapted. Defaults to 20. */
+    public Builder setInitialRate(double initialRate) {
+      this.initialRate = initialRate;
+      return this;
+    }
+
+    /** Lowest and highest calls per second for each key. Default to 1 and 1000. */
+    public Builder setRateRange(double minRate, double maxRate) {
+      if (minRate <= 0 || maxRate < minRate) {
+        throw new IllegalArgumentException("Rate range must satisfy 0 < min <= max");
+      }
+      this.minRate = minRate;
+      this.maxRate = maxRate;
+      return this;
+    }
+
+    /** How many calls per second the rate grows each second without throttling. Defaults to 1. */
+    public Builder setAdditiveIncrease(double additiveIncrease) {
+      if (additiveIncrease <= 0) {
+        throw new IllegalArgumentException("Additive increase must be positive");
+      }
+      this.additiveIncrease = additiveIncrease;
+      return this;
+    }
+
+    /** Factor the rate is multiplied by after throttling, between 0 and 1. Defaults to 0.5. */
+    public Builder setDecreaseFactor(double decreaseFactor) {
+      if (decreaseFactor <= 0 || decreaseFactor >= 1) {
+        throw new IllegalArgumentException("Decrease factor must be between 0 and 1");
+      }
+      this.decreaseFactor = decreaseFactor;
+      return this;
+    }
+
+    /** Build the limiter. */
+    public AdaptiveRateLimiter build() {
+      if (initialRate < minRate || initialRate > maxRate) {
+        throw new IllegalStateException("Initial rate must be within the rate range");
+      }
+      return new AdaptiveRateLimiter(this);
+    }
+  }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpIOExceptionHandler;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseInterceptor;
+import com.google.api.services.walletobjects.WalletobjectsRequest;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records latency, status codes, retries and payload sizes of API calls, per endpoint.
+ *
+ * <p>Install it by wrapping the request initializer of a client; {@link WalletClients} does so by
+ * default. Endpoints are named after the resource and method, e.g. "transitobject.patch", and
+ * batch requests are recorded as "batch". Each call is recorded once, when its last attempt
+ * completes, with the latency of all attempts. Recording is lock-free, and {@link #snapshot()}
+ * may be called at any time from any thread.
+ *
+ * <p>The requests inside a batch never see their own response, so the interceptors are not
+ * installed on them. A {@link BatchExecutor} built from the same clients records their outcomes
+ * under their own endpoints instead, while their bytes count towards "batch".
+ */
+public final class ApiMetrics {
+  private static final String API_PATH = "/walletobjects/v1/";
+
+  /** Set while a {@link BatchExecutor} builds the requests of a batch. */
+  private static final ThreadLocal<Boolean> BUILDING_BATCH = ThreadLocal.withInitial(() -> false);
+
+  private final ConcurrentMap<String, Recorder> recorders = new ConcurrentHashMap<>();
+
+  /**
+   * Wrap a request initializer so that every request it initializes is recorded.
+   *
+   * @param delegate The initializer to wrap, e.g. a {@link TokenRefresher}. May be null.
+   * @return An initializer that runs the delegate and then installs the recording interceptors.
+   */
+  public HttpRequestInitializer wrap(HttpRequestInitializer delegate) {
+    return request -> {
+      if (delegate != null) {
+        delegate.initialize(request);
+      }
+      if (BUILDING_BATCH.get()) {
+        return;
+      }
+
+      Call call =
+          new Call(
+              request.getInterceptor(),
+              request.getResponseInterceptor(),
+              request.getIOExceptionHandler());
+      request.setInterceptor(call);
+      request.setResponseInterceptor(call);
+      request.setIOExceptionHandler(call);
+    };
+  }
+
+  /** @return The stats of every endpoint called so far, sorted by endpoint. */
+  public SortedMap<String, EndpointStats> snapshot() {
+    SortedMap<String, EndpointStats> snapshot = new TreeMap<>();
+    for (Map.Entry<String, Recorder> entry : recorders.entrySet()) {
+      snapshot.put(entry.getKey(), entry.getValue().snapshot(entry.getKey()));
+    }
+    return snapshot;
+  }
+
+  /**
+   * Record the final outcome of a request sent in a batch.
+   *
+   * @param endpoint The endpoint of the request, see {@link #endpointOf(WalletobjectsRequest)}.
+   * @param statusCode The HTTP status code of the request, or 0 if its batch failed to send.
+   * @param nanos The time from sending the first attempt to the final response.
+   */
+  void recordBatchPart(String endpoint, int statusCode, long nanos) {
+    recorder(endpoint).record(statusCode, nanos);
+  }
+
+  /** Record that a request sent in a batch will be sent again in another batch. */
+  void recordBatchRetry(String endpoint) {
+    recorder(endpoint).retryCount.increment();
+  }
+
+  /**
+   * Mark the calling thread as building the requests of a batch, so that {@link #wrap} leaves
+   * them unrecorded.
+   */
+  static void setBuildingBatch(boolean buildingBatch) {
+    BUILDING_BATCH.set(buildingBatch);
+  }
+
+  /** Forget everything recorded so far. */
+  public void reset() {
+    for (Recorder recorder : recorders.values()) {
+      recorder.reset();
+    }
+  }
+
+  /**
+   * Name the endpoint of a request after its URL and method.
+   *
+   * @param request The request, after any method override has been applied.
+   * @return The endpoint, e.g. "eventticketobject.get".
+   */
+  static String endpointOf(HttpRequest request) {
+    return endpointOf(
+        request.getUrl().getRawPath(),
+        request.getRequestMethod(),
+        request.getHeaders().get("X-HTTP-Method-Override"));
+  }
+
+  /**
+   * Name the endpoint of a request built from the service client.
+   *
+   * @param request The request.
+   * @return The endpoint, e.g. "eventticketobject.get".
+   */
+  static String endpointOf(WalletobjectsRequest<?> request) {
+    return endpointOf(
+        request.buildHttpRequestUrl().getRawPath(),
+        request.getRequestMethod(),
+        request.getRequestHeaders().get("X-HTTP-Method-Override"));
+  }
+
+  private static String endpointOf(String path, String method, Object override) {
+    if (path.endsWith("/batch")) {
+      return "batch";
+    }
+    int apiPath = path.indexOf(API_PATH);
+    if (apiPath < 0) {
+      return "other";
+    }
+
+    String[] segments = path.substring(apiPath + API_PATH.length()).split("/");
+    String resource = segments[0].toLowerCase();
+    if (override instanceof List && !((List<?>) override).isEmpty()) {
+      method = ((List<?>) override).get(0).toString();
+    } else if (override != null) {
+      method = override.toString();
+    }
+
+    if (segments.length >= 3) {
+      return resource + "." + segments[2].toLowerCase();
+    }
+    switch (method) {
+      case "GET":
+        return resource + (segments.length == 1 ? ".list" : ".get");
+      case "POST":
+        return resource + ".insert";
+      case "PUT":
+        return resource + ".update";
+      case "PATCH":
+        return resource + ".patch";
+      default:
+        return resource + "." + method.toLowerCase();
+    }
+  }
+
+  private Recorder recorder(String endpoint) {
+    return recorders.computeIfAbsent(endpoint, key -> new Recorder());
+  }
+
+  /** Running totals for one endpoint. */
+  private static final class Recorder {
+    final LongAdder count = new LongAdder();
+    final LongAdder retryCount = new LongAdder();
+    final LongAdder bytesSent = new LongAdder();
+    final LongAdder bytesReceived = new LongAdder();
+    final LongAdder totalNanos = new LongAdder();
+    final ConcurrentMap<Integer, LongAdder> statusCounts = new ConcurrentHashMap<>();
+    final LatencyHistogram latency = new LatencyHistogram();
+
+    void record(int statusCode, long nanos) {
+      count.increment();
+      totalNanos.add(nanos);
+      latency.record(nanos);
+      statusCounts.computeIfAbsent(statusCode, code -> new LongAdder()).increment();
+    }
+
+    EndpointStats snapshot(String endpoint) {
+      Map<Integer, Long> statuses = new HashMap<>();
+      for (Map.Entry<Integer, LongAdder> entry : statusCounts.entrySet()) {
+        statuses.put(entry.getKey(), entry.getValue().sum());
+      }
+      return new EndpointStats(
+          endpoint,
+          count.sum(),
+          retryCount.sum(),
+          bytesSent.sum(),
+          bytesReceived.sum(),
+          totalNanos.sum(),
+          statuses,
+          latency.snapshot());
+    }
+
+    void reset() {
+      count.reset();
+      retryCount.reset();
+      bytesSent.reset();
+      bytesReceived.reset();
+      totalNanos.reset();
+      statusCounts.clear();
+      latency.reset();
+    }
+  }
+
+  /**
+   * Records one call, across all of its attempts. Runs before the interceptors it replaces, so
+   * the time spent in them, e.g. refreshing an access token, counts towards the latency. The
+   * response interceptor only runs for the final response, after any retries.
+   */
+  private final class Call
+      implements HttpExecuteInterceptor, HttpResponseInterceptor, HttpIOExceptionHandler {
+    private final HttpExecuteInterceptor executeDelegate;
+    private final HttpResponseInterceptor responseDelegate;
+    private final HttpIOExceptionHandler ioExceptionDelegate;
+
+    private Recorder recorder;
+    private long startNanos;
+
+    Call(
+        HttpExecuteInterceptor executeDelegate,
+        HttpResponseInterceptor responseDelegate,
+        HttpIOExceptionHandler ioExceptionDelegate) {
+      this.executeDelegate = executeDelegate;
+      this.responseDelegate = responseDelegate;
+      this.ioExceptionDelegate = ioExceptionDelegate;
+    }
+
+    @Override
+    public void intercept(HttpRequest request) throws IOException {
+      if (recorder == null) {
+        startNanos = System.nanoTime();
+        recorder = recorder(endpointOf(request));
+        // Already counting if the request is executed again
+        if (request.getContent() != null && !(request.getContent() instanceof CountingContent)) {
+          request.setContent(new CountingContent(request.getContent(), recorder.bytesSent));
+        }
+      } else {
+        recorder.retryCount.increment();
+      }
+
+      if (executeDelegate != null) {
+        executeDelegate.intercept(request);
+      }
+    }
+
+    @Override
+    public void interceptResponse(HttpResponse response) throws IOException {
+      if (recorder != null) {
+        Long contentLength = response.getHeaders().getContentLength();
+        if (contentLength != null) {
+          recorder.bytesReceived.add(contentLength);
+        }
+        finish(response.getStatusCode());
+      }
+
+      if (responseDelegate != null) {
+        responseDelegate.interceptResponse(response);
+      }
+    }
+
+    @Override
+    public boolean handleIOException(HttpRequest request, boolean supportsRetry)
+        throws IOException {
+      boolean handled =
+          ioExceptionDelegate != null
+              && ioExceptionDelegate.handleIOException(request, supportsRetry);
+
+      // Without a retry left, the call fails with this exception
+      if (!(handled && supportsRetry) && recorder != null) {
+        finish(0);
+      }
+      return handled;
+    }
+
+    /** Record the call, and start over if the request is executed again. */
+    private void finish(int statusCode) {
+      recorder.record(statusCode, System.nanoTime() - startNanos);
+      recorder = null;
+    }
+  }
+
+  /** Counts the bytes of a request body as it is written. */
+  private static final class CountingContent implements HttpContent {
+    private final HttpContent content;
+    private final LongAdder bytesSent;
+
+    CountingContent(HttpContent content, LongAdder bytesSent) {
+      this.content = content;
+      this.bytesSent = bytesSent;
+    }
+
+    @Override
+    public long getLength() throws IOException {
+      return content.getLength();
+    }
+
+    @Override
+    public String getType() {
+      return content.getType();
+    }
+
+    @Override
+    public boolean retrySupported() {
+      return content.retrySupported();
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+      content.writeTo(
+          new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+              out.write(b);
+              bytesSent.increment();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+              out.write(b, off, len);
+              bytesSent.add(len);
+            }
+          });
+    }
+  }
+}
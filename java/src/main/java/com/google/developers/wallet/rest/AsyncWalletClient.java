@@ -0,0 +1,441 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.util.Types;
+import com.google.api.services.walletobjects.Walletobjects;
+import com.google.api.services.walletobjects.WalletobjectsRequest;
+import com.google.api.services.walletobjects.model.AddMessageRequest;
+import com.google.api.services.walletobjects.model.Message;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs Google Wallet API calls asynchronously and returns their results as {@link
+ * CompletableFuture}s.
+ *
+ * <p>Every class and object operation of the demo classes is available for every {@link
+ * PassType}, and {@link #execute} runs any request built from the service client, e.g. {@code
+ * service.flightobject().patch(...)}. Failed calls complete their future exceptionally with the
+ * {@link IOException}, e.g. a {@link GoogleJsonResponseException}.
+ *
+ * <p>By default calls run on a fixed pool of platform threads, one per call in flight. On Java 21
+ * and later they can instead run on virtual threads, one per call, which makes tens of thousands
+ * of calls in flight cheap; the number in flight is then limited by a semaphore. Either way, calls
+ * to each endpoint (e.g. loyaltyobject.patch) can be limited separately.
+ */
+public final class AsyncWalletClient implements AutoCloseable {
+  private final Walletobjects service;
+  private final ExecutorService executor;
+  private final boolean ownsExecutor;
+
+  /** Limits the calls in flight when the executor does not, i.e. with virtual threads. */
+  private final Semaphore inFlight;
+
+  /** Permits per endpoint, keyed by request class; null if endpoints are not limited. */
+  private final ConcurrentMap<String, Semaphore> endpointPermits;
+
+  private final int maxConcurrencyPerEndpoint;
+
+  private AsyncWalletClient(Builder builder) {
+    this.service = builder.service;
+    this.ownsExecutor = builder.executor == null;
+    if (builder.executor != null) {
+      this.executor = builder.executor;
+      this.inFlight = null;
+    } else if (builder.virtualThreads) {
+      this.executor = VirtualThreads.newPerTaskExecutor();
+      this.inFlight = new Semaphore(builder.maxConcurrency);
+    } else {
+      this.executor = newExecutor(builder.maxConcurrency);
+      this.inFlight = null;
+    }
+    this.maxConcurrencyPerEndpoint = builder.maxConcurrencyPerEndpoint;
+    this.endpointPermits =
+        maxConcurrencyPerEndpoint < Integer.MAX_VALUE ? new ConcurrentHashMap<>() : null;
+  }
+
+  /**
+   * Create a builder for a client that sends requests through the given clients.
+   *
+   * @param clients The shared API clients.
+   * @return A new builder.
+   */
+  public static Builder newBuilder(WalletClients clients) {
+    return new Builder(clients.getService());
+  }
+
+  /**
+   * Create a builder for a client that sends requests through the given service client.
+   *
+   * @param service The Google Wallet service client.
+   * @return A new builder.
+   */
+  public static Builder newBuilder(Walletobjects service) {
+    return new Builder(service);
+  }
+
+  /** Stop the executor, if it was created by this client. Calls already started still complete. */
+  @Override
+  public void close() {
+    if (ownsExecutor) {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Execute a request asynchronously.
+   *
+   * @param request Any request built from the service client.
+   * @return The parsed response.
+   */
+  public <R> CompletableFuture<R> execute(WalletobjectsRequest<R> request) {
+    return CompletableFuture.supplyAsync(
+        () -> {
+          try {
+            return executeLimited(request);
+          } catch (IOException ex) {
+            throw new CompletionException(ex);
+          }
+        },
+        executor);
+  }
+
+  /** @return The pass class. */
+  public <C extends GenericJson> CompletableFuture<C> getPassClass(
+      PassType<C, ?> type, String classId) {
+    return submit(() -> type.getClassById(service, classId));
+  }
+
+  /** @return The inserted pass class. */
+  public <C extends GenericJson> CompletableFuture<C> insertClass(
+      PassType<C, ?> type, C passClass) {
+    return submit(() -> type.insertClass(service, passClass));
+  }
+
+  /**
+   * Insert a pass class unless it already exists.
+   *
+   * @return The pass class ID: "{issuerId}.{classSuffix}"
+   */
+  public <C extends GenericJson> CompletableFuture<String> createClass(
+      PassType<C, ?> type, C passClass) {
+    return ignoreConflict(insertClass(type, passClass), type.getId(passClass));
+  }
+
+  /** @return The pass class, with all of its fields replaced. */
+  public <C extends GenericJson> CompletableFuture<C> updateClass(
+      PassType<C, ?> type, String classId, C passClass) {
+    return submit(() -> type.updateClass(service, classId, passClass));
+  }
+
+  /** @return The pass class, with only the fields that are set replaced. */
+  public <C extends GenericJson> CompletableFuture<C> patchClass(
+      PassType<C, ?> type, String classId, C passClass) {
+    return submit(() -> type.patchClass(service, classId, passClass));
+  }
+
+  /**
+   * Change a pass class with a patch of only the changed fields, or an update if that is smaller.
+   *
+   * @return The changed pass class, or {@code desired} if nothing changed.
+   */
+  public <C extends GenericJson> CompletableFuture<C> changeClass(
+      PassType<C, ?> type, C previous, C desired) {
+    return submitChange(
+        () -> PassDiff.prepareClassChange(service, type, previous, desired), desired);
+  }
+
+  /** @return The pass class, with the message added. */
+  public <C extends GenericJson> CompletableFuture<C> addClassMessage(
+      PassType<C, ?> type, String classId, Message message) {
+    AddMessageRequest request = new AddMessageRequest().setMessage(message);
+    return submit(() -> type.addClassMessage(service, classId, request))
+        .thenApply(type::getUpdatedClass);
+  }
+
+  /** @return The pass object. */
+  public <O extends GenericJson> CompletableFuture<O> getPassObject(
+      PassType<?, O> type, String objectId) {
+    return submit(() -> type.getObjectById(service, objectId));
+  }
+
+  /** @return The inserted pass object. */
+  public <O extends GenericJson> CompletableFuture<O> insertObject(PassType<?, O> type, O object) {
+    return submit(() -> type.insertObject(service, object));
+  }
+
+  /**
+   * Insert a pass object unless it already exists.
+   *
+   * @return The pass object ID: "{issuerId}.{objectSuffix}"
+   */
+  public <O extends GenericJson> CompletableFuture<String> createObject(
+      PassType<?, O> type, O object) {
+    return ignoreConflict(insertObject(type, object), type.getId(object));
+  }
+
+  /** @return The pass object, with all of its fields replaced. */
+  public <O extends GenericJson> CompletableFuture<O> updateObject(
+      PassType<?, O> type, String objectId, O object) {
+    return submit(() -> type.updateObject(service, objectId, object));
+  }
+
+  /** @return The pass object, with only the fields that are set replaced. */
+  public <O extends GenericJson> CompletableFuture<O> patchObject(
+      PassType<?, O> type, String objectId, O object) {
+    return submit(() -> type.patchObject(service, objectId, object));
+  }
+
+  /**
+   * Change a pass object with a patch of only the changed fields, or an update if that is smaller.
+   *
+   * @return The changed pass object, or {@code desired} if nothing changed.
+   */
+  public <O extends GenericJson> CompletableFuture<O> changeObject(
+      PassType<?, O> type, O previous, O desired) {
+    return submitChange(
+        () -> PassDiff.prepareObjectChange(service, type, previous, desired), desired);
+  }
+
+  /**
+   * Expire a pass object. Expired objects are moved to the "Expired passes" section.
+   *
+   * @return The expired pass object.
+   */
+  public <O extends GenericJson> CompletableFuture<O> expireObject(
+      PassType<?, O> type, String objectId) {
+    O patchBody = Types.newInstance(type.getObjectModel());
+    patchBody.set("state", "EXPIRED");
+    return patchObject(type, objectId, patchBody);
+  }
+
+  /** @return The pass object, with the message added. */
+  public <O extends GenericJson> CompletableFuture<O> addObjectMessage(
+      PassType<?, O> type, String objectId, Message message) {
+    AddMessageRequest request = new AddMessageRequest().setMessage(message);
+    return submit(() -> type.addObjectMessage(service, objectId, request))
+        .thenApply(type::getUpdatedObject);
+  }
+
+  /**
+   * List the pass classes of an issuer, fetching the next page while the current one is processed.
+   *
+   * @param type The pass type of the classes.
+   * @param issuerId The issuer ID.
+   * @param pageToken A token from {@link PassPageIterator#getPageToken()} to resume from, or null
+   *     to start from the first page.
+   * @param pageSize The maximum number of classes per page.
+   * @return An iterator over the classes; close it to stop early.
+   */
+  public <C extends GenericJson> PassPageIterator<C> listClasses(
+      PassType<C, ?> type, long issuerId, String pageToken, int pageSize) {
+    return new PassPageIterator<>(
+        pageToken,
+        token -> submit(() -> type.listClasses(service, issuerId, token, pageSize)),
+        type::getListedClasses,
+        type::getNextPageToken);
+  }
+
+  /**
+   * List the pass objects of a class, fetching the next page while the current one is processed.
+   *
+   * @param type The pass type of the objects.
+   * @param classId The class ID: "{issuerId}.{classSuffix}"
+   * @param pageToken A token from {@link PassPageIterator#getPageToken()} to resume from, or null
+   *     to start from the first page.
+   * @param pageSize The maximum number of objects per page.
+   * @return An iterator over the objects; close it to stop early.
+   */
+  public <O extends GenericJson> PassPageIterator<O> listObjects(
+      PassType<?, O> type, String classId, String pageToken, int pageSize) {
+    return new PassPageIterator<>(
+        pageToken,
+        token -> submit(() -> type.listObjects(service, classId, token, pageSize)),
+        type::getListedObjects,
+        type::getNextPageToken);
+  }
+
+  /** Build a request on the calling thread and execute it asynchronously. */
+  private <R> CompletableFuture<R> submit(RequestFactory<R> factory) {
+    WalletobjectsRequest<R> request;
+    try {
+      request = factory.create();
+    } catch (IOException ex) {
+      return CompletableFuture.failedFuture(ex);
+    }
+    return execute(request);
+  }
+
+  /** Like {@link #submit}, but completes with the fallback if there is no request to send. */
+  private <R> CompletableFuture<R> submitChange(RequestFactory<R> factory, R unchanged) {
+    WalletobjectsRequest<R> request;
+    try {
+      request = factory.create();
+    } catch (IOException ex) {
+      return CompletableFuture.failedFuture(ex);
+    }
+    return request == null ? CompletableFuture.completedFuture(unchanged) : execute(request);
+  }
+
+  /** Execute a request once the in-flight and per-endpoint limits allow it. */
+  private <R> R executeLimited(WalletobjectsRequest<R> request) throws IOException {
+    Semaphore endpoint =
+        endpointPermits == null
+            ? null
+            : endpointPermits.computeIfAbsent(
+                request.getClass().getName(), key -> new Semaphore(maxConcurrencyPerEndpoint));
+
+    // Wait for the endpoint first, so that a busy endpoint does not hold in-flight permits that
+    // requests to other endpoints could use
+    try {
+      if (endpoint != null) {
+        endpoint.acquire();
+      }
+      try {
+        if (inFlight != null) {
+          inFlight.acquire();
+        }
+        try {
+          return request.execute();
+        } finally {
+          if (inFlight != null) {
+            inFlight.release();
+          }
+        }
+      } finally {
+        if (endpoint != null) {
+          endpoint.release();
+        }
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting to send a request");
+    }
+  }
+
+  /** Complete with the given ID instead of failing if the pass already exists. */
+  private static CompletableFuture<String> ignoreConflict(
+      CompletableFuture<? extends GenericJson> insert, String id) {
+    return insert.handle(
+        (inserted, ex) -> {
+          if (ex == null) {
+            return id;
+          }
+          Throwable cause = ex instanceof CompletionException ? ex.getCause() : ex;
+          if (cause instanceof GoogleJsonResponseException
+              && ((GoogleJsonResponseException) cause).getStatusCode() == 409) {
+            return id;
+          }
+          throw ex instanceof CompletionException
+              ? (CompletionException) ex
+              : new CompletionException(ex);
+        });
+  }
+
+  private static ExecutorService newExecutor(int maxConcurrency) {
+    AtomicInteger threadCount = new AtomicInteger();
+    return Executors.newFixedThreadPool(
+        maxConcurrency,
+        runnable -> {
+          Thread thread = new Thread(runnable, "wallet-async-" + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+
+  /** Creates a request, which may fail before anything is sent. */
+  @FunctionalInterface
+  private interface RequestFactory<R> {
+    WalletobjectsRequest<R> create() throws IOException;
+  }
+
+  /** Builder for {@link AsyncWalletClient}. */
+  public static final class Builder {
+    private final Walletobjects service;
+    private int maxConcurrency = 64;
+    private int maxConcurrencyPerEndpoint = Integer.MAX_VALUE;
+    private boolean virtualThreads;
+    private ExecutorService executor;
+
+    private Builder(Walletobjects service) {
+      this.service = service;
+    }
+
+    /** Maximum number of calls in flight at a time. Defaults to 64. */
+    public Builder setMaxConcurrency(int maxConcurrency) {
+      if (maxConcurrency < 1) {
+        throw new IllegalArgumentException("Max concurrency must be at least 1");
+      }
+      this.maxConcurrency = maxConcurrency;
+      return this;
+    }
+
+    /**
+     * Maximum number of calls in flight to each endpoint, e.g. loyaltyobject.patch. Defaults to no
+     * limit beyond the overall one. Calls waiting for an endpoint hold a thread, so this is best
+     * combined with virtual threads.
+     */
+    public Builder setMaxConcurrencyPerEndpoint(int maxConcurrencyPerEndpoint) {
+      if (maxConcurrencyPerEndpoint < 1) {
+        throw new IllegalArgumentException("Max concurrency per endpoint must be at least 1");
+      }
+      this.maxConcurrencyPerEndpoint = maxConcurrencyPerEndpoint;
+      return this;
+    }
+
+    /**
+     * Run each call on its own virtual thread instead of a pool of platform threads. Requires
+     * Java 21 or later; see {@link #isVirtualThreadsSupported()}.
+     */
+    public Builder setVirtualThreads(boolean virtualThreads) {
+      if (virtualThreads && !VirtualThreads.isSupported()) {
+        throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+      }
+      this.virtualThreads = virtualThreads;
+      return this;
+    }
+
+    /** @return Whether the runtime supports {@link #setVirtualThreads virtual threads}. */
+    public static boolean isVirtualThreadsSupported() {
+      return VirtualThreads.isSupported();
+    }
+
+    /**
+     * Run calls on this executor instead of one owned by the client. The executor is not shut
+     * down when the client is closed.
+     */
+    public Builder setExecutor(ExecutorService executor) {
+      this.executor = executor;
+      return this;
+    }
+
+    /** Build the client. */
+    public AsyncWalletClient build() {
+      return new AsyncWalletClient(this);
+    }
+  }
+}
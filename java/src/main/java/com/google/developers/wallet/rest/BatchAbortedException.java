@@ -0,0 +1,37 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import java.io.IOException;
+
+/**
+ * Thrown when reading the items of a {@link BatchExecutor} run fails, e.g. on a malformed row of a
+ * feed. The requests for the items read before the failure have still completed, and {@link
+ * #getResult()} summarizes them.
+ */
+public final class BatchAbortedException extends IOException {
+  private final transient BatchResult<?> result;
+
+  BatchAbortedException(RuntimeException cause, BatchResult<?> result) {
+    super("Reading the items failed after " + result.getTotal() + " of them: " + cause, cause);
+    this.result = result;
+  }
+
+  /** @return The outcome of the items read before the failure. */
+  public BatchResult<?> getResult() {
+    return result;
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+
+/**
+ * Receives the outcome of each item sent through a {@link BatchExecutor}.
+ *
+ * <p>Batches run concurrently, so implementations must be thread-safe.
+ *
+ * @param <T> The item type, e.g. a pass object to insert.
+ * @param <R> The response type of the request sent for each item.
+ */
+public interface BatchCallback<T, R> {
+  /**
+   * Invoked if the request for an item was successful.
+   *
+   * @param item The item the request was sent for.
+   * @param response The parsed response.
+   */
+  void onSuccess(T item, R response);
+
+  /**
+   * Invoked if the request for an item failed.
+   *
+   * @param item The item the request was sent for.
+   * @param error The error returned for the item.
+   */
+  void onFailure(T item, GoogleJsonError error);
+}
@@ -0,0 +1,557 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.json.GenericJson;
+import com.google.api.services.walletobjects.Walletobjects;
+import com.google.api.services.walletobjects.WalletobjectsRequest;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+/**
+ * Sends any number of API requests through batch requests.
+ *
+ * <p>Items are read lazily, split into batches of up to {@link #MAX_BATCH_SIZE} requests, and
+ * several batches are sent at a time. At most {@code parallelism + 1} batches are held in memory,
+ * so arbitrarily long streams can be processed. The outcome of each item is reported to a {@link
+ * BatchCallback}.
+ *
+ * <p>Requests in a batch succeed or fail individually. Items that fail with a retryable status
+ * (429 or 5xx), or whose whole batch failed to send, are queued again with exponential backoff and
+ * jitter and sent in a later batch together with new items. Only items that still fail after the
+ * maximum number of attempts are reported as failures.
+ *
+ * <p>Inserts are not idempotent, yet they are retried like any other request when their batch
+ * failed to send. If the batch reached the API before the connection failed, the retried insert
+ * fails with 409 although the pass was created; a {@link BatchFailure} with status 409 and more
+ * than one attempt most likely means exactly that.
+ *
+ * <p>With an {@link AdaptiveRateLimiter}, the outcome of each request adjusts the rate for its
+ * issuer and resource type. The limiter paces the requests themselves through the initializer of
+ * the service client, which also runs for each request in a batch.
+ *
+ * <p>With a {@link PassShadowStore}, passes whose request fails with 404 or 409 are removed from
+ * the store, as the store's own interceptor never sees the responses to the parts of a batch.
+ *
+ * <p>With {@link ApiMetrics}, the final outcome and the retries of each request are recorded
+ * under the request's own endpoint, with the latency from its first batch to its last.
+ */
+public final class BatchExecutor {
+  /** Maximum number of requests the API accepts in a single batch request. */
+  public static final int MAX_BATCH_SIZE = 1000;
+
+  /** Status codes of requests that may succeed when sent again. */
+  private static final Set<Integer> RETRYABLE_STATUS_CODES = Set.of(408, 429, 500, 502, 503, 504);
+
+  /** How long to wait for a retry to become due before checking for finished batches again. */
+  private static final long IDLE_POLL_MILLIS = 10;
+
+  private final Walletobjects service;
+  private final HttpRequestInitializer requestInitializer;
+  private final int batchSize;
+  private final int parallelism;
+  private final int maxAttempts;
+  private final long initialBackoffMillis;
+  private final long maxBackoffMillis;
+  private final AdaptiveRateLimiter rateLimiter;
+  private final PassShadowStore shadowStore;
+  private final ApiMetrics metrics;
+
+  /** Sends the batches of every run. Its threads exit when idle, so nothing needs closing. */
+  private final ThreadPoolExecutor batchThreads;
+
+  private BatchExecutor(Builder builder) {
+    this.service = builder.service;
+    this.requestInitializer = builder.requestInitializer;
+    this.batchSize = builder.batchSize;
+    this.parallelism = builder.parallelism;
+    this.maxAttempts = builder.maxAttempts;
+    this.initialBackoffMillis = builder.initialBackoffMillis;
+    this.maxBackoffMillis = builder.maxBackoffMillis;
+    this.rateLimiter = builder.rateLimiter;
+    this.shadowStore = builder.shadowStore;
+    this.metrics = builder.metrics;
+    this.batchThreads =
+        new ThreadPoolExecutor(
+            parallelism,
+            parallelism,
+            1,
+            TimeUnit.MINUTES,
+            new LinkedBlockingQueue<>(),
+            runnable -> {
+              Thread thread = new Thread(runnable, "wallet-batch");
+              thread.setDaemon(true);
+              return thread;
+            });
+    batchThreads.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Create a builder for an executor that sends batches through the given clients.
+   *
+   * @param clients The shared API clients.
+   * @return A new builder.
+   */
+  public static Builder newBuilder(WalletClients clients) {
+    return new Builder(clients.getService(), clients.getRequestInitializer())
+        .setRateLimiter(clients.getRateLimiter())
+        .setShadowStore(clients.getShadowStore())
+        .setMetrics(clients.getMetrics());
+  }
+
+  /**
+   * Create a builder for an executor that sends batches through the given service client.
+   *
+   * @param service The Google Wallet service client.
+   * @param requestInitializer Initializer that authenticates the batch requests.
+   * @return A new builder.
+   */
+  public static Builder newBuilder(
+      Walletobjects service, HttpRequestInitializer requestInitializer) {
+    return new Builder(service, requestInitializer);
+  }
+
+  /**
+   * Insert pass objects in batches.
+   *
+   * @param type The pass type of the objects.
+   * @param objects The objects to insert.
+   * @param callback Receives the outcome of each insert.
+   * @return The number of successful and failed inserts, and the failed objects.
+   */
+  public <O extends GenericJson> BatchResult<O> insertObjects(
+      PassType<?, O> type, Stream<O> objects, BatchCallback<O, O> callback) throws IOException {
+    return execute(objects.iterator(), type::insertObject, callback);
+  }
+
+  /**
+   * Insert pass objects in batches.
+   *
+   * @param type The pass type of the objects.
+   * @param objects The objects to insert.
+   * @param callback Receives the outcome of each insert.
+   * @return The number of successful and failed inserts, and the failed objects.
+   */
+  public <O extends GenericJson> BatchResult<O> insertObjects(
+      PassType<?, O> type, Iterable<O> objects, BatchCallback<O, O> callback) throws IOException {
+    return execute(objects.iterator(), type::insertObject, callback);
+  }
+
+  /**
+   * Send one request per item in batches, blocking until all of them have completed.
+   *
+   * @param items The items to send requests for. Read lazily, from the calling thread only.
+   * @param operation Creates the request for each item. May be called again for retries.
+   * @param callback Receives the final outcome of each request.
+   * @return The number of successful and failed requests, and the failed items.
+   * @throws BatchAbortedException If the items throw. No more items are read, but the requests
+   *     for those read before complete first.
+   */
+  public <T, R> BatchResult<T> execute(
+      Iterator<T> items,
+      BatchOperation<T, R> operation,
+      BatchCallback<? super T, ? super R> callback)
+      throws IOException {
+    BatchResult<T> result = new BatchResult<>();
+    DelayQueue<Attempt<T>> retries = new DelayQueue<>();
+    AtomicReference<RuntimeException> callbackFailure = new AtomicReference<>();
+    RuntimeException readFailure = null;
+
+    // Each permit is a batch in flight; the calling thread fills the next one meanwhile
+    Semaphore inFlight = new Semaphore(parallelism);
+    Queue<Future<?>> running = new ArrayDeque<>(parallelism + 1);
+    try {
+      while (callbackFailure.get() == null) {
+        // Retries that are due go first, then new items fill the rest of the batch
+        List<Attempt<T>> chunk = new ArrayList<>(batchSize);
+        retries.drainTo(chunk, batchSize);
+        try {
+          while (readFailure == null && chunk.size() < batchSize && items.hasNext()) {
+            chunk.add(new Attempt<>(items.next()));
+          }
+        } catch (RuntimeException ex) {
+          // Stop reading, but finish the items already read so the result covers all of them
+          readFailure = ex;
+        }
+
+        if (chunk.isEmpty()) {
+          // Running batches may still queue retries, so only stop once none are running
+          if (inFlight.availablePermits() == parallelism && retries.isEmpty()) {
+            break;
+          }
+          // Wake up as soon as a retry is due, and put it back for the next batch
+          Attempt<T> retry = retries.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+          if (retry != null) {
+            retries.add(retry);
+          }
+          continue;
+        }
+
+        inFlight.acquire();
+        running.removeIf(Future::isDone);
+        running.add(
+            batchThreads.submit(
+                () -> {
+                  try {
+                    executeBatch(chunk, operation, callback, result, retries);
+                  } catch (RuntimeException ex) {
+                    callbackFailure.compareAndSet(null, ex);
+                  } finally {
+                    inFlight.release();
+                  }
+                }));
+      }
+
+      // Wait for the remaining batches
+      inFlight.acquire(parallelism);
+    } catch (InterruptedException ex) {
+      // Stop only this run's batches, as the threads are shared with other runs
+      for (Future<?> batch : running) {
+        batch.cancel(true);
+      }
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while sending batch requests");
+    }
+
+    if (callbackFailure.get() != null) {
+      throw callbackFailure.get();
+    }
+    if (readFailure != null) {
+      throw new BatchAbortedException(readFailure, result);
+    }
+    return result;
+  }
+
+  private <T, R> void executeBatch(
+      List<Attempt<T>> chunk,
+      BatchOperation<T, R> operation,
+      BatchCallback<? super T, ? super R> callback,
+      BatchResult<T> result,
+      DelayQueue<Attempt<T>> retries) {
+    BatchRequest batch = service.batch(requestInitializer);
+
+    // Tracks which items have been handled, in case the batch as a whole fails midway
+    boolean[] handled = new boolean[chunk.size()];
+
+    for (int i = 0; i < chunk.size(); i++) {
+      Attempt<T> attempt = chunk.get(i);
+      int index = i;
+
+      try {
+        WalletobjectsRequest<R> request = operation.prepare(service, attempt.item);
+        String limiterKey = rateLimiter == null ? null : AdaptiveRateLimiter.keyOf(request);
+        String shadowKey = shadowStore == null ? null : PassShadowStore.keyOf(request);
+        if (metrics != null) {
+          attempt.endpoint = ApiMetrics.endpointOf(request);
+        }
+        if (attempt.number == 1) {
+          attempt.firstSentNanos = System.nanoTime();
+        }
+        JsonBatchCallback<R> partCallback =
+            new JsonBatchCallback<R>() {
+              @Override
+              public void onSuccess(R response, HttpHeaders responseHeaders) {
+                handled[index] = true;
+                if (limiterKey != null) {
+                  rateLimiter.onResponse(limiterKey, 200);
+                }
+                recordPart(attempt, 200);
+                result.recordSuccess();
+                callback.onSuccess(attempt.item, response);
+              }
+
+              @Override
+              public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders) {
+                handled[index] = true;
+                if (limiterKey != null) {
+                  rateLimiter.onResponse(limiterKey, error.getCode());
+                }
+                if (shadowKey != null) {
+                  shadowStore.onResponse(shadowKey, error.getCode());
+                }
+                long retryAfter = retryAfterMillis(responseHeaders);
+                handleFailure(attempt, error, retryAfter, callback, result, retries);
+              }
+            };
+
+        // The metrics' interceptors would never see the response, so they are left out
+        ApiMetrics.setBuildingBatch(true);
+        try {
+          request.queue(batch, partCallback);
+        } finally {
+          ApiMetrics.setBuildingBatch(false);
+        }
+      } catch (IOException ex) {
+        // The request could not be built, which sending it again will not fix
+        handled[index] = true;
+        result.recordFailure(new BatchFailure<>(attempt.item, toError(ex), attempt.number));
+        callback.onFailure(attempt.item, toError(ex));
+      }
+    }
+
+    try {
+      if (batch.size() > 0) {
+        batch.execute();
+      }
+    } catch (IOException ex) {
+      // No per-item responses were received for the rest of the batch, which fails with the status
+      // of the batch request itself, or with code 0 if it got no response at all
+      GoogleJsonError error = toError(ex);
+      long retryAfter =
+          ex instanceof HttpResponseException
+              ? retryAfterMillis(((HttpResponseException) ex).getHeaders())
+              : 0;
+      for (int i = 0; i < chunk.size(); i++) {
+        if (!handled[i]) {
+          handleFailure(chunk.get(i), error, retryAfter, callback, result, retries);
+        }
+      }
+    }
+  }
+
+  /** Queue a failed item for another attempt, or report it if it cannot be retried. */
+  private <T> void handleFailure(
+      Attempt<T> attempt,
+      GoogleJsonError error,
+      long retryAfterMillis,
+      BatchCallback<? super T, ?> callback,
+      BatchResult<T> result,
+      DelayQueue<Attempt<T>> retries) {
+    if (isRetryable(error) && attempt.number < maxAttempts) {
+      result.recordRetry();
+      if (attempt.endpoint != null) {
+        metrics.recordBatchRetry(attempt.endpoint);
+      }
+      retries.add(attempt.next(Math.max(backoffMillis(attempt.number), retryAfterMillis)));
+      return;
+    }
+
+    recordPart(attempt, error.getCode());
+    result.recordFailure(new BatchFailure<>(attempt.item, error, attempt.number));
+    callback.onFailure(attempt.item, error);
+  }
+
+  /** Record the final outcome of an item's request, if metrics are kept. */
+  private void recordPart(Attempt<?> attempt, int statusCode) {
+    if (attempt.endpoint != null) {
+      metrics.recordBatchPart(
+          attempt.endpoint, statusCode, System.nanoTime() - attempt.firstSentNanos);
+    }
+  }
+
+  /** Exponential backoff with jitter: a random delay between half and all of the backoff. */
+  private long backoffMillis(int failedAttempts) {
+    long backoff = initialBackoffMillis << Math.min(failedAttempts - 1, 30);
+    backoff = Math.min(backoff, maxBackoffMillis);
+    return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+  }
+
+  /** Read a Retry-After header given in seconds, or return 0 if there is none. */
+  private static long retryAfterMillis(HttpHeaders responseHeaders) {
+    Object retryAfter = responseHeaders == null ? null : responseHeaders.get("retry-after");
+    if (retryAfter instanceof List && !((List<?>) retryAfter).isEmpty()) {
+      retryAfter = ((List<?>) retryAfter).get(0);
+    }
+    if (retryAfter == null) {
+      return 0;
+    }
+
+    try {
+      return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.toString().trim()));
+    } catch (NumberFormatException ex) {
+      // HTTP dates are not used by the API
+      return 0;
+    }
+  }
+
+  /** @return Whether a request that failed with the error may succeed when sent again. */
+  static boolean isRetryable(GoogleJsonError error) {
+    return error.getCode() == 0 || RETRYABLE_STATUS_CODES.contains(error.getCode());
+  }
+
+  /**
+   * Describe a failed request as a JSON error. Keeps the status of an HTTP error response, and
+   * uses code 0 for a request that got no response.
+   */
+  static GoogleJsonError toError(IOException ex) {
+    if (ex instanceof GoogleJsonResponseException
+        && ((GoogleJsonResponseException) ex).getDetails() != null) {
+      return ((GoogleJsonResponseException) ex).getDetails();
+    }
+    GoogleJsonError error = new GoogleJsonError();
+    if (ex instanceof HttpResponseException) {
+      error.setCode(((HttpResponseException) ex).getStatusCode());
+    }
+    error.setMessage(ex.toString());
+    return error;
+  }
+
+  /** An item and how many times its request has been sent. */
+  private static final class Attempt<T> implements Delayed {
+    final T item;
+    final int number;
+    final long dueNanos;
+
+    /** The endpoint of the request for the metrics, or null if not recorded. */
+    String endpoint;
+
+    /** When the first attempt was queued in a batch. */
+    long firstSentNanos;
+
+    Attempt(T item) {
+      this(item, 1, System.nanoTime());
+    }
+
+    private Attempt(T item, int number, long dueNanos) {
+      this.item = item;
+      this.number = number;
+      this.dueNanos = dueNanos;
+    }
+
+    /** The next attempt, due after the given delay. */
+    Attempt<T> next(long delayMillis) {
+      long dueNanos = System.nanoTime() + delayMillis * 1_000_000;
+      Attempt<T> next = new Attempt<>(item, number + 1, dueNanos);
+      next.firstSentNanos = firstSentNanos;
+      return next;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+      return unit.convert(dueNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed other) {
+      return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+    }
+  }
+
+  /** Builder for {@link BatchExecutor}. */
+  public static final class Builder {
+    private final Walletobjects service;
+    private final HttpRequestInitializer requestInitializer;
+    private int batchSize = MAX_BATCH_SIZE;
+    private int parallelism = 4;
+    private int maxAttempts = 5;
+    private long initialBackoffMillis = 1_000;
+    private long maxBackoffMillis = 32_000;
+    private AdaptiveRateLimiter rateLimiter;
+    private PassShadowStore shadowStore;
+    private ApiMetrics metrics;
+
+    private Builder(Walletobjects service, HttpRequestInitializer requestInitializer) {
+      this.service = service;
+      this.requestInitializer = requestInitializer;
+    }
+
+    /** Number of requests per batch, at most {@link #MAX_BATCH_SIZE}. Defaults to the maximum. */
+    public Builder setBatchSize(int batchSize) {
+      if (batchSize < 1 || batchSize > MAX_BATCH_SIZE) {
+        throw new IllegalArgumentException("Batch size must be between 1 and " + MAX_BATCH_SIZE);
+      }
+      this.batchSize = batchSize;
+      return this;
+    }
+
+    /**
+     * Number of batch requests sent at a time, by one thread each. Runs of the same executor at
+     * the same time share the threads. Defaults to 4.
+     */
+    public Builder setParallelism(int parallelism) {
+      if (parallelism < 1) {
+        throw new IllegalArgumentException("Parallelism must be at least 1");
+      }
+      this.parallelism = parallelism;
+      return this;
+    }
+
+    /** Maximum number of times each request is sent, including retries. Defaults to 5. */
+    public Builder setMaxAttempts(int maxAttempts) {
+      if (maxAttempts < 1) {
+        throw new IllegalArgumentException("Max attempts must be at least 1");
+      }
+      this.maxAttempts = maxAttempts;
+      return this;
+    }
+
+    /**
+     * Backoff before the first retry, doubled for every further retry up to the maximum. Defaults
+     * to 1 and 32 seconds.
+     */
+    public Builder setBackoff(long initial, long max, TimeUnit unit) {
+      this.initialBackoffMillis = unit.toMillis(initial);
+      this.maxBackoffMillis = unit.toMillis(max);
+      return this;
+    }
+
+    /**
+     * Report the outcome of each request to this limiter, which should be the one the service
+     * client's requests are initialized with. Set automatically for {@link WalletClients} built
+     * with a limiter.
+     */
+    public Builder setRateLimiter(AdaptiveRateLimiter rateLimiter) {
+      this.rateLimiter = rateLimiter;
+      return this;
+    }
+
+    /**
+     * Remove passes from this store when their request fails with 404 or 409. Set automatically
+     * for {@link WalletClients} built with a store.
+     */
+    public Builder setShadowStore(PassShadowStore shadowStore) {
+      this.shadowStore = shadowStore;
+      return this;
+    }
+
+    /**
+     * Record the outcome of each request with these metrics, which should be the ones the service
+     * client's requests are recorded with. Set automatically for {@link WalletClients}.
+     */
+    public Builder setMetrics(ApiMetrics metrics) {
+      this.metrics = metrics;
+      return this;
+    }
+
+    /** Build the executor. */
+    public BatchExecutor build() {
+      return new BatchExecutor(this);
+    }
+  }
+}
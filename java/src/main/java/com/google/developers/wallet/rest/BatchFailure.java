@@ -0,0 +1,62 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+
+/**
+ * An item whose request failed permanently in a {@link BatchExecutor} run.
+ *
+ * @param <T> The item type, e.g. a pass object to insert.
+ */
+public final class BatchFailure<T> {
+  private final T item;
+  private final GoogleJsonError error;
+  private final int attempts;
+
+  BatchFailure(T item, GoogleJsonError error, int attempts) {
+    this.item = item;
+    this.error = error;
+    this.attempts = attempts;
+  }
+
+  /** @return The item the request was sent for. */
+  public T getItem() {
+    return item;
+  }
+
+  /** @return The error returned for the last attempt. */
+  public GoogleJsonError getError() {
+    return error;
+  }
+
+  /** @return The HTTP status code of the last attempt, or 0 if no response was received. */
+  public int getStatusCode() {
+    return error.getCode();
+  }
+
+  /** @return The number of times the request was sent. */
+  public int getAttempts() {
+    return attempts;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "BatchFailure{code=%d, attempts=%d, message=%s}",
+        getStatusCode(), attempts, error.getMessage());
+  }
+}
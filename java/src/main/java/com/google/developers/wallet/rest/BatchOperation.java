@@ -0,0 +1,38 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import com.google.api.services.walletobjects.Walletobjects;
+import com.google.api.services.walletobjects.WalletobjectsRequest;
+import java.io.IOException;
+
+/**
+ * Creates the API request sent for each item in a {@link BatchExecutor} run.
+ *
+ * @param <T> The item type, e.g. a pass object to insert.
+ * @param <R> The response type of the request.
+ */
+@FunctionalInterface
+public interface BatchOperation<T, R> {
+  /**
+   * Create the request for an item.
+   *
+   * @param service The Google Wallet service client.
+   * @param item The item to create a request for.
+   * @return The request, which will be queued in a batch.
+   */
+  WalletobjectsRequest<R> prepare(Walletobjects service, T item) throws IOException;
+}
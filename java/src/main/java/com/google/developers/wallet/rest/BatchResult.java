@@ -0,0 +1,79 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Summary of a {@link BatchExecutor} run.
+ *
+ * @param <T> The item type, e.g. a pass object to insert.
+ */
+public final class BatchResult<T> {
+  private final LongAdder succeeded = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder retried = new LongAdder();
+  private final Queue<BatchFailure<T>> failures = new ConcurrentLinkedQueue<>();
+
+  void recordSuccess() {
+    succeeded.increment();
+  }
+
+  void recordRetry() {
+    retried.increment();
+  }
+
+  void recordFailure(BatchFailure<T> failure) {
+    failed.increment();
+    failures.add(failure);
+  }
+
+  /** @return The number of items whose request succeeded. */
+  public long getSucceeded() {
+    return succeeded.sum();
+  }
+
+  /** @return The number of items whose request failed permanently. */
+  public long getFailed() {
+    return failed.sum();
+  }
+
+  /** @return The number of times a failed request was sent again. */
+  public long getRetried() {
+    return retried.sum();
+  }
+
+  /** @return The number of items processed. */
+  public long getTotal() {
+    return getSucceeded() + getFailed();
+  }
+
+  /** @return The items whose request failed permanently, with their last error. */
+  public List<BatchFailure<T>> getFailures() {
+    return new ArrayList<>(failures);
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "BatchResult{succeeded=%d, failed=%d, retried=%d}",
+        getSucceeded(), getFailed(), getRetried());
+  }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.util.Types;
+import com.google.api.services.walletobjects.Walletobjects;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Expires pass objects in bulk, e.g. every ticket of an event that has ended.
+ *
+ * <p>Objects are listed page by page, and those not yet expired are patched to the EXPIRED state
+ * through a {@link BatchExecutor}, which retries failed patches and, for clients built with an
+ * {@link AdaptiveRateLimiter}, stays within the rate the API accepts. Unlike {@code
+ * expireObject}, no object is fetched on its own first.
+ *
+ * <p>When expiring a class, an {@link ExpiryCheckpoint} is told the page token to resume from
+ * whenever all objects before that page are done, so an interrupted run can continue where it
+ * stopped.
+ */
+public final class BulkExpirer {
+  /** Object state that hides a pass in the "Expired passes" section. */
+  private static final String EXPIRED = "EXPIRED";
+
+  private final Walletobjects service;
+  private final BatchExecutor batchExecutor;
+  private final int pageSize;
+
+  private BulkExpirer(Builder builder) {
+    this.service = builder.service;
+    this.batchExecutor = builder.batchExecutor;
+    this.pageSize = builder.pageSize;
+  }
+
+  /**
+   * Create a builder for an expirer that sends requests through the given clients.
+   *
+   * @param clients The shared API clients.
+   * @return A new builder.
+   */
+  public static Builder newBuilder(WalletClients clients) {
+    return new Builder(clients.getService(), BatchExecutor.newBuilder(clients).build());
+  }
+
+  /**
+   * Expire every object of a class that is not expired yet.
+   *
+   * @param type The pass type of the class.
+   * @param classId The class ID: "{issuerId}.{classSuffix}"
+   * @param pageToken A token saved by the checkpoint to resume from, or null to start at the first
+   *     page.
+   * @param checkpoint Receives the token to resume from as pages are done. May be null.
+   * @return The number of expired and failed objects, and the IDs of the failed ones.
+   */
+  public <O extends GenericJson> BatchResult<String> expireClass(
+      PassType<?, O> type, String classId, String pageToken, ExpiryCheckpoint checkpoint)
+      throws IOException {
+    try (AsyncWalletClient lister = AsyncWalletClient.newBuilder(service).build();
+        PassPageIterator<O> objects = lister.listObjects(type, classId, pageToken, pageSize)) {
+      Progress progress = new Progress(checkpoint);
+      UnexpiredIds ids = new UnexpiredIds(objects, progress);
+      BatchResult<String> result =
+          expire(
+              type,
+              ids,
+              new BatchCallback<String, O>() {
+                @Override
+                public void onSuccess(String objectId, O response) {
+                  progress.done(objectId);
+                }
+
+                @Override
+                public void onFailure(String objectId, GoogleJsonError error) {
+                  progress.done(objectId);
+                }
+              });
+      progress.finish();
+      return result;
+    } catch (UncheckedIOException ex) {
+      throw ex.getCause();
+    }
+  }
+
+  /**
+   * Expire the given objects.
+   *
+   * @param type The pass type of the objects.
+   * @param objectIds The object IDs: "{issuerId}.{objectSuffix}". Read lazily.
+   * @param callback Receives the outcome of each object, e.g. to record progress.
+   * @return The number of expired and failed objects, and the IDs of the failed ones.
+   */
+  public <O extends GenericJson> BatchResult<String> expireObjects(
+      PassType<?, O> type, Iterator<String> objectIds, BatchCallback<String, ? super O> callback)
+      throws IOException {
+    return expire(type, objectIds, callback);
+  }
+
+  private <O extends GenericJson> BatchResult<String> expire(
+      PassType<?, O> type, Iterator<String> objectIds, BatchCallback<String, ? super O> callback)
+      throws IOException {
+    // Requests are serialized when their batch is sent, so all of them can share one body
+    O patchBody = Types.newInstance(type.getObjectModel());
+    patchBody.set("state", EXPIRED);
+    return batchExecutor.execute(
+        objectIds, (service, objectId) -> type.patchObject(service, objectId, patchBody), callback);
+  }
+
+  /** IDs of the listed objects that are not expired yet, registered with the progress. */
+  private static final class UnexpiredIds implements Iterator<String> {
+    private final PassPageIterator<? extends GenericJson> objects;
+    private final Progress progress;
+    private String next;
+
+    UnexpiredIds(PassPageIterator<? extends GenericJson> objects, Progress progress) {
+      this.objects = objects;
+      this.progress = progress;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (next == null && objects.hasNext()) {
+        GenericJson object = objects.next();
+        progress.page(objects.getPageToken());
+        if (!EXPIRED.equalsIgnoreCase((String) object.get("state"))) {
+          next = (String) object.get("id");
+          progress.started(next);
+        }
+      }
+      return next != null;
+    }
+
+    @Override
+    public String next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      String objectId = next;
+      next = null;
+      return objectId;
+    }
+  }
+
+  /**
+   * Tracks which pages still have objects in progress, and reports the token of the first such
+   * page whenever the pages before it are done.
+   */
+  private static final class Progress {
+    private final ExpiryCheckpoint checkpoint;
+
+    /** Objects in progress, by the page they were listed on. */
+    private final ConcurrentMap<String, Page> inProgress = new ConcurrentHashMap<>();
+
+    /** Pages in listing order; only the last one may still receive objects. */
+    private final Deque<Page> pages = new ArrayDeque<>();
+
+    private Page current;
+
+    Progress(ExpiryCheckpoint checkpoint) {
+      this.checkpoint = checkpoint;
+    }
+
+    /** Note the page of the object just listed. */
+    synchronized void page(String pageToken) {
+      if (current == null || !Objects.equals(current.token, pageToken)) {
+        current = new Page(pageToken);
+        pages.addLast(current);
+        report();
+      }
+    }
+
+    synchronized void started(String objectId) {
+      current.pending++;
+      inProgress.put(objectId, current);
+    }
+
+    synchronized void done(String objectId) {
+      Page page = inProgress.remove(objectId);
+      if (page != null) {
+        page.pending--;
+        report();
+      }
+    }
+
+    /** Report that all pages are done. */
+    synchronized void finish() {
+      pages.clear();
+      save(null);
+    }
+
+    /** Drop the leading pages that are done, and report the first one still in progress. */
+    private void report() {
+      boolean advanced = false;
+      while (pages.size() > 1 && pages.peekFirst().pending == 0) {
+        pages.removeFirst();
+        advanced = true;
+      }
+      if (advanced) {
+        save(pages.peekFirst().token);
+      }
+    }
+
+    private void save(String pageToken) {
+      if (checkpoint != null) {
+        try {
+          checkpoint.save(pageToken);
+        } catch (IOException ex) {
+          throw new UncheckedIOException(ex);
+        }
+      }
+    }
+  }
+
+  private static final class Page {
+    final String token;
+    int pending;
+
+    Page(String token) {
+      this.token = token;
+    }
+  }
+
+  /** Builder for {@link BulkExpirer}. */
+  public static final class Builder {
+    private final Walletobjects service;
+    private BatchExecutor batchExecutor;
+    private int pageSize = 1_000;
+
+    private Builder(Walletobjects service, BatchExecutor batchExecutor) {
+      this.service = service;
+      this.batchExecutor = batchExecutor;
+    }
+
+    /** Send the patches through this executor, e.g. to change the batch size or retries. */
+    public Builder setBatchExecutor(BatchExecutor batchExecutor) {
+      this.batchExecutor = batchExecutor;
+      return this;
+    }
+
+    /** Number of objects to list per page. Defaults to 1000. */
+    public Builder setPageSize(int pageSize) {
+      if (pageSize < 1) {
+        throw new IllegalArgumentException("Page size must be at least 1");
+      }
+      this.pageSize = pageSize;
+      return this;
+    }
+
+    /** Build the expirer. */
+    public BulkExpirer build() {
+      return new BulkExpirer(this);
+    }
+  }
+}
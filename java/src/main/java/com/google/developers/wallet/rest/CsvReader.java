@@ -0,0 +1,113 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads CSV with a header row, one row at a time.
+ *
+ * <p>Values may be quoted with double quotes, which are escaped by doubling them; quoted values
+ * may not span lines. Values are trimmed, and empty values are read as null. Malformed rows throw
+ * an IllegalArgumentException naming their line.
+ */
+final class CsvReader implements Closeable {
+  private final BufferedReader reader;
+  private final List<String> header;
+  private int lineNumber;
+
+  CsvReader(Reader reader) throws IOException {
+    this.reader =
+        reader instanceof BufferedReader
+            ? (BufferedReader) reader
+            : new BufferedReader(reader, 1 << 16);
+    String headerLine = this.reader.readLine();
+    this.lineNumber = 1;
+    this.header = headerLine == null ? List.of() : parseLine(headerLine);
+  }
+
+  /** @return The next row by column name, or null at the end. Blank lines are skipped. */
+  Map<String, String> readRow() throws IOException {
+    String line;
+    do {
+      line = reader.readLine();
+      if (line == null) {
+        return null;
+      }
+      lineNumber++;
+    } while (line.isBlank());
+
+    List<String> values = parseLine(line);
+    if (values.size() != header.size()) {
+      throw new IllegalArgumentException(
+          String.format(
+              "Line %d has %d columns instead of %d", lineNumber, values.size(), header.size()));
+    }
+    Map<String, String> row = new HashMap<>();
+    for (int i = 0; i < values.size(); i++) {
+      row.put(header.get(i), values.get(i).isEmpty() ? null : values.get(i));
+    }
+    return row;
+  }
+
+  /** @return The number of the line read last, starting at 1 for the header. */
+  int lineNumber() {
+    return lineNumber;
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+
+  private List<String> parseLine(String line) {
+    List<String> values = new ArrayList<>();
+    StringBuilder value = new StringBuilder();
+    boolean quoted = false;
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (quoted) {
+        if (c != '"') {
+          value.append(c);
+        } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+          value.append('"');
+          i++;
+        } else {
+          quoted = false;
+        }
+      } else if (c == '"') {
+        quoted = true;
+      } else if (c == ',') {
+        values.add(value.toString().trim());
+        value.setLength(0);
+      } else {
+        value.append(c);
+      }
+    }
+    if (quoted) {
+      throw new IllegalArgumentException("Line " + lineNumber + " has an unterminated quote");
+    }
+    values.add(value.toString().trim());
+    return values;
+  }
+}
@@ -17,23 +17,16 @@ package com.google.developers.wallet.rest;
 
 // [START setup]
 // [START imports]
-import com.auth0.jwt.JWT;
-import com.auth0.jwt.algorithms.Algorithm;
-import com.google.api.client.googleapis.batch.BatchRequest;
-import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
-import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
 import com.google.api.client.googleapis.json.GoogleJsonError;
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
 import com.google.api.client.http.*;
-import com.google.api.client.json.gson.GsonFactory;
 import com.google.api.services.walletobjects.*;
 import com.google.api.services.walletobjects.model.*;
-import com.google.auth.http.HttpCredentialsAdapter;
 import com.google.auth.oauth2.GoogleCredentials;
-import com.google.auth.oauth2.ServiceAccountCredentials;
 import java.io.*;
-import java.security.interfaces.RSAPrivateKey;
+import java.nio.file.*;
 import java.util.*;
+import java.util.stream.Stream;
 // [END imports]
 
 /** Demo class for creating and managing Event tickets in Google Wallet. */
@@ -42,13 +35,34 @@ public class DemoEventTicket {
    * Path to service account key file from Google Cloud Console. Environment variable:
    * GOOGLE_APPLICATION_CREDENTIALS.
    */
-  public static String keyFilePath;
+  private final String keyFilePath;
 
   /** Service account credentials for Google Wallet APIs. */
-  public static GoogleCredentials credentials;
+  private GoogleCredentials credentials;
 
   /** Google Wallet service client. */
-  public static Walletobjects service;
+  private Walletobjects service;
+
+  /** Clients shared by every demo class for the key file, e.g. to build a batch executor. */
+  private WalletClients clients;
+
+  /** Signs "Add to Google Wallet" JWTs with the service account credentials. */
+  private WalletJwtSigner jwtSigner;
+
+  /**
+   * Whether createClass and createObject insert directly instead of checking for an existing pass
+   * first. Either way, a 409 response to the insert means the pass already exists.
+   */
+  private boolean optimisticInsert = false;
+
+  /** Pass classes and objects known to exist, or null to always ask the API. */
+  private PassExistenceCache existenceCache;
+
+  /**
+   * Last known state of the passes written, or null to always fetch them from the API. Taken from
+   * the clients registered for the key file, see {@link WalletClients#register}.
+   */
+  private PassShadowStore shadowStore;
 
   public DemoEventTicket() throws Exception {
     keyFilePath =
@@ -64,24 +78,30 @@ public class DemoEventTicket {
    *
    */
   public void auth() throws Exception {
-    credentials =
-        GoogleCredentials.fromStream(new FileInputStream(keyFilePath))
-            .createScoped(List.of(WalletobjectsScopes.WALLET_OBJECT_ISSUER));
-    credentials.refresh();
-
-    HttpTransport httpTransport = GoogleNetHttpTransport.newTrustedTransport();
-
-    // Initialize Google Wallet API service
-    service =
-        new Walletobjects.Builder(
-                httpTransport,
-                GsonFactory.getDefaultInstance(),
-                new HttpCredentialsAdapter(credentials))
-            .setApplicationName("APPLICATION_NAME")
-            .build();
+    // The credentials, HTTP transport and service client are built once per key file and
+    // shared by every demo class, so constructing several demo classes is cheap and thread-safe
+    clients = WalletClients.forKeyFile(keyFilePath);
+
+    credentials = clients.getCredentials();
+    service = clients.getService();
+    jwtSigner = clients.getJwtSigner();
+    shadowStore = clients.getShadowStore();
   }
   // [END auth]
 
+  /**
+   * Insert directly instead of checking for an existing pass first. Either way, a 409 response to
+   * the insert means the pass already exists.
+   */
+  public void setOptimisticInsert(boolean optimisticInsert) {
+    this.optimisticInsert = optimisticInsert;
+  }
+
+  /** Remember the pass classes and objects known to exist, or pass null to always ask the API. */
+  public void setExistenceCache(PassExistenceCache existenceCache) {
+    this.existenceCache = existenceCache;
+  }
+
   // [START createClass]
   /**
    * Create a class.
@@ -91,17 +111,29 @@ public class DemoEventTicket {
    * @return The pass class ID: "{issuerId}.{classSuffix}"
    */
   public String createClass(String issuerId, String classSuffix) throws IOException {
-    // Check if the class exists
-    try {
-      service.eventticketclass().get(String.format("%s.%s", issuerId, classSuffix)).execute();
-
+    // Skip the API calls if the class is already known to exist
+    if (existenceCache != null
+        && existenceCache.containsClass(String.format("%s.%s", issuerId, classSuffix))) {
       System.out.printf("Class %s.%s already exists!%n", issuerId, classSuffix);
       return String.format("%s.%s", issuerId, classSuffix);
-    } catch (GoogleJsonResponseException ex) {
-      if (ex.getStatusCode() != 404) {
-        // Something else went wrong...
-        ex.printStackTrace();
+    }
+
+    // Check if the class exists, unless the insert below is relied on to report it
+    if (!optimisticInsert) {
+      try {
+        service.eventticketclass().get(String.format("%s.%s", issuerId, classSuffix)).execute();
+
+        System.out.printf("Class %s.%s already exists!%n", issuerId, classSuffix);
+        if (existenceCache != null) {
+          existenceCache.addClass(String.format("%s.%s", issuerId, classSuffix));
+        }
         return String.format("%s.%s", issuerId, classSuffix);
+      } catch (GoogleJsonResponseException ex) {
+        if (ex.getStatusCode() != 404) {
+          // Something else went wrong...
+          ex.printStackTrace();
+          return String.format("%s.%s", issuerId, classSuffix);
+        }
       }
     }
 
@@ -118,7 +150,15 @@ public class DemoEventTicket {
             .setIssuerName("Issuer name")
             .setReviewStatus("UNDER_REVIEW");
 
-    EventTicketClass response = service.eventticketclass().insert(newClass).execute();
+    EventTicketClass response =
+        PassType.EVENT_TICKET.insertClassIfAbsent(service, existenceCache, newClass);
+    if (response == null) {
+      // The class was inserted before
+      System.out.printf("Class %s.%s already exists!%n", issuerId, classSuffix);
+      return String.format("%s.%s", issuerId, classSuffix);
+    }
+
+    PassType.EVENT_TICKET.rememberClass(shadowStore, response);
 
     System.out.println("Class insert response");
     System.out.println(response.toPrettyString());
@@ -138,21 +178,25 @@ public class DemoEventTicket {
    * @return The pass class ID: "{issuerId}.{classSuffix}"
    */
   public String updateClass(String issuerId, String classSuffix) throws IOException {
-    EventTicketClass updatedClass;
+    // Use the last known state of the class, if any, instead of fetching it
+    String classId = String.format("%s.%s", issuerId, classSuffix);
+    EventTicketClass updatedClass =
+        shadowStore == null ? null : shadowStore.getPassClass(PassType.EVENT_TICKET, classId);
 
     // Check if the class exists
-    try {
-      updatedClass =
-          service.eventticketclass().get(String.format("%s.%s", issuerId, classSuffix)).execute();
-    } catch (GoogleJsonResponseException ex) {
-      if (ex.getStatusCode() == 404) {
-        // Class does not exist
-        System.out.printf("Class %s.%s not found!%n", issuerId, classSuffix);
-        return String.format("%s.%s", issuerId, classSuffix);
-      } else {
-        // Something else went wrong...
-        ex.printStackTrace();
-        return String.format("%s.%s", issuerId, classSuffix);
+    if (updatedClass == null) {
+      try {
+        updatedClass = service.eventticketclass().get(classId).execute();
+      } catch (GoogleJsonResponseException ex) {
+        if (ex.getStatusCode() == 404) {
+          // Class does not exist
+          System.out.printf("Class %s.%s not found!%n", issuerId, classSuffix);
+          return classId;
+        } else {
+          // Something else went wrong...
+          ex.printStackTrace();
+          return classId;
+        }
       }
     }
 
@@ -166,11 +210,9 @@ public class DemoEventTicket {
     // Note: reviewStatus must be 'UNDER_REVIEW' or 'DRAFT' for updates
     updatedClass.setReviewStatus("UNDER_REVIEW");
 
-    EventTicketClass response =
-        service
-            .eventticketclass()
-            .update(String.format("%s.%s", issuerId, classSuffix), updatedClass)
-            .execute();
+    EventTicketClass response = service.eventticketclass().update(classId, updatedClass).execute();
+
+    PassType.EVENT_TICKET.rememberClass(shadowStore, response);
 
     System.out.println("Class update response");
     System.out.println(response.toPrettyString());
@@ -190,18 +232,21 @@ public class DemoEventTicket {
    * @return The pass class ID: "{issuerId}.{classSuffix}"
    */
   public String patchClass(String issuerId, String classSuffix) throws IOException {
-    // Check if the class exists
-    try {
-      service.eventticketclass().get(String.format("%s.%s", issuerId, classSuffix)).execute();
-    } catch (GoogleJsonResponseException ex) {
-      if (ex.getStatusCode() == 404) {
-        // Class does not exist
-        System.out.printf("Class %s.%s not found!%n", issuerId, classSuffix);
-        return String.format("%s.%s", issuerId, classSuffix);
-      } else {
-        // Something else went wrong...
-        ex.printStackTrace();
-        return String.format("%s.%s", issuerId, classSuffix);
+    // Check if the class exists, unless it is known from an earlier write
+    String classId = String.format("%s.%s", issuerId, classSuffix);
+    if (shadowStore == null || !shadowStore.containsClass(PassType.EVENT_TICKET, classId)) {
+      try {
+        service.eventticketclass().get(classId).execute();
+      } catch (GoogleJsonResponseException ex) {
+        if (ex.getStatusCode() == 404) {
+          // Class does not exist
+          System.out.printf("Class %s.%s not found!%n", issuerId, classSuffix);
+          return classId;
+        } else {
+          // Something else went wrong...
+          ex.printStackTrace();
+          return classId;
+        }
       }
     }
 
@@ -217,11 +262,9 @@ public class DemoEventTicket {
             // Note: reviewStatus must be 'UNDER_REVIEW' or 'DRAFT' for updates
             .setReviewStatus("UNDER_REVIEW");
 
-    EventTicketClass response =
-        service
-            .eventticketclass()
-            .patch(String.format("%s.%s", issuerId, classSuffix), patchBody)
-            .execute();
+    EventTicketClass response = service.eventticketclass().patch(classId, patchBody).execute();
+
+    PassType.EVENT_TICKET.rememberClass(shadowStore, response);
 
     System.out.println("Class patch response");
     System.out.println(response.toPrettyString());
@@ -242,18 +285,21 @@ public class DemoEventTicket {
    */
   public String addClassMessage(String issuerId, String classSuffix, String header, String body)
       throws IOException {
-    // Check if the class exists
-    try {
-      service.eventticketclass().get(String.format("%s.%s", issuerId, classSuffix)).execute();
-    } catch (GoogleJsonResponseException ex) {
-      if (ex.getStatusCode() == 404) {
-        // Class does not exist
-        System.out.printf("Class %s.%s not found!%n", issuerId, classSuffix);
-        return String.format("%s.%s", issuerId, classSuffix);
-      } else {
-        // Something else went wrong...
-        ex.printStackTrace();
-        return String.format("%s.%s", issuerId, classSuffix);
+    // Check if the class exists, unless it is known from an earlier write
+    String classId = String.format("%s.%s", issuerId, classSuffix);
+    if (shadowStore == null || !shadowStore.containsClass(PassType.EVENT_TICKET, classId)) {
+      try {
+        service.eventticketclass().get(classId).execute();
+      } catch (GoogleJsonResponseException ex) {
+        if (ex.getStatusCode() == 404) {
+          // Class does not exist
+          System.out.printf("Class %s.%s not found!%n", issuerId, classSuffix);
+          return classId;
+        } else {
+          // Something else went wrong...
+          ex.printStackTrace();
+          return classId;
+        }
       }
     }
 
@@ -261,15 +307,14 @@ public class DemoEventTicket {
         new AddMessageRequest().setMessage(new Message().setHeader(header).setBody(body));
 
     EventTicketClassAddMessageResponse response =
-        service
-            .eventticketclass()
-            .addmessage(String.format("%s.%s", issuerId, classSuffix), message)
-            .execute();
+        service.eventticketclass().addmessage(classId, message).execute();
+
+    PassType.EVENT_TICKET.rememberClass(shadowStore, response.getResource());
 
     System.out.println("Class addMessage response");
     System.out.println(response.toPrettyString());
 
-    return String.format("%s.%s", issuerId, classSuffix);
+    return classId;
   }
   // [END addMessageClass]
 
@@ -284,17 +329,29 @@ public class DemoEventTicket {
    */
   public String createObject(String issuerId, String classSuffix, String objectSuffix)
       throws IOException {
-    // Check if the object exists
-    try {
-      service.eventticketobject().get(String.format("%s.%s", issuerId, objectSuffix)).execute();
-
+    // Skip the API calls if the object is already known to exist
+    if (existenceCache != null
+        && existenceCache.containsObject(String.format("%s.%s", issuerId, objectSuffix))) {
       System.out.printf("Object %s.%s already exists!%n", issuerId, objectSuffix);
       return String.format("%s.%s", issuerId, objectSuffix);
-    } catch (GoogleJsonResponseException ex) {
-      if (ex.getStatusCode() != 404) {
-        // Something else went wrong...
-        ex.printStackTrace();
+    }
+
+    // Check if the object exists, unless the insert below is relied on to report it
+    if (!optimisticInsert) {
+      try {
+        service.eventticketobject().get(String.format("%s.%s", issuerId, objectSuffix)).execute();
+
+        System.out.printf("Object %s.%s already exists!%n", issuerId, objectSuffix);
+        if (existenceCache != null) {
+          existenceCache.addObject(String.format("%s.%s", issuerId, objectSuffix));
+        }
         return String.format("%s.%s", issuerId, objectSuffix);
+      } catch (GoogleJsonResponseException ex) {
+        if (ex.getStatusCode() != 404) {
+          // Something else went wrong...
+          ex.printStackTrace();
+          return String.format("%s.%s", issuerId, objectSuffix);
+        }
       }
     }
 
@@ -378,7 +435,15 @@ public class DemoEventTicket {
             .setTicketHolderName("Ticket holder name")
             .setTicketNumber("Ticket number");
 
-    EventTicketObject response = service.eventticketobject().insert(newObject).execute();
+    EventTicketObject response =
+        PassType.EVENT_TICKET.insertObjectIfAbsent(service, existenceCache, newObject);
+    if (response == null) {
+      // The object was inserted before
+      System.out.printf("Object %s.%s already exists!%n", issuerId, objectSuffix);
+      return String.format("%s.%s", issuerId, objectSuffix);
+    }
+
+    PassType.EVENT_TICKET.rememberObject(shadowStore, response);
 
     System.out.println("Object insert response");
     System.out.println(response.toPrettyString());
@@ -398,21 +463,25 @@ public class DemoEventTicket {
    * @return The pass object ID: "{issuerId}.{objectSuffix}"
    */
   public String updateObject(String issuerId, String objectSuffix) throws IOException {
-    EventTicketObject updatedObject;
+    // Use the last known state of the object, if any, instead of fetching it
+    String objectId = String.format("%s.%s", issuerId, objectSuffix);
+    EventTicketObject updatedObject =
+        shadowStore == null ? null : shadowStore.getPassObject(PassType.EVENT_TICKET, objectId);
 
     // Check if the object exists
-    try {
-      updatedObject =
-          service.eventticketobject().get(String.format("%s.%s", issuerId, objectSuffix)).execute();
-    } catch (GoogleJsonResponseException ex) {
-      if (ex.getStatusCode() == 404) {
-        // Object does not exist
-        System.out.printf("Object %s.%s not found!%n", issuerId, objectSuffix);
-        return String.format("%s.%s", issuerId, objectSuffix);
-      } else {
-        // Something else went wrong...
-        ex.printStackTrace();
-        return String.format("%s.%s", issuerId, objectSuffix);
+    if (updatedObject == null) {
+      try {
+        updatedObject = service.eventticketobject().get(objectId).execute();
+      } catch (GoogleJsonResponseException ex) {
+        if (ex.getStatusCode() == 404) {
+          // Object does not exist
+          System.out.printf("Object %s.%s not found!%n", issuerId, objectSuffix);
+          return objectId;
+        } else {
+          // Something else went wrong...
+          ex.printStackTrace();
+          return objectId;
+        }
       }
     }
 
@@ -431,10 +500,9 @@ public class DemoEventTicket {
     }
 
     EventTicketObject response =
-        service
-            .eventticketobject()
-            .update(String.format("%s.%s", issuerId, objectSuffix), updatedObject)
-            .execute();
+        service.eventticketobject().update(objectId, updatedObject).execute();
+
+    PassType.EVENT_TICKET.rememberObject(shadowStore, response);
 
     System.out.println("Object update response");
     System.out.println(response.toPrettyString());
@@ -452,21 +520,25 @@ public class DemoEventTicket {
    * @return The pass object ID: "{issuerId}.{objectSuffix}"
    */
   public String patchObject(String issuerId, String objectSuffix) throws IOException {
-    EventTicketObject existingObject;
+    // Use the last known state of the object, if any, instead of fetching it
+    String objectId = String.format("%s.%s", issuerId, objectSuffix);
+    EventTicketObject existingObject =
+        shadowStore == null ? null : shadowStore.getPassObject(PassType.EVENT_TICKET, objectId);
 
     // Check if the object exists
-    try {
-      existingObject =
-          service.eventticketobject().get(String.format("%s.%s", issuerId, objectSuffix)).execute();
-    } catch (GoogleJsonResponseException ex) {
-      if (ex.getStatusCode() == 404) {
-        // Object does not exist
-        System.out.printf("Object %s.%s not found!%n", issuerId, objectSuffix);
-        return String.format("%s.%s", issuerId, objectSuffix);
-      } else {
-        // Something else went wrong...
-        ex.printStackTrace();
-        return String.format("%s.%s", issuerId, objectSuffix);
+    if (existingObject == null) {
+      try {
+        existingObject = service.eventticketobject().get(objectId).execute();
+      } catch (GoogleJsonResponseException ex) {
+        if (ex.getStatusCode() == 404) {
+          // Object does not exist
+          System.out.printf("Object %s.%s not found!%n", issuerId, objectSuffix);
+          return objectId;
+        } else {
+          // Something else went wrong...
+          ex.printStackTrace();
+          return objectId;
+        }
       }
     }
 
@@ -487,11 +559,9 @@ public class DemoEventTicket {
     }
     patchBody.getLinksModuleData().getUris().add(newLink);
 
-    EventTicketObject response =
-        service
-            .eventticketobject()
-            .patch(String.format("%s.%s", issuerId, objectSuffix), patchBody)
-            .execute();
+    EventTicketObject response = service.eventticketobject().patch(objectId, patchBody).execute();
+
+    PassType.EVENT_TICKET.rememberObject(shadowStore, response);
 
     System.out.println("Object patch response");
     System.out.println(response.toPrettyString());
@@ -512,29 +582,30 @@ public class DemoEventTicket {
    * @return The pass object ID: "{issuerId}.{objectSuffix}"
    */
   public String expireObject(String issuerId, String objectSuffix) throws IOException {
-    // Check if the object exists
-    try {
-      service.eventticketobject().get(String.format("%s.%s", issuerId, objectSuffix)).execute();
-    } catch (GoogleJsonResponseException ex) {
-      if (ex.getStatusCode() == 404) {
-        // Object does not exist
-        System.out.printf("Object %s.%s not found!%n", issuerId, objectSuffix);
-        return String.format("%s.%s", issuerId, objectSuffix);
-      } else {
-        // Something else went wrong...
-        ex.printStackTrace();
-        return String.format("%s.%s", issuerId, objectSuffix);
+    // Check if the object exists, unless it is known from an earlier write
+    String objectId = String.format("%s.%s", issuerId, objectSuffix);
+    if (shadowStore == null || !shadowStore.containsObject(PassType.EVENT_TICKET, objectId)) {
+      try {
+        service.eventticketobject().get(objectId).execute();
+      } catch (GoogleJsonResponseException ex) {
+        if (ex.getStatusCode() == 404) {
+          // Object does not exist
+          System.out.printf("Object %s.%s not found!%n", issuerId, objectSuffix);
+          return objectId;
+        } else {
+          // Something else went wrong...
+          ex.printStackTrace();
+          return objectId;
+        }
       }
     }
 
     // Patch the object, setting the pass as expired
     EventTicketObject patchBody = new EventTicketObject().setState("EXPIRED");
 
-    EventTicketObject response =
-        service
-            .eventticketobject()
-            .patch(String.format("%s.%s", issuerId, objectSuffix), patchBody)
-            .execute();
+    EventTicketObject response = service.eventticketobject().patch(objectId, patchBody).execute();
+
+    PassType.EVENT_TICKET.rememberObject(shadowStore, response);
 
     System.out.println("Object expiration response");
     System.out.println(response.toPrettyString());
@@ -555,18 +626,21 @@ public class DemoEventTicket {
    */
   public String addObjectMessage(String issuerId, String objectSuffix, String header, String body)
       throws IOException {
-    // Check if the object exists
-    try {
-      service.eventticketobject().get(String.format("%s.%s", issuerId, objectSuffix)).execute();
-    } catch (GoogleJsonResponseException ex) {
-      if (ex.getStatusCode() == 404) {
-        // Object does not exist
-        System.out.printf("Object %s.%s not found!%n", issuerId, objectSuffix);
-        return String.format("%s.%s", issuerId, objectSuffix);
-      } else {
-        // Something else went wrong...
-        ex.printStackTrace();
-        return String.format("%s.%s", issuerId, objectSuffix);
+    // Check if the object exists, unless it is known from an earlier write
+    String objectId = String.format("%s.%s", issuerId, objectSuffix);
+    if (shadowStore == null || !shadowStore.containsObject(PassType.EVENT_TICKET, objectId)) {
+      try {
+        service.eventticketobject().get(objectId).execute();
+      } catch (GoogleJsonResponseException ex) {
+        if (ex.getStatusCode() == 404) {
+          // Object does not exist
+          System.out.printf("Object %s.%s not found!%n", issuerId, objectSuffix);
+          return objectId;
+        } else {
+          // Something else went wrong...
+          ex.printStackTrace();
+          return objectId;
+        }
       }
     }
 
@@ -574,15 +648,14 @@ public class DemoEventTicket {
         new AddMessageRequest().setMessage(new Message().setHeader(header).setBody(body));
 
     EventTicketObjectAddMessageResponse response =
-        service
-            .eventticketobject()
-            .addmessage(String.format("%s.%s", issuerId, objectSuffix), message)
-            .execute();
+        service.eventticketobject().addmessage(objectId, message).execute();
+
+    PassType.EVENT_TICKET.rememberObject(shadowStore, response.getResource());
 
     System.out.println("Object addMessage response");
     System.out.println(response.toPrettyString());
 
-    return String.format("%s.%s", issuerId, objectSuffix);
+    return objectId;
   }
   // [END addMessageObject]
 
@@ -692,24 +765,14 @@ public class DemoEventTicket {
             .setTicketHolderName("Ticket holder name")
             .setTicketNumber("Ticket number");
 
-    // Create the JWT as a HashMap object
-    HashMap<String, Object> claims = new HashMap<String, Object>();
-    claims.put("iss", ((ServiceAccountCredentials) credentials).getClientEmail());
-    claims.put("aud", "google");
-    claims.put("origins", List.of("www.example.com"));
-    claims.put("typ", "savetowallet");
-
-    // Create the Google Wallet payload and add to the JWT
+    // Create the Google Wallet payload
     HashMap<String, Object> payload = new HashMap<String, Object>();
     payload.put("eventTicketClasses", List.of(newClass));
     payload.put("eventTicketObjects", List.of(newObject));
-    claims.put("payload", payload);
 
-    // The service account credentials are used to sign the JWT
-    Algorithm algorithm =
-        Algorithm.RSA256(
-            null, (RSAPrivateKey) ((ServiceAccountCredentials) credentials).getPrivateKey());
-    String token = JWT.create().withPayload(claims).sign(algorithm);
+    // The signer adds the iss, aud, origins and typ claims and signs the JWT with the service
+    // account credentials
+    String token = jwtSigner.sign(payload);
 
     System.out.println("Add to Google Wallet link");
     System.out.printf("https://pay.google.com/gp/v/save/%s%n", token);
@@ -795,19 +858,9 @@ public class DemoEventTicket {
                             .setId(String.format("%s.%s", issuerId, "TRANSIT_OBJECT_SUFFIX"))
                             .setClassId(String.format("%s.%s", issuerId, "TRANSIT_CLASS_SUFFIX"))));
 
-    // Create the JWT as a HashMap object
-    HashMap<String, Object> claims = new HashMap<String, Object>();
-    claims.put("iss", ((ServiceAccountCredentials) credentials).getClientEmail());
-    claims.put("aud", "google");
-    claims.put("origins", List.of("www.example.com"));
-    claims.put("typ", "savetowallet");
-    claims.put("payload", objectsToAdd);
-
-    // The service account credentials are used to sign the JWT
-    Algorithm algorithm =
-        Algorithm.RSA256(
-            null, (RSAPrivateKey) ((ServiceAccountCredentials) credentials).getPrivateKey());
-    String token = JWT.create().withPayload(claims).sign(algorithm);
+    // The signer adds the iss, aud, origins and typ claims and signs the JWT with the service
+    // account credentials
+    String token = jwtSigner.sign(objectsToAdd);
 
     System.out.println("Add to Google Wallet link");
     System.out.printf("https://pay.google.com/gp/v/save/%s%n", token);
@@ -824,114 +877,184 @@ public class DemoEventTicket {
    * @param classSuffix Developer-defined unique ID for this pass class.
    */
   public void batchCreateObjects(String issuerId, String classSuffix) throws IOException {
-    // Create the batch request client
-    BatchRequest batch = service.batch(new HttpCredentialsAdapter(credentials));
+    // Example: Generate three new pass objects
+    batchCreateObjects(issuerId, classSuffix, 3);
+  }
 
-    // The callback will be invoked for each request in the batch
-    JsonBatchCallback<EventTicketObject> callback =
-        new JsonBatchCallback<EventTicketObject>() {
+  /**
+   * Batch create any number of Google Wallet objects from an existing class.
+   *
+   * <p>Objects are generated as they are sent, in batches of up to 1000 objects with several
+   * batches in flight at a time.
+   *
+   * @param issuerId The issuer ID being used for this request.
+   * @param classSuffix Developer-defined unique ID for this pass class.
+   * @param count The number of pass objects to create.
+   * @return The number of objects created, and the number that failed.
+   */
+  public BatchResult<EventTicketObject> batchCreateObjects(
+      String issuerId, String classSuffix, long count) throws IOException {
+    // Create the batch executor, authenticating and rate limiting like the service client
+    BatchExecutor executor = BatchExecutor.newBuilder(clients).build();
+
+    // The callback will be invoked for each object, possibly from several threads at once
+    BatchCallback<EventTicketObject, EventTicketObject> callback =
+        new BatchCallback<EventTicketObject, EventTicketObject>() {
           // Invoked if the request was successful
-          public void onSuccess(EventTicketObject response, HttpHeaders responseHeaders) {
+          public void onSuccess(EventTicketObject batchObject, EventTicketObject response) {
             System.out.println("Batch insert response");
             System.out.println(response.toString());
           }
 
           // Invoked if the request failed
-          public void onFailure(GoogleJsonError e, HttpHeaders responseHeaders) {
+          public void onFailure(EventTicketObject batchObject, GoogleJsonError e) {
             System.out.println("Error Message: " + e.getMessage());
           }
         };
 
-    // Example: Generate three new pass objects
-    for (int i = 0; i < 3; i++) {
-      // Generate a random object suffix
-      String objectSuffix = UUID.randomUUID().toString().replaceAll("[^\\w.-]", "_");
-
-      // See link below for more information on required properties
-      // https://developers.google.com/wallet/tickets/events/rest/v1/eventticketobject
-      EventTicketObject batchObject =
-          new EventTicketObject()
-              .setId(String.format("%s.%s", issuerId, objectSuffix))
-              .setClassId(String.format("%s.%s", issuerId, classSuffix))
-              .setState("ACTIVE")
-              .setHeroImage(
-                  new Image()
-                      .setSourceUri(
-                          new ImageUri()
-                              .setUri(
-                                  "https://farm4.staticflickr.com/3723/11177041115_6e6a3b6f49_o.jpg"))
-                      .setContentDescription(
-                          new LocalizedString()
-                              .setDefaultValue(
-                                  new TranslatedString()
-                                      .setLanguage("en-US")
-                                      .setValue("Hero image description"))))
-              .setTextModulesData(
-                      List.of(
-                              new TextModuleData()
-                                      .setHeader("Text module header")
-                                      .setBody("Text module body")
-                                      .setId("TEXT_MODULE_ID")))
-              .setLinksModuleData(
-                  new LinksModuleData()
-                      .setUris(
-                          Arrays.asList(
-                              new Uri()
-                                  .setUri("http://maps.google.com/")
-                                  .setDescription("Link module URI description")
-                                  .setId("LINK_MODULE_URI_ID"),
-                              new Uri()
-                                  .setUri("tel:6505555555")
-                                  .setDescription("Link module tel description")
-                                  .setId("LINK_MODULE_TEL_ID"))))
-              .setImageModulesData(
-                      List.of(
-                              new ImageModuleData()
-                                      .setMainImage(
-                                              new Image()
-                                                      .setSourceUri(
-                                                              new ImageUri()
-                                                                      .setUri(
-                                                                              "http://farm4.staticflickr.com/3738/12440799783_3dc3c20606_b.jpg"))
-                                                      .setContentDescription(
-                                                              new LocalizedString()
-                                                                      .setDefaultValue(
-                                                                              new TranslatedString()
-                                                                                      .setLanguage("en-US")
-                                                                                      .setValue("Image module description"))))
-                                      .setId("IMAGE_MODULE_ID")))
-              .setBarcode(new Barcode().setType("QR_CODE").setValue("QR code value"))
-              .setLocations(
-                      List.of(
-                              new LatLongPoint()
-                                      .setLatitude(37.424015499999996)
-                                      .setLongitude(-122.09259560000001)))
-              .setSeatInfo(
-                  new EventSeat()
-                      .setSeat(
-                          new LocalizedString()
-                              .setDefaultValue(
-                                  new TranslatedString().setLanguage("en-US").setValue("42")))
-                      .setRow(
-                          new LocalizedString()
-                              .setDefaultValue(
-                                  new TranslatedString().setLanguage("en-US").setValue("G3")))
-                      .setSection(
-                          new LocalizedString()
-                              .setDefaultValue(
-                                  new TranslatedString().setLanguage("en-US").setValue("5")))
-                      .setGate(
-                          new LocalizedString()
-                              .setDefaultValue(
-                                  new TranslatedString().setLanguage("en-US").setValue("A"))))
-              .setTicketHolderName("Ticket holder name")
-              .setTicketNumber("Ticket number");
-
-      service.eventticketobject().insert(batchObject).queue(batch, callback);
+    // The objects are only generated when the executor is ready to send them
+    Stream<EventTicketObject> batchObjects =
+        Stream.generate(() -> newBatchObject(issuerId, classSuffix)).limit(count);
+
+    return executor.insertObjects(PassType.EVENT_TICKET, batchObjects, callback);
+  }
+
+  /**
+   * Batch create the Google Wallet objects of an event from its venue manifest.
+   *
+   * <p>Seats are read as they are sent, so the manifest may hold any number of them. See {@link
+   * EventSeatManifest} for the columns of the manifest.
+   *
+   * @param issuerId The issuer ID being used for this request.
+   * @param classSuffix Developer-defined unique ID for this pass class.
+   * @param manifestPath Path to the CSV manifest, one row per seat.
+   * @return The number of objects created, and the number that failed.
+   */
+  public BatchResult<EventTicketObject> batchCreateObjectsFromManifest(
+      String issuerId, String classSuffix, String manifestPath) throws IOException {
+    BatchExecutor executor = BatchExecutor.newBuilder(clients).build();
+
+    // The callback will be invoked for each object, possibly from several threads at once
+    BatchCallback<EventTicketObject, EventTicketObject> callback =
+        new BatchCallback<EventTicketObject, EventTicketObject>() {
+          // Invoked if the request was successful
+          public void onSuccess(EventTicketObject batchObject, EventTicketObject response) {
+            System.out.println("Batch insert response");
+            System.out.println(response.getId());
+          }
+
+          // Invoked if the request failed
+          public void onFailure(EventTicketObject batchObject, GoogleJsonError e) {
+            System.out.println("Error Message: " + e.getMessage());
+          }
+        };
+
+    EventSeatManifest manifest = EventSeatManifest.newBuilder(issuerId, classSuffix).build();
+    try (Reader reader = Files.newBufferedReader(Path.of(manifestPath))) {
+      return executor.execute(
+          manifest.readCsv(reader), PassType.EVENT_TICKET::insertObject, callback);
+    } catch (BatchAbortedException ex) {
+      // A malformed row stops the import, but the seats read before it were still sent
+      System.out.println(ex.getMessage());
+      System.out.println(ex.getResult());
+      throw ex;
+    } catch (UncheckedIOException ex) {
+      throw ex.getCause();
     }
+  }
+
+  /**
+   * Generate a pass object for batch creation.
+   *
+   * @param issuerId The issuer ID being used for this request.
+   * @param classSuffix Developer-defined unique ID for this pass class.
+   * @return A new pass object with a random object suffix.
+   */
+  private EventTicketObject newBatchObject(String issuerId, String classSuffix) {
+    // Generate a random object suffix
+    String objectSuffix = UUID.randomUUID().toString().replaceAll("[^\\w.-]", "_");
+
+    // See link below for more information on required properties
+    // https://developers.google.com/wallet/tickets/events/rest/v1/eventticketobject
+    EventTicketObject batchObject =
+        new EventTicketObject()
+            .setId(String.format("%s.%s", issuerId, objectSuffix))
+            .setClassId(String.format("%s.%s", issuerId, classSuffix))
+            .setState("ACTIVE")
+            .setHeroImage(
+                new Image()
+                    .setSourceUri(
+                        new ImageUri()
+                            .setUri(
+                                "https://farm4.staticflickr.com/3723/11177041115_6e6a3b6f49_o.jpg"))
+                    .setContentDescription(
+                        new LocalizedString()
+                            .setDefaultValue(
+                                new TranslatedString()
+                                    .setLanguage("en-US")
+                                    .setValue("Hero image description"))))
+            .setTextModulesData(
+                    List.of(
+                            new TextModuleData()
+                                    .setHeader("Text module header")
+                                    .setBody("Text module body")
+                                    .setId("TEXT_MODULE_ID")))
+            .setLinksModuleData(
+                new LinksModuleData()
+                    .setUris(
+                        Arrays.asList(
+                            new Uri()
+                                .setUri("http://maps.google.com/")
+                                .setDescription("Link module URI description")
+                                .setId("LINK_MODULE_URI_ID"),
+                            new Uri()
+                                .setUri("tel:6505555555")
+                                .setDescription("Link module tel description")
+                                .setId("LINK_MODULE_TEL_ID"))))
+            .setImageModulesData(
+                    List.of(
+                            new ImageModuleData()
+                                    .setMainImage(
+                                            new Image()
+                                                    .setSourceUri(
+                                                            new ImageUri()
+                                                                    .setUri(
+                                                                            "http://farm4.staticflickr.com/3738/12440799783_3dc3c20606_b.jpg"))
+                                                    .setContentDescription(
+                                                            new LocalizedString()
+                                                                    .setDefaultValue(
+                                                                            new TranslatedString()
+                                                                                    .setLanguage("en-US")
+                                                                                    .setValue("Image module description"))))
+                                    .setId("IMAGE_MODULE_ID")))
+            .setBarcode(new Barcode().setType("QR_CODE").setValue("QR code value"))
+            .setLocations(
+                    List.of(
+                            new LatLongPoint()
+                                    .setLatitude(37.424015499999996)
+                                    .setLongitude(-122.09259560000001)))
+            .setSeatInfo(
+                new EventSeat()
+                    .setSeat(
+                        new LocalizedString()
+                            .setDefaultValue(
+                                new TranslatedString().setLanguage("en-US").setValue("42")))
+                    .setRow(
+                        new LocalizedString()
+                            .setDefaultValue(
+                                new TranslatedString().setLanguage("en-US").setValue("G3")))
+                    .setSection(
+                        new LocalizedString()
+                            .setDefaultValue(
+                                new TranslatedString().setLanguage("en-US").setValue("5")))
+                    .setGate(
+                        new LocalizedString()
+                            .setDefaultValue(
+                                new TranslatedString().setLanguage("en-US").setValue("A"))))
+            .setTicketHolderName("Ticket holder name")
+            .setTicketNumber("Ticket number");
 
-    // Invoke the batch API calls
-    batch.execute();
+    return batchObject;
   }
   // [END batch]
 }
@@ -17,23 +17,15 @@ package com.google.developers.wallet.rest;
 
 // [START setup]
 // [START imports]
-import com.auth0.jwt.JWT;
-import com.auth0.jwt.algorithms.Algorithm;
-import com.google.api.client.googleapis.batch.BatchRequest;
-import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
-import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
 import com.google.api.client.googleapis.json.GoogleJsonError;
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
 import com.google.api.client.http.*;
-import com.google.api.client.json.gson.GsonFactory;
 import com.google.api.services.walletobjects.*;
 import com.google.api.services.walletobjects.model.*;
-import com.google.auth.http.HttpCredentialsAdapter;
 import com.google.auth.oauth2.GoogleCredentials;
-import com.google.auth.oauth2.ServiceAccountCredentials;
 import java.io.*;
-import java.security.interfaces.RSAPrivateKey;
 import java.util.*;
+import java.util.stream.Stream;
 // [END imports]
 
 /** Demo class for creating and managing Flights in Google Wallet. */
@@ -42,13 +34,34 @@ public class DemoFlight {
    * Path to service account key file from Google Cloud Console. Environment variable:
    * GOOGLE_APPLICATION_CREDENTIALS.
    */
-  public static String keyFilePath;
+  private final String keyFilePath;
 
   /** Service account credentials for Google Wallet APIs. */
-  public static GoogleCredentials credentials;
+  private GoogleCredentials credentials;
 
   /** Google Wallet service client. */
-  public static Walletobjects service;
+  private Walletobjects service;
+
+  /** Clients shared by every demo class for the key file, e.g. to build a batch executor. */
+  private WalletClients clients;
+
+  /** Signs "Add to Google Wallet" JWTs with the service account credentials. */
+  private WalletJwtSigner jwtSigner;
+
+  /**
+   * Whether createClass and createObject insert directly instead of checking for an existing pass
+   * first. Either way, a 409 response to the insert means the pass already exists.
+   */
+  private boolean optimisticInsert = false;
+
+  /** Pass classes and objects known to exist, or null to always ask the API. */
+  private PassExistenceCache existenceCache;
+
+  /**
+   * Last known state of the passes written, or null to always fetch them from the API. Taken from
+   * the clients registered for the key file, see {@link WalletClients#register}.
+   */
+  private PassShadowStore shadowStore;
 
   public DemoFlight() throws Exception {
     keyFilePath =
@@ -64,24 +77,30 @@ public class DemoFlight {
    *
    */
   public void auth() throws Exception {
-    credentials =
-        GoogleCredentials.fromStream(new FileInputStream(keyFilePath))
-            .createScoped(List.of(WalletobjectsScopes.WALLET_OBJECT_ISSUER));
-    credentials.refresh();
-
-    HttpTransport httpTransport = GoogleNetHttpTransport.newTrustedTransport();
-
-    // Initialize Google Wallet API service
-    service =
-        new Walletobjects.Builder(
-                httpTransport,
-                GsonFactory.getDefaultInstance(),
-                new HttpCredentialsAdapter(credentials))
-            .setApplicationName("APPLICATION_NAME")
-            .build();
+    // The credentials, HTTP transport and service client are built once per key file and
+    // shared by every demo class, so constructing several demo classes is cheap and thread-safe
+    clients = WalletClients.forKeyFile(keyFilePath);
+
+    credentials = clients.getCredentials();
+    service = clients.getService();
+    jwtSigner = clients.getJwtSigner();
+    shadowStore = clients.getShadowStore();
   }
   // [END auth]
 
+  /**
+   * Insert directly instead of checking for an existing pass first. Either way, a 409 response to
+   * the insert means the pass already exists.
+   */
+  public void setOptimisticInsert(boolean optimisticInsert) {
+    this.optimisticInsert = optimisticInsert;
+  }
+
+  /** Remember the pass classes and objects known to exist, or pass null to always ask the API. */
+  public void setExistenceCache(PassExistenceCache existenceCache) {
+    this.existenceCache = existenceCache;
+  }
+
   // [START createClass]
   /**
    * Create a class.
@@ -91,17 +110,29 @@ public class DemoFlight {
    * @return The pass class ID: "{issuerId}.{classSuffix}"
    */
   public String createClass(String issuerId, String classSuffix) throws IOException {
-    // Check if the class exists
-    try {
-      service.flightclass().get(String.format("%s.%s", issuerId, classSuffix)).execute();
-
+    // Skip the API calls if the class is already known to exist
+    if (existenceCache != null
+        && existenceCache.containsClass(String.format("%s.%s", issuerId, classSuffix))) {
       System.out.printf("Class %s.%s already exists!%n", issuerId, classSuffix);
       return String.format("%s.%s", issuerId, classSuffix);
-    } catch (GoogleJsonResponseException ex) {
-      if (ex.getStatusCode() != 404) {
-        // Something else went wrong...
-        ex.printStackTrace();
+    }
+
+    // Check if the class exists, unless the insert below is relied on to report it
+    if (!optimisticInsert) {
+      try {
+        service.flightclass().get(String.format("%s.%s", issuerId, classSuffix)).execute();
+
+        System.out.printf("Class %s.%s already exists!%n", issuerId, classSuffix);
+        if (existenceCache != null) {
+          existenceCache.addClass(String.format("%s.%s", issuerId, classSuffix));
+        }
         return String.format("%s.%s", issuerId, classSuffix);
+      } catch (GoogleJsonResponseException ex) {
+        if (ex.getStatusCode() != 404) {
+          // Something else went wrong...
+          ex.printStackTrace();
+          return String.format("%s.%s", issuerId, classSuffix);
+        }
       }
     }
 
@@ -121,7 +152,14 @@ public class DemoFlight {
             .setDestination(
                 new AirportInfo().setAirportIataCode("SFO").setTerminal("2").setGate("C3"));
 
-    FlightClass response = service.flightclass().insert(newClass).execute();
+    FlightClass response = PassType.FLIGHT.insertClassIfAbsent(service, existenceCache, newClass);
+    if (response == null) {
+      // The class was inserted before
+      System.out.printf("Class %s.%s already exists!%n", issuerId, classSuffix);
+      return String.format("%s.%s", issuerId, classSuffix);
+    }
+
+    PassType.FLIGHT.rememberClass(shadowStore, response);
 
     System.out.println("Class insert response");
     System.out.println(response.toPrettyString());
@@ -141,21 +179,25 @@ public class DemoFlight {
    * @return The pass class ID: "{issuerId}.{classSuffix}"
    */
   public String updateClass(String issuerId, String classSuffix) throws IOException {
-    FlightClass updatedClass;
+    // Use the last known state of the class, if any, instead of fetching it
+    String classId = String.format("%s.%s", issuerId, classSuffix);
+    FlightClass updatedClass =
+        shadowStore == null ? null : shadowStore.getPassClass(PassType.FLIGHT, classId);
 
     // Check if the class exists
-    try {
-      updatedClass =
-          service.flightclass().get(String.format("%s.%s", issuerId, classSuffix)).execute();
-    } catch (GoogleJsonResponseException ex) {
-      if (ex.getStatusCode() == 404) {
-        // Class does not exist
-        System.out.printf("Class %s.%s not found!%n", issuerId, classSuffix);
-        return String.format("%s.%s", issuerId, classSuffix);
-      } else {
-        // Something else went wrong...
-        ex.printStackTrace();
-        return String.format("%s.%s", issuerId, classSuffix);
+    if (updatedClass == null) {
+      try {
+        updatedClass = service.flightclass().get(classId).execute();
+      } catch (GoogleJsonResponseException ex) {
+        if (ex.getStatusCode() == 404) {
+          // Class does not exist
+          System.out.printf("Class %s.%s not found!%n", issuerId, classSuffix);
+          return classId;
+        } else {
+          // Something else went wrong...
+          ex.printStackTrace();
+          return classId;
+        }
       }
     }
 
@@ -169,11 +211,9 @@ public class DemoFlight {
     // Note: reviewStatus must be 'UNDER_REVIEW' or 'DRAFT' for updates
     updatedClass.setReviewStatus("UNDER_REVIEW");
 
-    FlightClass response =
-        service
-            .flightclass()
-            .update(String.format("%s.%s", issuerId, classSuffix), updatedClass)
-            .execute();
+    FlightClass response = service.flightclass().update(classId, updatedClass).execute();
+
+    PassType.FLIGHT.rememberClass(shadowStore, response);
 
     System.out.println("Class update response");
     System.out.println(response.toPrettyString());
@@ -193,18 +233,21 @@ public class DemoFlight {
    * @return The pass class ID: "{issuerId}.{classSuffix}"
    */
   public String patchClass(String issuerId, String classSuffix) throws IOException {
-    // Check if the class exists
-    try {
-      service.flightclass().get(String.format("%s.%s", issuerId, classSuffix)).execute();
-    } catch (GoogleJsonResponseException ex) {
-      if (ex.getStatusCode() == 404) {
-        // Class does not exist
-        System.out.printf("Class %s.%s not found!%n", issuerId, classSuffix);
-        return String.format("%s.%s", issuerId, classSuffix);
-      } else {
-        // Something else went wrong...
-        ex.printStackTrace();
-        return String.format("%s.%s", issuerId, classSuffix);
+    // Check if the class exists, unless it is known from an earlier write
+    String classId = String.format("%s.%s", issuerId, classSuffix);
+    if (shadowStore == null || !shadowStore.containsClass(PassType.FLIGHT, classId)) {
+      try {
+        service.flightclass().get(classId).execute();
+      } catch (GoogleJsonResponseException ex) {
+        if (ex.getStatusCode() == 404) {
+          // Class does not exist
+          System.out.printf("Class %s.%s not found!%n", issuerId, classSuffix);
+          return classId;
+        } else {
+          // Something else went wrong...
+          ex.printStackTrace();
+          return classId;
+        }
       }
     }
 
@@ -220,11 +263,9 @@ public class DemoFlight {
             // Note: reviewStatus must be 'UNDER_REVIEW' or 'DRAFT' for updates
             .setReviewStatus("UNDER_REVIEW");
 
-    FlightClass response =
-        service
-            .flightclass()
-            .patch(String.format("%s.%s", issuerId, classSuffix), patchBody)
-            .execute();
+    FlightClass response = service.flightclass().patch(classId, patchBody).execute();
+
+    PassType.FLIGHT.rememberClass(shadowStore, response);
 
     System.out.println("Class patch response");
     System.out.println(response.toPrettyString());
@@ -245,18 +286,21 @@ public class DemoFlight {
    */
   public String addClassMessage(String issuerId, String classSuffix, String header, String body)
       throws IOException {
-    // Check if the class exists
-    try {
-      service.flightclass().get(String.format("%s.%s", issuerId, classSuffix)).execute();
-    } catch (GoogleJsonResponseException ex) {
-      if (ex.getStatusCode() == 404) {
-        // Class does not exist
-        System.out.printf("Class %s.%s not found!%n", issuerId, classSuffix);
-        return String.format("%s.%s", issuerId, classSuffix);
-      } else {
-        // Something else went wrong...
-        ex.printStackTrace();
-        return String.format("%s.%s", issuerId, classSuffix);
+    // Check if the class exists, unless it is known from an earlier write
+    String classId = String.format("%s.%s", issuerId, classSuffix);
+    if (shadowStore == null || !shadowStore.containsClass(PassType.FLIGHT, classId)) {
+      try {
+        service.flightclass().get(classId).execute();
+      } catch (GoogleJsonResponseException ex) {
+        if (ex.getStatusCode() == 404) {
+          // Class does not exist
+          System.out.printf("Class %s.%s not found!%n", issuerId, classSuffix);
+          return classId;
+        } else {
+          // Something else went wrong...
+          ex.printStackTrace();
+          return classId;
+        }
       }
     }
 
@@ -264,15 +308,14 @@ public class DemoFlight {
         new AddMessageRequest().setMessage(new Message().setHeader(header).setBody(body));
 
     FlightClassAddMessageResponse response =
-        service
-            .flightclass()
-            .addmessage(String.format("%s.%s", issuerId, classSuffix), message)
-            .execute();
+        service.flightclass().addmessage(classId, message).execute();
+
+    PassType.FLIGHT.rememberClass(shadowStore, response.getResource());
 
     System.out.println("Class addMessage response");
     System.out.println(response.toPrettyString());
 
-    return String.format("%s.%s", issuerId, classSuffix);
+    return classId;
   }
   // [END addMessageClass]
 
@@ -287,17 +330,29 @@ public class DemoFlight {
    */
   public String createObject(String issuerId, String classSuffix, String objectSuffix)
       throws IOException {
-    // Check if the object exists
-    try {
-      service.flightobject().get(String.format("%s.%s", issuerId, objectSuffix)).execute();
-
+    // Skip the API calls if the object is already known to exist
+    if (existenceCache != null
+        && existenceCache.containsObject(String.format("%s.%s", issuerId, objectSuffix))) {
       System.out.printf("Object %s.%s already exists!%n", issuerId, objectSuffix);
       return String.format("%s.%s", issuerId, objectSuffix);
-    } catch (GoogleJsonResponseException ex) {
-      if (ex.getStatusCode() != 404) {
-        // Something else went wrong...
-        ex.printStackTrace();
+    }
+
+    // Check if the object exists, unless the insert below is relied on to report it
+    if (!optimisticInsert) {
+      try {
+        service.flightobject().get(String.format("%s.%s", issuerId, objectSuffix)).execute();
+
+        System.out.printf("Object %s.%s already exists!%n", issuerId, objectSuffix);
+        if (existenceCache != null) {
+          existenceCache.addObject(String.format("%s.%s", issuerId, objectSuffix));
+        }
         return String.format("%s.%s", issuerId, objectSuffix);
+      } catch (GoogleJsonResponseException ex) {
+        if (ex.getStatusCode() != 404) {
+          // Something else went wrong...
+          ex.printStackTrace();
+          return String.format("%s.%s", issuerId, objectSuffix);
+        }
       }
     }
 
@@ -365,7 +420,15 @@ public class DemoFlight {
                 new BoardingAndSeatingInfo().setBoardingGroup("B").setSeatNumber("42"))
             .setReservationInfo(new ReservationInfo().setConfirmationCode("Confirmation code"));
 
-    FlightObject response = service.flightobject().insert(newObject).execute();
+    FlightObject response =
+        PassType.FLIGHT.insertObjectIfAbsent(service, existenceCache, newObject);
+    if (response == null) {
+      // The object was inserted before
+      System.out.printf("Object %s.%s already exists!%n", issuerId, objectSuffix);
+      return String.format("%s.%s", issuerId, objectSuffix);
+    }
+
+    PassType.FLIGHT.rememberObject(shadowStore, response);
 
     System.out.println("Object insert response");
     System.out.println(response.toPrettyString());
@@ -385,21 +448,25 @@ public class DemoFlight {
    * @return The pass object ID: "{issuerId}.{objectSuffix}"
    */
   public String updateObject(String issuerId, String objectSuffix) throws IOException {
-    FlightObject updatedObject;
+    // Use the last known state of the object, if any, instead of fetching it
+    String objectId = String.format("%s.%s", issuerId, objectSuffix);
+    FlightObject updatedObject =
+        shadowStore == null ? null : shadowStore.getPassObject(PassType.FLIGHT, objectId);
 
     // Check if the object exists
-    try {
-      updatedObject =
-          service.flightobject().get(String.format("%s.%s", issuerId, objectSuffix)).execute();
-    } catch (GoogleJsonResponseException ex) {
-      if (ex.getStatusCode() == 404) {
-        // Object does not exist
-        System.out.printf("Object %s.%s not found!%n", issuerId, objectSuffix);
-        return String.format("%s.%s", issuerId, objectSuffix);
-      } else {
-        // Something else went wrong...
-        ex.printStackTrace();
-        return String.format("%s.%s", issuerId, objectSuffix);
+    if (updatedObject == null) {
+      try {
+        updatedObject = service.flightobject().get(objectId).execute();
+      } catch (GoogleJsonResponseException ex) {
+        if (ex.getStatusCode() == 404) {
+          // Object does not exist
+          System.out.printf("Object %s.%s not found!%n", issuerId, objectSuffix);
+          return objectId;
+        } else {
+          // Something else went wrong...
+          ex.printStackTrace();
+          return objectId;
+        }
       }
     }
 
@@ -417,11 +484,9 @@ public class DemoFlight {
       updatedObject.getLinksModuleData().getUris().add(newLink);
     }
 
-    FlightObject response =
-        service
-            .flightobject()
-            .update(String.format("%s.%s", issuerId, objectSuffix), updatedObject)
-            .execute();
+    FlightObject response = service.flightobject().update(objectId, updatedObject).execute();
+
+    PassType.FLIGHT.rememberObject(shadowStore, response);
 
     System.out.println("Object update response");
     System.out.println(response.toPrettyString());
@@ -439,21 +504,25 @@ public class DemoFlight {
    * @return The pass object ID: "{issuerId}.{objectSuffix}"
    */
   public String patchObject(String issuerId, String objectSuffix) throws IOException {
-    FlightObject existingObject;
+    // Use the last known state of the object, if any, instead of fetching it
+    String objectId = String.format("%s.%s", issuerId, objectSuffix);
+    FlightObject existingObject =
+        shadowStore == null ? null : shadowStore.getPassObject(PassType.FLIGHT, objectId);
 
     // Check if the object exists
-    try {
-      existingObject =
-          service.flightobject().get(String.format("%s.%s", issuerId, objectSuffix)).execute();
-    } catch (GoogleJsonResponseException ex) {
-      if (ex.getStatusCode() == 404) {
-        // Object does not exist
-        System.out.printf("Object %s.%s not found!%n", issuerId, objectSuffix);
-        return String.format("%s.%s", issuerId, objectSuffix);
-      } else {
-        // Something else went wrong...
-        ex.printStackTrace();
-        return String.format("%s.%s", issuerId, objectSuffix);
+    if (existingObject == null) {
+      try {
+        existingObject = service.flightobject().get(objectId).execute();
+      } catch (GoogleJsonResponseException ex) {
+        if (ex.getStatusCode() == 404) {
+          // Object does not exist
+          System.out.printf("Object %s.%s not found!%n", issuerId, objectSuffix);
+          return objectId;
+        } else {
+          // Something else went wrong...
+          ex.printStackTrace();
+          return objectId;
+        }
       }
     }
 
@@ -474,11 +543,9 @@ public class DemoFlight {
     }
     patchBody.getLinksModuleData().getUris().add(newLink);
 
-    FlightObject response =
-        service
-            .flightobject()
-            .patch(String.format("%s.%s", issuerId, objectSuffix), patchBody)
-            .execute();
+    FlightObject response = service.flightobject().patch(objectId, patchBody).execute();
+
+    PassType.FLIGHT.rememberObject(shadowStore, response);
 
     System.out.println("Object patch response");
     System.out.println(response.toPrettyString());
@@ -499,29 +566,30 @@ public class DemoFlight {
    * @return The pass object ID: "{issuerId}.{objectSuffix}"
    */
   public String expireObject(String issuerId, String objectSuffix) throws IOException {
-    // Check if the object exists
-    try {
-      service.flightobject().get(String.format("%s.%s", issuerId, objectSuffix)).execute();
-    } catch (GoogleJsonResponseException ex) {
-      if (ex.getStatusCode() == 404) {
-        // Object does not exist
-        System.out.printf("Object %s.%s not found!%n", issuerId, objectSuffix);
-        return String.format("%s.%s", issuerId, objectSuffix);
-      } else {
-        // Something else went wrong...
-        ex.printStackTrace();
-        return String.format("%s.%s", issuerId, objectSuffix);
+    // Check if the object exists, unless it is known from an earlier write
+    String objectId = String.format("%s.%s", issuerId, objectSuffix);
+    if (shadowStore == null || !shadowStore.containsObject(PassType.FLIGHT, objectId)) {
+      try {
+        service.flightobject().get(objectId).execute();
+      } catch (GoogleJsonResponseException ex) {
+        if (ex.getStatusCode() == 404) {
+          // Object does not exist
+          System.out.printf("Object %s.%s not found!%n", issuerId, objectSuffix);
+          return objectId;
+        } else {
+          // Something else went wrong...
+          ex.printStackTrace();
+          return objectId;
+        }
       }
     }
 
     // Patch the object, setting the pass as expired
     FlightObject patchBody = new FlightObject().setState("EXPIRED");
 
-    FlightObject response =
-        service
-            .flightobject()
-            .patch(String.format("%s.%s", issuerId, objectSuffix), patchBody)
-            .execute();
+    FlightObject response = service.flightobject().patch(objectId, patchBody).execute();
+
+    PassType.FLIGHT.rememberObject(shadowStore, response);
 
     System.out.println("Object expiration response");
     System.out.println(response.toPrettyString());
@@ -542,18 +610,21 @@ public class DemoFlight {
    */
   public String addObjectMessage(String issuerId, String objectSuffix, String header, String body)
       throws IOException {
-    // Check if the object exists
-    try {
-      service.flightobject().get(String.format("%s.%s", issuerId, objectSuffix)).execute();
-    } catch (GoogleJsonResponseException ex) {
-      if (ex.getStatusCode() == 404) {
-        // Object does not exist
-        System.out.printf("Object %s.%s not found!%n", issuerId, objectSuffix);
-        return String.format("%s.%s", issuerId, objectSuffix);
-      } else {
-        // Something else went wrong...
-        ex.printStackTrace();
-        return String.format("%s.%s", issuerId, objectSuffix);
+    // Check if the object exists, unless it is known from an earlier write
+    String objectId = String.format("%s.%s", issuerId, objectSuffix);
+    if (shadowStore == null || !shadowStore.containsObject(PassType.FLIGHT, objectId)) {
+      try {
+        service.flightobject().get(objectId).execute();
+      } catch (GoogleJsonResponseException ex) {
+        if (ex.getStatusCode() == 404) {
+          // Object does not exist
+          System.out.printf("Object %s.%s not found!%n", issuerId, objectSuffix);
+          return objectId;
+        } else {
+          // Something else went wrong...
+          ex.printStackTrace();
+          return objectId;
+        }
       }
     }
 
@@ -561,15 +632,14 @@ public class DemoFlight {
         new AddMessageRequest().setMessage(new Message().setHeader(header).setBody(body));
 
     FlightObjectAddMessageResponse response =
-        service
-            .flightobject()
-            .addmessage(String.format("%s.%s", issuerId, objectSuffix), message)
-            .execute();
+        service.flightobject().addmessage(objectId, message).execute();
+
+    PassType.FLIGHT.rememberObject(shadowStore, response.getResource());
 
     System.out.println("Object addMessage response");
     System.out.println(response.toPrettyString());
 
-    return String.format("%s.%s", issuerId, objectSuffix);
+    return objectId;
   }
   // [END addMessageObject]
 
@@ -667,24 +737,14 @@ public class DemoFlight {
                 new BoardingAndSeatingInfo().setBoardingGroup("B").setSeatNumber("42"))
             .setReservationInfo(new ReservationInfo().setConfirmationCode("Confirmation code"));
 
-    // Create the JWT as a HashMap object
-    HashMap<String, Object> claims = new HashMap<String, Object>();
-    claims.put("iss", ((ServiceAccountCredentials) credentials).getClientEmail());
-    claims.put("aud", "google");
-    claims.put("origins", List.of("www.example.com"));
-    claims.put("typ", "savetowallet");
-
-    // Create the Google Wallet payload and add to the JWT
+    // Create the Google Wallet payload
     HashMap<String, Object> payload = new HashMap<String, Object>();
     payload.put("flightClasses", List.of(newClass));
     payload.put("flightObjects", List.of(newObject));
-    claims.put("payload", payload);
 
-    // The service account credentials are used to sign the JWT
-    Algorithm algorithm =
-        Algorithm.RSA256(
-            null, (RSAPrivateKey) ((ServiceAccountCredentials) credentials).getPrivateKey());
-    String token = JWT.create().withPayload(claims).sign(algorithm);
+    // The signer adds the iss, aud, origins and typ claims and signs the JWT with the service
+    // account credentials
+    String token = jwtSigner.sign(payload);
 
     System.out.println("Add to Google Wallet link");
     System.out.printf("https://pay.google.com/gp/v/save/%s%n", token);
@@ -770,19 +830,9 @@ public class DemoFlight {
                             .setId(String.format("%s.%s", issuerId, "TRANSIT_OBJECT_SUFFIX"))
                             .setClassId(String.format("%s.%s", issuerId, "TRANSIT_CLASS_SUFFIX"))));
 
-    // Create the JWT as a HashMap object
-    HashMap<String, Object> claims = new HashMap<String, Object>();
-    claims.put("iss", ((ServiceAccountCredentials) credentials).getClientEmail());
-    claims.put("aud", "google");
-    claims.put("origins", List.of("www.example.com"));
-    claims.put("typ", "savetowallet");
-    claims.put("payload", objectsToAdd);
-
-    // The service account credentials are used to sign the JWT
-    Algorithm algorithm =
-        Algorithm.RSA256(
-            null, (RSAPrivateKey) ((ServiceAccountCredentials) credentials).getPrivateKey());
-    String token = JWT.create().withPayload(claims).sign(algorithm);
+    // The signer adds the iss, aud, origins and typ claims and signs the JWT with the service
+    // account credentials
+    String token = jwtSigner.sign(objectsToAdd);
 
     System.out.println("Add to Google Wallet link");
     System.out.printf("https://pay.google.com/gp/v/save/%s%n", token);
@@ -799,98 +849,124 @@ public class DemoFlight {
    * @param classSuffix Developer-defined unique ID for this pass class.
    */
   public void batchCreateObjects(String issuerId, String classSuffix) throws IOException {
-    // Create the batch request client
-    BatchRequest batch = service.batch(new HttpCredentialsAdapter(credentials));
+    // Example: Generate three new pass objects
+    batchCreateObjects(issuerId, classSuffix, 3);
+  }
 
-    // The callback will be invoked for each request in the batch
-    JsonBatchCallback<FlightObject> callback =
-        new JsonBatchCallback<FlightObject>() {
+  /**
+   * Batch create any number of Google Wallet objects from an existing class.
+   *
+   * <p>Objects are generated as they are sent, in batches of up to 1000 objects with several
+   * batches in flight at a time.
+   *
+   * @param issuerId The issuer ID being used for this request.
+   * @param classSuffix Developer-defined unique ID for this pass class.
+   * @param count The number of pass objects to create.
+   * @return The number of objects created, and the number that failed.
+   */
+  public BatchResult<FlightObject> batchCreateObjects(
+      String issuerId, String classSuffix, long count) throws IOException {
+    // Create the batch executor, authenticating and rate limiting like the service client
+    BatchExecutor executor = BatchExecutor.newBuilder(clients).build();
+
+    // The callback will be invoked for each object, possibly from several threads at once
+    BatchCallback<FlightObject, FlightObject> callback =
+        new BatchCallback<FlightObject, FlightObject>() {
           // Invoked if the request was successful
-          public void onSuccess(FlightObject response, HttpHeaders responseHeaders) {
+          public void onSuccess(FlightObject batchObject, FlightObject response) {
             System.out.println("Batch insert response");
             System.out.println(response.toString());
           }
 
           // Invoked if the request failed
-          public void onFailure(GoogleJsonError e, HttpHeaders responseHeaders) {
+          public void onFailure(FlightObject batchObject, GoogleJsonError e) {
             System.out.println("Error Message: " + e.getMessage());
           }
         };
 
-    // Example: Generate three new pass objects
-    for (int i = 0; i < 3; i++) {
-      // Generate a random object suffix
-      String objectSuffix = UUID.randomUUID().toString().replaceAll("[^\\w.-]", "_");
-
-      // See link below for more information on required properties
-      // https://developers.google.com/wallet/tickets/boarding-passes/rest/v1/flightobject
-      FlightObject batchObject =
-          new FlightObject()
-              .setId(String.format("%s.%s", issuerId, objectSuffix))
-              .setClassId(String.format("%s.%s", issuerId, classSuffix))
-              .setState("ACTIVE")
-              .setHeroImage(
-                  new Image()
-                      .setSourceUri(
-                          new ImageUri()
-                              .setUri(
-                                  "https://farm4.staticflickr.com/3723/11177041115_6e6a3b6f49_o.jpg"))
-                      .setContentDescription(
-                          new LocalizedString()
-                              .setDefaultValue(
-                                  new TranslatedString()
-                                      .setLanguage("en-US")
-                                      .setValue("Hero image description"))))
-              .setTextModulesData(
-                      List.of(
-                              new TextModuleData()
-                                      .setHeader("Text module header")
-                                      .setBody("Text module body")
-                                      .setId("TEXT_MODULE_ID")))
-              .setLinksModuleData(
-                  new LinksModuleData()
-                      .setUris(
-                          Arrays.asList(
-                              new Uri()
-                                  .setUri("http://maps.google.com/")
-                                  .setDescription("Link module URI description")
-                                  .setId("LINK_MODULE_URI_ID"),
-                              new Uri()
-                                  .setUri("tel:6505555555")
-                                  .setDescription("Link module tel description")
-                                  .setId("LINK_MODULE_TEL_ID"))))
-              .setImageModulesData(
-                      List.of(
-                              new ImageModuleData()
-                                      .setMainImage(
-                                              new Image()
-                                                      .setSourceUri(
-                                                              new ImageUri()
-                                                                      .setUri(
-                                                                              "http://farm4.staticflickr.com/3738/12440799783_3dc3c20606_b.jpg"))
-                                                      .setContentDescription(
-                                                              new LocalizedString()
-                                                                      .setDefaultValue(
-                                                                              new TranslatedString()
-                                                                                      .setLanguage("en-US")
-                                                                                      .setValue("Image module description"))))
-                                      .setId("IMAGE_MODULE_ID")))
-              .setBarcode(new Barcode().setType("QR_CODE").setValue("QR code value"))
-              .setLocations(
-                      List.of(
-                              new LatLongPoint()
-                                      .setLatitude(37.424015499999996)
-                                      .setLongitude(-122.09259560000001)))
-              .setPassengerName("Passenger name")
-              .setBoardingAndSeatingInfo(
-                  new BoardingAndSeatingInfo().setBoardingGroup("B").setSeatNumber("42"))
-              .setReservationInfo(new ReservationInfo().setConfirmationCode("Confirmation code"));
-
-      service.flightobject().insert(batchObject).queue(batch, callback);
-    }
+    // The objects are only generated when the executor is ready to send them
+    Stream<FlightObject> batchObjects =
+        Stream.generate(() -> newBatchObject(issuerId, classSuffix)).limit(count);
+
+    return executor.insertObjects(PassType.FLIGHT, batchObjects, callback);
+  }
+
+  /**
+   * Generate a pass object for batch creation.
+   *
+   * @param issuerId The issuer ID being used for this request.
+   * @param classSuffix Developer-defined unique ID for this pass class.
+   * @return A new pass object with a random object suffix.
+   */
+  private FlightObject newBatchObject(String issuerId, String classSuffix) {
+    // Generate a random object suffix
+    String objectSuffix = UUID.randomUUID().toString().replaceAll("[^\\w.-]", "_");
+
+    // See link below for more information on required properties
+    // https://developers.google.com/wallet/tickets/boarding-passes/rest/v1/flightobject
+    FlightObject batchObject =
+        new FlightObject()
+            .setId(String.format("%s.%s", issuerId, objectSuffix))
+            .setClassId(String.format("%s.%s", issuerId, classSuffix))
+            .setState("ACTIVE")
+            .setHeroImage(
+                new Image()
+                    .setSourceUri(
+                        new ImageUri()
+                            .setUri(
+                                "https://farm4.staticflickr.com/3723/11177041115_6e6a3b6f49_o.jpg"))
+                    .setContentDescription(
+                        new LocalizedString()
+                            .setDefaultValue(
+                                new TranslatedString()
+                                    .setLanguage("en-US")
+                                    .setValue("Hero image description"))))
+            .setTextModulesData(
+                    List.of(
+                            new TextModuleData()
+                                    .setHeader("Text module header")
+                                    .setBody("Text module body")
+                                    .setId("TEXT_MODULE_ID")))
+            .setLinksModuleData(
+                new LinksModuleData()
+                    .setUris(
+                        Arrays.asList(
+                            new Uri()
+                                .setUri("http://maps.google.com/")
+                                .setDescription("Link module URI description")
+                                .setId("LINK_MODULE_URI_ID"),
+                            new Uri()
+                                .setUri("tel:6505555555")
+                                .setDescription("Link module tel description")
+                                .setId("LINK_MODULE_TEL_ID"))))
+            .setImageModulesData(
+                    List.of(
+                            new ImageModuleData()
+                                    .setMainImage(
+                                            new Image()
+                                                    .setSourceUri(
+                                                            new ImageUri()
+                                                                    .setUri(
+                                                                            "http://farm4.staticflickr.com/3738/12440799783_3dc3c20606_b.jpg"))
+                                                    .setContentDescription(
+                                                            new LocalizedString()
+                                                                    .setDefaultValue(
+                                                                            new TranslatedString()
+                                                                                    .setLanguage("en-US")
+                                                                                    .setValue("Image module description"))))
+                                    .setId("IMAGE_MODULE_ID")))
+            .setBarcode(new Barcode().setType("QR_CODE").setValue("QR code value"))
+            .setLocations(
+                    List.of(
+                            new LatLongPoint()
+                                    .setLatitude(37.424015499999996)
+                                    .setLongitude(-122.09259560000001)))
+            .setPassengerName("Passenger name")
+            .setBoardingAndSeatingInfo(
+                new BoardingAndSeatingInfo().setBoardingGroup("B").setSeatNumber("42"))
+            .setReservationInfo(new ReservationInfo().setConfirmationCode("Confirmation code"));
 
-    // Invoke the batch API calls
-    batch.execute();
+    return batchObject;
   }
   // [END batch]
 }
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshot of the calls made to one API endpoint, such as "transitobject.patch".
+ *
+ * <p>Latency covers a whole call as seen by the caller, including authentication and any retries.
+ */
+public final class EndpointStats {
+  private final String endpoint;
+  private final long count;
+  private final long retryCount;
+  private final long bytesSent;
+  private final long bytesReceived;
+  private final long totalNanos;
+  private final Map<Integer, Long> statusCounts;
+  private final long[] latencyBuckets;
+
+  EndpointStats(
+      String endpoint,
+      long count,
+      long retryCount,
+      long bytesSent,
+      long bytesReceived,
+      long totalNanos,
+      Map<Integer, Long> statusCounts,
+      long[] latencyBuckets) {
+    this.endpoint = endpoint;
+    this.count = count;
+    this.retryCount = retryCount;
+    this.bytesSent = bytesSent;
+    this.bytesReceived = bytesReceived;
+    this.totalNanos = totalNanos;
+    this.statusCounts = Map.copyOf(statusCounts);
+    this.latencyBuckets = latencyBuckets;
+  }
+
+  /** @return The endpoint: the lowercase resource and method, e.g. "loyaltyobject.addmessage". */
+  public String getEndpoint() {
+    return endpoint;
+  }
+
+  /** @return The number of completed calls. */
+  public long getCount() {
+    return count;
+  }
+
+  /** @return The number of times calls were sent again, e.g. after a 401 or an I/O error. */
+  public long getRetryCount() {
+    return retryCount;
+  }
+
+  /** @return The number of request body bytes sent, before compression. */
+  public long getBytesSent() {
+    return bytesSent;
+  }
+
+  /** @return The number of response body bytes received, as given by Content-Length. */
+  public long getBytesReceived() {
+    return bytesReceived;
+  }
+
+  /** @return The number of calls per HTTP status code; 0 counts calls that got no response. */
+  public Map<Integer, Long> getStatusCounts() {
+    return statusCounts;
+  }
+
+  /** @return The mean latency in milliseconds. */
+  public double getMeanMillis() {
+    return count == 0 ? 0 : (double) totalNanos / count / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  /**
+   * Get a latency percentile, accurate to about 19%.
+   *
+   * @param percentile The percentile, e.g. 99 or 99.9.
+   * @return The latency in milliseconds below which the given percentage of calls completed.
+   */
+  public double getPercentileMillis(double percentile) {
+    long total = 0;
+    for (long bucketCount : latencyBuckets) {
+      total += bucketCount;
+    }
+    if (total == 0) {
+      return 0;
+    }
+
+    long rank = (long) Math.ceil(total * percentile / 100);
+    long seen = 0;
+    for (int i = 0; i < latencyBuckets.length; i++) {
+      seen += latencyBuckets[i];
+      if (seen >= rank) {
+        return LatencyHistogram.upperBoundNanos(i) / 1e6;
+      }
+    }
+    return LatencyHistogram.upperBoundNanos(latencyBuckets.length - 1) / 1e6;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%s{count=%d, retries=%d, mean=%.1fms, p50=%.1fms, p99=%.1fms, p99.9=%.1fms,"
+            + " statuses=%s, sent=%dB, received=%dB}",
+        endpoint,
+        count,
+        retryCount,
+        getMeanMillis(),
+        getPercentileMillis(50),
+        getPercentileMillis(99),
+        getPercentileMillis(99.9),
+        statusCounts,
+        bytesSent,
+        bytesReceived);
+  }
+}
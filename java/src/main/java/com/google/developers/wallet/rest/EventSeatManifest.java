@@ -0,0 +1,154 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import com.google.api.services.walletobjects.model.Barcode;
+import com.google.api.services.walletobjects.model.EventSeat;
+import com.google.api.services.walletobjects.model.EventTicketObject;
+import com.google.api.services.walletobjects.model.LocalizedString;
+import com.google.api.services.walletobjects.model.TranslatedString;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Reads the seats of an event from a venue manifest, for issuing their tickets in bulk.
+ *
+ * <p>The manifest is CSV with a header row and one row per seat, with the columns ticketId,
+ * section, row, seat, gate, ticketHolderName, ticketNumber and barcode; only ticketId is
+ * required. Each row becomes an EventTicketObject of the event's class.
+ *
+ * <p>Seats are read lazily, so memory use does not grow with the size of the venue. A stadium has
+ * tens of thousands of seats but only a few hundred distinct sections, rows, seat numbers and
+ * gates, so each distinct value is turned into a single LocalizedString shared by all tickets
+ * that use it; the objects returned must therefore not be modified.
+ */
+public final class EventSeatManifest {
+  private final String issuerId;
+  private final String classSuffix;
+  private final String language;
+
+  /** Shared LocalizedString instances, by value. */
+  private final ConcurrentMap<String, LocalizedString> values = new ConcurrentHashMap<>();
+
+  private EventSeatManifest(Builder builder) {
+    this.issuerId = builder.issuerId;
+    this.classSuffix = builder.classSuffix;
+    this.language = builder.language;
+  }
+
+  /**
+   * Create a builder for the manifest of an event.
+   *
+   * @param issuerId The issuer ID the event belongs to.
+   * @param classSuffix Developer-defined unique ID for the event's pass class.
+   * @return A new builder.
+   */
+  public static Builder newBuilder(String issuerId, String classSuffix) {
+    return new Builder(issuerId, classSuffix);
+  }
+
+  /**
+   * Read the tickets of a manifest.
+   *
+   * @param reader The CSV manifest. Closed once all seats have been read.
+   * @return The tickets, read as they are iterated. Malformed rows throw an
+   *     IllegalArgumentException, and read errors an UncheckedIOException; {@link BatchExecutor}
+   *     reports either as a {@link BatchAbortedException} with the result so far.
+   */
+  public Iterator<EventTicketObject> readCsv(Reader reader) {
+    CsvReader rows;
+    try {
+      rows = new CsvReader(reader);
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+
+    return new ReadAheadIterator<EventTicketObject>(rows) {
+      @Override
+      EventTicketObject readNext() throws IOException {
+        Map<String, String> row = rows.readRow();
+        if (row == null) {
+          return null;
+        }
+        if (row.get("ticketId") == null) {
+          throw new IllegalArgumentException("Line " + rows.lineNumber() + " has no ticketId");
+        }
+        return newTicket(row);
+      }
+    };
+  }
+
+  /** Build the object for a seat. */
+  private EventTicketObject newTicket(Map<String, String> row) {
+    EventTicketObject object =
+        new EventTicketObject()
+            .setId(String.format("%s.%s", issuerId, row.get("ticketId")))
+            .setClassId(String.format("%s.%s", issuerId, classSuffix))
+            .setState("ACTIVE")
+            .setSeatInfo(
+                new EventSeat()
+                    .setSeat(localized(row.get("seat")))
+                    .setRow(localized(row.get("row")))
+                    .setSection(localized(row.get("section")))
+                    .setGate(localized(row.get("gate"))))
+            .setTicketHolderName(row.get("ticketHolderName"))
+            .setTicketNumber(row.get("ticketNumber"));
+    if (row.get("barcode") != null) {
+      object.setBarcode(new Barcode().setType("QR_CODE").setValue(row.get("barcode")));
+    }
+    return object;
+  }
+
+  /** @return The shared LocalizedString for a value, or null if there is no value. */
+  private LocalizedString localized(String value) {
+    if (value == null) {
+      return null;
+    }
+    return values.computeIfAbsent(
+        value,
+        v ->
+            new LocalizedString()
+                .setDefaultValue(new TranslatedString().setLanguage(language).setValue(v)));
+  }
+
+  /** Builder for {@link EventSeatManifest}. */
+  public static final class Builder {
+    private final String issuerId;
+    private final String classSuffix;
+    private String language = "en-US";
+
+    private Builder(String issuerId, String classSuffix) {
+      this.issuerId = issuerId;
+      this.classSuffix = classSuffix;
+    }
+
+    /** Language of the section, row, seat and gate values. Defaults to "en-US". */
+    public Builder setLanguage(String language) {
+      this.language = language;
+      return this;
+    }
+
+    /** Build the manifest reader. */
+    public EventSeatManifest build() {
+      return new EventSeatManifest(this);
+    }
+  }
+}
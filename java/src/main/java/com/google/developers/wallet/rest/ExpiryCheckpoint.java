@@ -0,0 +1,35 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import java.io.IOException;
+
+/**
+ * Receives the progress of a {@link BulkExpirer} run over the objects of a class.
+ *
+ * <p>Invoked from the threads that send batches, one call at a time, so implementations should be
+ * quick, e.g. write the token to a file.
+ */
+@FunctionalInterface
+public interface ExpiryCheckpoint {
+  /**
+   * Invoked whenever every object listed before a page has been handled.
+   *
+   * @param pageToken The token of the first page with objects still in progress. Pass it to
+   *     {@link BulkExpirer#expireClass} to resume there; null once all pages are done.
+   */
+  void save(String pageToken) throws IOException;
+}
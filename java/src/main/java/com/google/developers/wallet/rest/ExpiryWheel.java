@@ -0,0 +1,470 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.json.GenericJson;
+import com.google.api.services.walletobjects.model.DateTime;
+import com.google.api.services.walletobjects.model.TimeInterval;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Expires pass objects when their validity ends.
+ *
+ * <p>Objects are kept in a hashed timing wheel: a ring of slots, one per tick, where an object
+ * goes into the slot of the tick its validity ends on. Scheduling is O(1), and each tick only
+ * visits its own slot, so the cost per tick stays flat with millions of objects as long as the
+ * wheel has enough slots. Objects due more than one turn of the wheel ahead simply stay in their
+ * slot until the turn they are due in. The objects due at a tick are expired in batches through a
+ * {@link BulkExpirer}.
+ *
+ * <p>With {@link Builder#setFile}, every change is appended to a file that is read back on the
+ * next start, so objects due while the process was down are expired right after it restarts. An
+ * object is only removed from the file once its expiry has been sent. The file is flushed on
+ * every tick and by {@link #flush()}.
+ *
+ * <p>The wheel is thread-safe.
+ */
+public final class ExpiryWheel implements Closeable {
+  /** Lines beyond twice the number of scheduled objects after which the file is compacted. */
+  private static final long COMPACT_THRESHOLD = 10_000;
+
+  private final BulkExpirer expirer;
+  private final BatchCallback<String, Object> callback;
+  private final long tickMillis;
+  private final Path file;
+  private final ScheduledExecutorService ticker;
+
+  /** Pass types by name, to read the keys back. */
+  private final Map<String, PassType<?, ?>> types = new HashMap<>();
+
+  /** Slots of the wheel; slot {@code tick & mask} holds the objects due at that tick. */
+  private final List<List<Entry>> slots;
+
+  private final int mask;
+
+  /** Deadline tick of every scheduled object, by "{pass type}/{object ID}". */
+  private final Map<String, Long> deadlines = new HashMap<>();
+
+  /** The last tick whose slot has been processed. */
+  private long lastTick;
+
+  /** Lines appended to the file since it was last compacted. */
+  private long logLines;
+
+  private Writer log;
+
+  private ExpiryWheel(Builder builder) throws IOException {
+    this.expirer = builder.expirer;
+    this.callback = builder.callback;
+    this.tickMillis = builder.tickMillis;
+    this.file = builder.file;
+    this.mask = builder.wheelSize - 1;
+    this.slots = new ArrayList<>(builder.wheelSize);
+    for (int i = 0; i < builder.wheelSize; i++) {
+      slots.add(new ArrayList<>());
+    }
+    for (PassType<?, ?> type : PassType.ALL) {
+      types.put(type.getName(), type);
+    }
+    this.lastTick = currentTick() - 1;
+    this.ticker =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "wallet-expiry-wheel");
+              thread.setDaemon(true);
+              return thread;
+            });
+
+    if (file != null) {
+      load();
+    }
+  }
+
+  /**
+   * Create a builder for a wheel that expires objects through the given expirer.
+   *
+   * @param expirer Sends the expiry patches in batches.
+   * @return A new builder.
+   */
+  public static Builder newBuilder(BulkExpirer expirer) {
+    return new Builder(expirer);
+  }
+
+  /**
+   * Start expiring objects as they come due, checking once per tick.
+   *
+   * @return This wheel.
+   */
+  public ExpiryWheel start() {
+    ticker.scheduleWithFixedDelay(
+        () -> {
+          try {
+            advance();
+          } catch (IOException | RuntimeException ex) {
+            // The due objects stay scheduled and are tried again on the next tick. Letting the
+            // exception escape would cancel all later ticks
+          }
+        },
+        0,
+        tickMillis,
+        TimeUnit.MILLISECONDS);
+    return this;
+  }
+
+  /** Stop ticking, and close the file. Scheduled objects are kept in the file. */
+  @Override
+  public void close() throws IOException {
+    ticker.shutdownNow();
+    synchronized (this) {
+      if (log != null) {
+        log.close();
+        log = null;
+      }
+    }
+  }
+
+  /**
+   * Schedule the expiry of an object at the end of its validTimeInterval.
+   *
+   * @param type The pass type of the object.
+   * @param object The object, e.g. as just inserted.
+   * @return Whether the object has an end of validity and was scheduled.
+   */
+  public boolean schedule(PassType<?, ?> type, GenericJson object) throws IOException {
+    Instant end = validityEnd(object);
+    if (end == null) {
+      return false;
+    }
+    schedule(type, type.getId(object), end);
+    return true;
+  }
+
+  /**
+   * Schedule the expiry of an object, replacing any earlier schedule for it.
+   *
+   * @param type The pass type of the object.
+   * @param objectId The object ID: "{issuerId}.{objectSuffix}"
+   * @param end When the object expires. Objects whose time has passed expire on the next tick.
+   */
+  public synchronized void schedule(PassType<?, ?> type, String objectId, Instant end)
+      throws IOException {
+    String key = type.getName() + "/" + objectId;
+    add(key, end.toEpochMilli());
+    if (log != null) {
+      write(key + "\t" + end.toEpochMilli());
+    }
+  }
+
+  /**
+   * Stop tracking an object, e.g. because it was expired by other means.
+   *
+   * @param type The pass type of the object.
+   * @param objectId The object ID: "{issuerId}.{objectSuffix}"
+   */
+  public synchronized void cancel(PassType<?, ?> type, String objectId) throws IOException {
+    remove(type.getName() + "/" + objectId);
+  }
+
+  /** Write the changes made since the last tick to the file. */
+  public synchronized void flush() throws IOException {
+    if (log != null) {
+      log.flush();
+    }
+  }
+
+  /** @return The number of objects scheduled. */
+  public synchronized int size() {
+    return deadlines.size();
+  }
+
+  /**
+   * Expire the objects that are due now. Called on every tick once started; call it directly to
+   * drive the wheel without {@link #start()}.
+   */
+  public void advance() throws IOException {
+    Map<PassType<?, ?>, List<String>> due = new LinkedHashMap<>();
+    Map<String, Long> dueTicks = new HashMap<>();
+    synchronized (this) {
+      long now = currentTick();
+      if (now - lastTick >= slots.size()) {
+        // After a long pause every slot is due at least once, so visit each just once
+        for (List<Entry> slot : slots) {
+          collect(slot, now, due, dueTicks);
+        }
+      } else {
+        for (long tick = lastTick + 1; tick <= now; tick++) {
+          collect(slots.get((int) (tick & mask)), now, due, dueTicks);
+        }
+      }
+      lastTick = now;
+    }
+
+    try {
+      expire(due, dueTicks);
+    } finally {
+      // Persist the schedules made since the last tick and the expiries just sent
+      flush();
+    }
+  }
+
+  private void expire(Map<PassType<?, ?>, List<String>> due, Map<String, Long> dueTicks)
+      throws IOException {
+    try {
+      for (Map.Entry<PassType<?, ?>, List<String>> group : due.entrySet()) {
+        String prefix = group.getKey().getName() + "/";
+        expirer.expireObjects(
+            group.getKey(),
+            group.getValue().iterator(),
+            new BatchCallback<String, Object>() {
+              @Override
+              public void onSuccess(String objectId, Object response) {
+                completed(prefix + objectId, dueTicks.get(prefix + objectId));
+                callback.onSuccess(objectId, response);
+              }
+
+              @Override
+              public void onFailure(String objectId, GoogleJsonError error) {
+                completed(prefix + objectId, dueTicks.get(prefix + objectId));
+                callback.onFailure(objectId, error);
+              }
+            });
+      }
+    } catch (IOException | RuntimeException ex) {
+      // Put back whatever was not completed, of this and the later pass types, so that the next
+      // tick tries again; completed objects no longer have a deadline
+      synchronized (this) {
+        for (Map.Entry<String, Long> entry : dueTicks.entrySet()) {
+          if (entry.getValue().equals(deadlines.get(entry.getKey()))) {
+            slots
+                .get((int) ((lastTick + 1) & mask))
+                .add(new Entry(entry.getKey(), entry.getValue()));
+          }
+        }
+      }
+      throw ex;
+    }
+  }
+
+  /** Move the due entries of a slot to {@code due}, dropping those rescheduled or cancelled. */
+  private void collect(
+      List<Entry> slot,
+      long now,
+      Map<PassType<?, ?>, List<String>> due,
+      Map<String, Long> dueTicks) {
+    for (int i = slot.size() - 1; i >= 0; i--) {
+      Entry entry = slot.get(i);
+      Long deadline = deadlines.get(entry.key);
+      boolean stale = deadline == null || deadline != entry.tick;
+      if (stale || entry.tick <= now) {
+        // Swap with the last entry, as the order within a slot does not matter
+        slot.set(i, slot.get(slot.size() - 1));
+        slot.remove(slot.size() - 1);
+      }
+      if (!stale && entry.tick <= now) {
+        int slash = entry.key.indexOf('/');
+        PassType<?, ?> type = types.get(entry.key.substring(0, slash));
+        due.computeIfAbsent(type, t -> new ArrayList<>()).add(entry.key.substring(slash + 1));
+        dueTicks.put(entry.key, entry.tick);
+      }
+    }
+  }
+
+  /** Forget an object whose expiry was sent, unless it was rescheduled meanwhile. */
+  private synchronized void completed(String key, Long tick) {
+    if (tick != null && tick.equals(deadlines.get(key))) {
+      try {
+        remove(key);
+      } catch (IOException ex) {
+        throw new UncheckedIOException(ex);
+      }
+    }
+  }
+
+  private void add(String key, long endMillis) {
+    // Round up, so that objects never expire early
+    long tick = Math.floorDiv(endMillis + tickMillis - 1, tickMillis);
+    deadlines.put(key, tick);
+    slots.get((int) (Math.max(tick, lastTick + 1) & mask)).add(new Entry(key, tick));
+  }
+
+  /** Forget an object; its entry in the wheel is dropped when its slot is next visited. */
+  private void remove(String key) throws IOException {
+    if (deadlines.remove(key) != null && log != null) {
+      write(key);
+    }
+  }
+
+  private long currentTick() {
+    return Math.floorDiv(System.currentTimeMillis(), tickMillis);
+  }
+
+  /** Read the file: "{key}\t{end millis}" schedules an object, "{key}" alone forgets it. */
+  private void load() throws IOException {
+    Map<String, Long> ends = new LinkedHashMap<>();
+    if (Files.exists(file)) {
+      try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+          int tab = line.indexOf('\t');
+          if (tab < 0) {
+            ends.remove(line);
+          } else {
+            ends.put(line.substring(0, tab), Long.parseLong(line.substring(tab + 1)));
+          }
+        }
+      }
+    }
+    for (Map.Entry<String, Long> end : ends.entrySet()) {
+      add(end.getKey(), end.getValue());
+    }
+    compact();
+  }
+
+  /** Rewrite the file with only the scheduled objects. */
+  private void compact() throws IOException {
+    if (log != null) {
+      log.close();
+    }
+
+    Path compacted = file.resolveSibling(file.getFileName() + ".tmp");
+    try (Writer writer = Files.newBufferedWriter(compacted, StandardCharsets.UTF_8)) {
+      for (Map.Entry<String, Long> deadline : deadlines.entrySet()) {
+        // The deadline tick rounds back up to itself, so its start is as good as the exact end
+        writer.write(deadline.getKey() + "\t" + deadline.getValue() * tickMillis + "\n");
+      }
+    }
+    Files.move(
+        compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    logLines = deadlines.size();
+    log =
+        Files.newBufferedWriter(
+            file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+  }
+
+  private void write(String line) throws IOException {
+    log.write(line);
+    log.write('\n');
+
+    // Expired and rescheduled objects leave lines behind, so drop them once they dominate
+    if (++logLines > 2L * deadlines.size() + COMPACT_THRESHOLD) {
+      compact();
+    }
+  }
+
+  /** Get the end of the validTimeInterval of an object; dates without an offset are UTC. */
+  private static Instant validityEnd(GenericJson object) {
+    Object interval = object.get("validTimeInterval");
+    DateTime end = interval instanceof TimeInterval ? ((TimeInterval) interval).getEnd() : null;
+    if (end == null || end.getDate() == null) {
+      return null;
+    }
+    try {
+      return OffsetDateTime.parse(end.getDate()).toInstant();
+    } catch (DateTimeParseException ex) {
+      return LocalDateTime.parse(end.getDate()).toInstant(ZoneOffset.UTC);
+    }
+  }
+
+  private static final class Entry {
+    final String key;
+    final long tick;
+
+    Entry(String key, long tick) {
+      this.key = key;
+      this.tick = tick;
+    }
+  }
+
+  /** Builder for {@link ExpiryWheel}. */
+  public static final class Builder {
+    private final BulkExpirer expirer;
+    private BatchCallback<String, Object> callback =
+        new BatchCallback<String, Object>() {
+          @Override
+          public void onSuccess(String objectId, Object response) {}
+
+          @Override
+          public void onFailure(String objectId, GoogleJsonError error) {}
+        };
+    private long tickMillis = TimeUnit.MINUTES.toMillis(1);
+    private int wheelSize = 1 << 16;
+    private Path file;
+
+    private Builder(BulkExpirer expirer) {
+      this.expirer = expirer;
+    }
+
+    /** How often due objects are expired. Defaults to 1 minute. */
+    public Builder setTickDuration(long duration, TimeUnit unit) {
+      if (duration <= 0) {
+        throw new IllegalArgumentException("Tick duration must be positive");
+      }
+      this.tickMillis = unit.toMillis(duration);
+      return this;
+    }
+
+    /**
+     * Number of slots, a power of two. One turn of the wheel takes this many ticks. Defaults to
+     * 65536, i.e. about 45 days with 1 minute ticks.
+     */
+    public Builder setWheelSize(int wheelSize) {
+      if (wheelSize < 1 || Integer.bitCount(wheelSize) != 1) {
+        throw new IllegalArgumentException("Wheel size must be a power of two");
+      }
+      this.wheelSize = wheelSize;
+      return this;
+    }
+
+    /** Persist the schedule in this file, and read it back when building. */
+    public Builder setFile(Path file) {
+      this.file = file;
+      return this;
+    }
+
+    /** Receives the outcome of each expiry. Called from the threads that send batches. */
+    public Builder setCallback(BatchCallback<String, Object> callback) {
+      this.callback = callback;
+      return this;
+    }
+
+    /** Build the wheel, reading the schedule from the file if one is set. */
+    public ExpiryWheel build() throws IOException {
+      return new ExpiryWheel(this);
+    }
+  }
+}
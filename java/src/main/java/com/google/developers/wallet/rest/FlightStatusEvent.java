@@ -0,0 +1,110 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import com.google.api.services.walletobjects.model.AirportInfo;
+import com.google.api.services.walletobjects.model.FlightClass;
+
+/**
+ * An operational change to a flight, such as a gate change, a delay or a cancellation.
+ *
+ * <p>Each event holds the FlightClass fields it changes. A {@link FlightStatusUpdater} merges the
+ * events for the same flight and patches the class with the result.
+ */
+public final class FlightStatusEvent {
+  private final String classId;
+  private final FlightClass change;
+
+  private FlightStatusEvent(String classId, FlightClass change) {
+    this.classId = classId;
+    this.change = change;
+  }
+
+  /**
+   * An event that sets the given fields of a flight class.
+   *
+   * @param classId The flight class ID: "{issuerId}.{classSuffix}"
+   * @param change The fields to set. Copied, so it may be reused afterwards.
+   * @return A new event.
+   */
+  public static FlightStatusEvent of(String classId, FlightClass change) {
+    return new FlightStatusEvent(classId, change.clone());
+  }
+
+  /**
+   * The departure terminal or gate changed.
+   *
+   * @param classId The flight class ID: "{issuerId}.{classSuffix}"
+   * @param terminal The new departure terminal, or null if unchanged.
+   * @param gate The new departure gate, or null if unchanged.
+   * @return A new event.
+   */
+  public static FlightStatusEvent departureGate(String classId, String terminal, String gate) {
+    return new FlightStatusEvent(
+        classId,
+        new FlightClass().setOrigin(new AirportInfo().setTerminal(terminal).setGate(gate)));
+  }
+
+  /**
+   * The arrival terminal or gate changed.
+   *
+   * @param classId The flight class ID: "{issuerId}.{classSuffix}"
+   * @param terminal The new arrival terminal, or null if unchanged.
+   * @param gate The new arrival gate, or null if unchanged.
+   * @return A new event.
+   */
+  public static FlightStatusEvent arrivalGate(String classId, String terminal, String gate) {
+    return new FlightStatusEvent(
+        classId,
+        new FlightClass().setDestination(new AirportInfo().setTerminal(terminal).setGate(gate)));
+  }
+
+  /**
+   * The flight is delayed.
+   *
+   * @param classId The flight class ID: "{issuerId}.{classSuffix}"
+   * @param departure The estimated local departure time, e.g. "2023-07-02T16:45:00".
+   * @param arrival The estimated local arrival time, or null if unknown.
+   * @return A new event.
+   */
+  public static FlightStatusEvent delay(String classId, String departure, String arrival) {
+    return new FlightStatusEvent(
+        classId,
+        new FlightClass()
+            .setLocalEstimatedOrActualDepartureDateTime(departure)
+            .setLocalEstimatedOrActualArrivalDateTime(arrival));
+  }
+
+  /**
+   * The flight is cancelled.
+   *
+   * @param classId The flight class ID: "{issuerId}.{classSuffix}"
+   * @return A new event.
+   */
+  public static FlightStatusEvent cancellation(String classId) {
+    return new FlightStatusEvent(classId, new FlightClass().setFlightStatus("cancelled"));
+  }
+
+  /** @return The flight class ID: "{issuerId}.{classSuffix}" */
+  public String getClassId() {
+    return classId;
+  }
+
+  /** @return The fields this event sets. Must not be modified. */
+  public FlightClass getChange() {
+    return change;
+  }
+}
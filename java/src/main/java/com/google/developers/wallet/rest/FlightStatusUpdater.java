@@ -0,0 +1,301 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.json.GenericJson;
+import com.google.api.services.walletobjects.model.FlightClass;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies a stream of flight status events as one FlightClass patch per flight and window.
+ *
+ * <p>The first event for a flight opens a window. Later events for the same flight merge into
+ * the pending change, the latest value winning for each field, and the change is patched once
+ * the window closes. During irregular operations a flight may change dozens of times an hour,
+ * and passengers see the class fields, so only the latest state needs to reach the API.
+ *
+ * <p>Changes due at the same time are patched together through a {@link BatchExecutor}. Patches
+ * for the same flight are never in flight at the same time, so they apply in order. Every patch
+ * sets reviewStatus to UNDER_REVIEW, as the API requires for updates, unless an event sets it.
+ */
+public final class FlightStatusUpdater implements AutoCloseable {
+  /** Smallest interval at which windows are checked. */
+  private static final long MIN_CHECK_MILLIS = 10;
+
+  private final BatchExecutor batchExecutor;
+  private final PassShadowStore shadowStore;
+  private final BatchCallback<String, ? super FlightClass> callback;
+  private final long windowMillis;
+  private final ScheduledExecutorService checker;
+
+  /** Held while patching, so that patches for the same flight are sent one after another. */
+  private final Object flushLock = new Object();
+
+  /** Changes waiting for their window to close, by class ID, oldest window first. */
+  private final Map<String, Pending> pending = new LinkedHashMap<>();
+
+  private long received;
+
+  private FlightStatusUpdater(Builder builder) {
+    this.batchExecutor = builder.batchExecutor;
+    this.shadowStore = builder.shadowStore;
+    this.callback = builder.callback;
+    this.windowMillis = builder.windowMillis;
+    this.checker =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "wallet-flight-status");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  /**
+   * Create a builder for an updater that sends patches through the given clients.
+   *
+   * @param clients The shared API clients.
+   * @return A new builder.
+   */
+  public static Builder newBuilder(WalletClients clients) {
+    return new Builder(BatchExecutor.newBuilder(clients).build(), clients.getShadowStore());
+  }
+
+  /**
+   * Start patching flights as their windows close.
+   *
+   * @return This updater.
+   */
+  public FlightStatusUpdater start() {
+    long checkMillis = Math.max(MIN_CHECK_MILLIS, windowMillis / 10);
+    checker.scheduleWithFixedDelay(
+        () -> {
+          try {
+            flushDue(System.currentTimeMillis());
+          } catch (IOException | RuntimeException ex) {
+            // The flights not patched are pending again. Letting the exception escape would
+            // cancel all later checks
+          }
+        },
+        checkMillis,
+        checkMillis,
+        TimeUnit.MILLISECONDS);
+    return this;
+  }
+
+  /** Stop checking windows, and patch all pending changes. */
+  @Override
+  public void close() throws IOException {
+    checker.shutdown();
+    try {
+      checker.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    flushDue(Long.MAX_VALUE);
+  }
+
+  /**
+   * Merge an event into the pending change for its flight.
+   *
+   * @param event The status event.
+   */
+  public synchronized void submit(FlightStatusEvent event) {
+    received++;
+    Pending change = pending.get(event.getClassId());
+    if (change == null) {
+      change = new Pending(System.currentTimeMillis() + windowMillis);
+      pending.put(event.getClassId(), change);
+    }
+    merge(change.patch, event.getChange());
+  }
+
+  /**
+   * Merge a sequence of events, e.g. as read from a status feed.
+   *
+   * @param events The status events, in the order they happened.
+   */
+  public void submitAll(Iterator<FlightStatusEvent> events) {
+    while (events.hasNext()) {
+      submit(events.next());
+    }
+  }
+
+  /** Patch all pending changes now, without waiting for their windows to close. */
+  public void flush() throws IOException {
+    flushDue(Long.MAX_VALUE);
+  }
+
+  /** @return The number of flights with a pending change. */
+  public synchronized int getPendingCount() {
+    return pending.size();
+  }
+
+  /** @return The number of events submitted so far. */
+  public synchronized long getReceivedCount() {
+    return received;
+  }
+
+  /** Patch the changes whose window closed by the given time. */
+  private void flushDue(long nowMillis) throws IOException {
+    synchronized (flushLock) {
+      List<Map.Entry<String, FlightClass>> due = new ArrayList<>();
+      synchronized (this) {
+        // Windows open in insertion order, so the due ones come first
+        Iterator<Map.Entry<String, Pending>> entries = pending.entrySet().iterator();
+        while (entries.hasNext()) {
+          Map.Entry<String, Pending> entry = entries.next();
+          if (entry.getValue().dueMillis > nowMillis) {
+            break;
+          }
+          due.add(Map.entry(entry.getKey(), entry.getValue().patch));
+          entries.remove();
+        }
+      }
+      if (due.isEmpty()) {
+        return;
+      }
+
+      // Events arriving meanwhile open new windows, which are patched after this run
+      Set<String> reported = ConcurrentHashMap.newKeySet();
+      try {
+        batchExecutor.execute(
+            due.iterator(),
+            (service, entry) ->
+                PassType.FLIGHT.patchClass(service, entry.getKey(), entry.getValue()),
+            new BatchCallback<Map.Entry<String, FlightClass>, FlightClass>() {
+              @Override
+              public void onSuccess(Map.Entry<String, FlightClass> entry, FlightClass response) {
+                reported.add(entry.getKey());
+                PassType.FLIGHT.rememberClass(shadowStore, response);
+                callback.onSuccess(entry.getKey(), response);
+              }
+
+              @Override
+              public void onFailure(Map.Entry<String, FlightClass> entry, GoogleJsonError error) {
+                reported.add(entry.getKey());
+                callback.onFailure(entry.getKey(), error);
+              }
+            });
+      } catch (IOException | RuntimeException ex) {
+        for (Map.Entry<String, FlightClass> entry : due) {
+          if (!reported.contains(entry.getKey())) {
+            requeue(entry.getKey(), entry.getValue());
+          }
+        }
+        throw ex;
+      }
+    }
+  }
+
+  /** Make a change that was not patched pending again, under any newer events for the flight. */
+  private synchronized void requeue(String classId, FlightClass patch) {
+    Pending newer = pending.get(classId);
+    Pending restored =
+        new Pending(newer != null ? newer.dueMillis : System.currentTimeMillis() + windowMillis);
+    merge(restored.patch, patch);
+    if (newer != null) {
+      merge(restored.patch, newer.patch);
+    }
+    pending.put(classId, restored);
+  }
+
+  /** Copy the fields set in the change into the patch, merging nested objects. */
+  private static void merge(GenericJson patch, GenericJson change) {
+    for (Map.Entry<String, Object> field : change.entrySet()) {
+      Object current = patch.get(field.getKey());
+      Object value = field.getValue();
+      if (current instanceof GenericJson && value instanceof GenericJson) {
+        merge((GenericJson) current, (GenericJson) value);
+      } else {
+        if (value instanceof GenericJson) {
+          value = ((GenericJson) value).clone();
+        }
+        patch.set(field.getKey(), value);
+      }
+    }
+  }
+
+  /** A flight's merged change, and when its window closes. */
+  private static final class Pending {
+    final long dueMillis;
+    // reviewStatus must be 'UNDER_REVIEW' or 'DRAFT' for updates; an event may still set it
+    final FlightClass patch = new FlightClass().setReviewStatus("UNDER_REVIEW");
+
+    Pending(long dueMillis) {
+      this.dueMillis = dueMillis;
+    }
+  }
+
+  /** Builder for {@link FlightStatusUpdater}. */
+  public static final class Builder {
+    private BatchExecutor batchExecutor;
+    private PassShadowStore shadowStore;
+    private BatchCallback<String, ? super FlightClass> callback =
+        new BatchCallback<String, Object>() {
+          @Override
+          public void onSuccess(String classId, Object response) {}
+
+          @Override
+          public void onFailure(String classId, GoogleJsonError error) {}
+        };
+    private long windowMillis = TimeUnit.MINUTES.toMillis(1);
+
+    private Builder(BatchExecutor batchExecutor, PassShadowStore shadowStore) {
+      this.batchExecutor = batchExecutor;
+      this.shadowStore = shadowStore;
+    }
+
+    /** Send the patches through this executor, e.g. to change the retries. */
+    public Builder setBatchExecutor(BatchExecutor batchExecutor) {
+      this.batchExecutor = batchExecutor;
+      return this;
+    }
+
+    /**
+     * How long to collect events for a flight before patching it. Defaults to one minute, which
+     * is also the longest a change waits.
+     */
+    public Builder setWindow(long duration, TimeUnit unit) {
+      if (duration < 1) {
+        throw new IllegalArgumentException("Window must be positive");
+      }
+      this.windowMillis = Math.max(1, unit.toMillis(duration));
+      return this;
+    }
+
+    /** Receives the outcome of each patch, by class ID, e.g. to log failures. */
+    public Builder setCallback(BatchCallback<String, ? super FlightClass> callback) {
+      this.callback = callback;
+      return this;
+    }
+
+    /** Build the updater. Call {@link FlightStatusUpdater#start()} to begin patching. */
+    public FlightStatusUpdater build() {
+      return new FlightStatusUpdater(this);
+    }
+  }
+}
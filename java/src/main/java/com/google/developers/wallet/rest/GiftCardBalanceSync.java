@@ -0,0 +1,375 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.services.walletobjects.model.DateTime;
+import com.google.api.services.walletobjects.model.GiftCardObject;
+import com.google.api.services.walletobjects.model.Money;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps gift card balances in Google Wallet in sync with a stream of balance change events.
+ *
+ * <p>Only the latest balance of each card, by balance update time, is kept, so a card used many
+ * times in quick succession costs a single patch. Events older than the balance already kept or
+ * written, or repeating it, are dropped, which makes out-of-order and repeated delivery harmless.
+ * Changed cards are patched in batches through a {@link BatchExecutor} on a fixed interval, or as
+ * soon as a full batch of cards has changed. A card whose patch failed with a retryable error is
+ * patched again in the next flush.
+ *
+ * <p>Once a card's balance is written, only its balance update time is kept, for the most
+ * recently written cards up to {@link Builder#setWatermarkCapacity}. Late events for cards
+ * beyond that are no longer recognized as old.
+ */
+public final class GiftCardBalanceSync implements AutoCloseable {
+  private final BatchExecutor batchExecutor;
+  private final PassShadowStore shadowStore;
+  private final BatchCallback<String, ? super GiftCardObject> callback;
+  private final long flushIntervalMillis;
+  private final int maxPending;
+  private final ScheduledExecutorService flusher;
+
+  /** The latest balance of each card not written yet, by object ID. Guarded by this. */
+  private final Map<String, Card> cards = new HashMap<>();
+
+  /**
+   * Balance update time of the most recently written cards, by object ID, oldest first. Guarded
+   * by this.
+   */
+  private final Map<String, Long> written;
+
+  /** Cards with a balance not written yet. Guarded by this. */
+  private List<Card> changed = new ArrayList<>();
+
+  /** Whether a flush for a full batch has been requested and not started yet. Guarded by this. */
+  private boolean flushRequested;
+
+  /** Held while flushing, so that the patches for a card are sent one after another. */
+  private final Object flushLock = new Object();
+
+  private GiftCardBalanceSync(Builder builder) {
+    this.batchExecutor = builder.batchExecutor;
+    this.shadowStore = builder.shadowStore;
+    this.callback = builder.callback;
+    this.flushIntervalMillis = builder.flushIntervalMillis;
+    this.maxPending = builder.maxPending;
+    int watermarkCapacity = builder.watermarkCapacity;
+    this.written =
+        new LinkedHashMap<String, Long>() {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > watermarkCapacity;
+          }
+        };
+    this.flusher =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "wallet-gift-card-sync");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  /**
+   * Create a builder for a sync that sends patches through the given clients.
+   *
+   * @param clients The shared API clients.
+   * @return A new builder.
+   */
+  public static Builder newBuilder(WalletClients clients) {
+    return new Builder(BatchExecutor.newBuilder(clients).build(), clients.getShadowStore());
+  }
+
+  /**
+   * Start patching changed balances on the flush interval.
+   *
+   * @return This sync.
+   */
+  public GiftCardBalanceSync start() {
+    flusher.scheduleWithFixedDelay(
+        this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    return this;
+  }
+
+  /** Stop flushing, and patch the balances still pending. */
+  @Override
+  public void close() throws IOException {
+    flusher.shutdown();
+    try {
+      flusher.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    flush();
+  }
+
+  /**
+   * Record a balance change.
+   *
+   * @param objectId The gift card object ID: "{issuerId}.{objectSuffix}"
+   * @param balanceMicros The new balance, in micros of the currency.
+   * @param currencyCode The ISO 4217 currency code, e.g. "USD".
+   * @param updateTime When the balance changed.
+   * @return Whether the balance is newer than the one already known for the card, or changes it
+   *     at the same time.
+   */
+  public synchronized boolean submit(
+      String objectId, long balanceMicros, String currencyCode, Instant updateTime) {
+    long updateMillis = updateTime.toEpochMilli();
+    Card card = cards.get(objectId);
+    if (card == null) {
+      Long writtenMillis = written.get(objectId);
+      if (writtenMillis != null && updateMillis <= writtenMillis) {
+        return false;
+      }
+      card = new Card(objectId);
+      cards.put(objectId, card);
+    } else if (updateMillis < card.updateMillis
+        || (updateMillis == card.updateMillis
+            && balanceMicros == card.balanceMicros
+            && Objects.equals(currencyCode, card.currencyCode))) {
+      return false;
+    }
+
+    card.balanceMicros = balanceMicros;
+    card.currencyCode = currencyCode;
+    card.updateMillis = updateMillis;
+    if (!card.changed) {
+      card.changed = true;
+      changed.add(card);
+      if (changed.size() >= maxPending && !flushRequested) {
+        flushRequested = true;
+        flusher.execute(this::flushQuietly);
+      }
+    }
+    return true;
+  }
+
+  /** @return The number of cards with a balance not written yet. */
+  public synchronized int getPendingCount() {
+    return changed.size();
+  }
+
+  /**
+   * Patch all changed balances now. If the flush fails, the cards not yet reported to the
+   * callback are changed again.
+   */
+  public void flush() throws IOException {
+    synchronized (flushLock) {
+      List<Card> due;
+      synchronized (this) {
+        flushRequested = false;
+        if (changed.isEmpty()) {
+          return;
+        }
+
+        // Copy the balances now, as newer events may change the cards while the batches are sent
+        due = new ArrayList<>(changed.size());
+        for (Card card : changed) {
+          card.changed = false;
+          due.add(card.copy());
+        }
+        changed = new ArrayList<>();
+      }
+
+      try {
+        batchExecutor.execute(
+            due.iterator(),
+            (service, sent) ->
+                PassType.GIFT_CARD.patchObject(service, sent.objectId, sent.toPatch()),
+            new BatchCallback<Card, GiftCardObject>() {
+              @Override
+              public void onSuccess(Card sent, GiftCardObject response) {
+                sent.reported = true;
+                forget(sent, true);
+                PassType.GIFT_CARD.rememberObject(shadowStore, response);
+                callback.onSuccess(sent.objectId, response);
+              }
+
+              @Override
+              public void onFailure(Card sent, GoogleJsonError error) {
+                sent.reported = true;
+                if (BatchExecutor.isRetryable(error)) {
+                  markChanged(sent);
+                } else {
+                  // Sending it again would fail the same way
+                  forget(sent, false);
+                }
+                callback.onFailure(sent.objectId, error);
+              }
+            });
+      } catch (IOException | RuntimeException ex) {
+        for (Card sent : due) {
+          if (!sent.reported) {
+            markChanged(sent);
+          }
+        }
+        throw ex;
+      }
+    }
+  }
+
+  /** Mark a card changed again after its balance was not written, unless a newer one is kept. */
+  private synchronized void markChanged(Card sent) {
+    Card card = cards.get(sent.objectId);
+    if (card != null && card.updateMillis == sent.updateMillis && !card.changed) {
+      card.changed = true;
+      changed.add(card);
+    }
+  }
+
+  /**
+   * Drop a card once sent, unless a newer balance is kept. Only the balance update time of a
+   * written balance is kept, so that a failed one can still be sent again by a repeated event.
+   */
+  private synchronized void forget(Card sent, boolean wasWritten) {
+    Card card = cards.get(sent.objectId);
+    if (card != null && card.updateMillis == sent.updateMillis && !card.changed) {
+      cards.remove(sent.objectId);
+      if (wasWritten) {
+        // Move it to the end, as re-inserting a key keeps its place
+        written.remove(sent.objectId);
+        written.put(sent.objectId, sent.updateMillis);
+      }
+    }
+  }
+
+  private void flushQuietly() {
+    try {
+      flush();
+    } catch (IOException | RuntimeException ex) {
+      // The failed cards are reported to the callback and the unreported ones are changed again.
+      // Letting the exception escape would cancel all later flushes
+    }
+  }
+
+  /** The latest balance of a card. */
+  private static final class Card {
+    final String objectId;
+    long balanceMicros;
+    String currencyCode;
+    long updateMillis = Long.MIN_VALUE;
+    boolean changed;
+
+    /** Whether the outcome of a copy sent in a batch was reported to the callback. */
+    volatile boolean reported;
+
+    Card(String objectId) {
+      this.objectId = objectId;
+    }
+
+    Card copy() {
+      Card copy = new Card(objectId);
+      copy.balanceMicros = balanceMicros;
+      copy.currencyCode = currencyCode;
+      copy.updateMillis = updateMillis;
+      return copy;
+    }
+
+    GiftCardObject toPatch() {
+      return new GiftCardObject()
+          .setId(objectId)
+          .setBalance(new Money().setMicros(balanceMicros).setCurrencyCode(currencyCode))
+          .setBalanceUpdateTime(
+              new DateTime()
+                  .setDate(Instant.ofEpochMilli(updateMillis).atOffset(ZoneOffset.UTC).toString()));
+    }
+  }
+
+  /** Builder for {@link GiftCardBalanceSync}. */
+  public static final class Builder {
+    private BatchExecutor batchExecutor;
+    private final PassShadowStore shadowStore;
+    private BatchCallback<String, ? super GiftCardObject> callback =
+        new BatchCallback<String, Object>() {
+          @Override
+          public void onSuccess(String objectId, Object response) {}
+
+          @Override
+          public void onFailure(String objectId, GoogleJsonError error) {}
+        };
+    private long flushIntervalMillis = TimeUnit.SECONDS.toMillis(5);
+    private int maxPending = BatchExecutor.MAX_BATCH_SIZE;
+    private int watermarkCapacity = 100_000;
+
+    private Builder(BatchExecutor batchExecutor, PassShadowStore shadowStore) {
+      this.batchExecutor = batchExecutor;
+      this.shadowStore = shadowStore;
+    }
+
+    /** Send the patches through this executor, e.g. to change the batch size or retries. */
+    public Builder setBatchExecutor(BatchExecutor batchExecutor) {
+      this.batchExecutor = batchExecutor;
+      return this;
+    }
+
+    /** How often to patch changed balances. Defaults to 5 seconds. */
+    public Builder setFlushInterval(long duration, TimeUnit unit) {
+      if (duration < 1) {
+        throw new IllegalArgumentException("Flush interval must be positive");
+      }
+      this.flushIntervalMillis = Math.max(1, unit.toMillis(duration));
+      return this;
+    }
+
+    /**
+     * Number of changed cards that triggers a flush before the interval ends. Defaults to {@link
+     * BatchExecutor#MAX_BATCH_SIZE}, a full batch.
+     */
+    public Builder setMaxPending(int maxPending) {
+      if (maxPending < 1) {
+        throw new IllegalArgumentException("Max pending must be at least 1");
+      }
+      this.maxPending = maxPending;
+      return this;
+    }
+
+    /**
+     * Number of written cards whose balance update time is kept to drop late events. Defaults to
+     * 100,000.
+     */
+    public Builder setWatermarkCapacity(int watermarkCapacity) {
+      if (watermarkCapacity < 0) {
+        throw new IllegalArgumentException("Watermark capacity must not be negative");
+      }
+      this.watermarkCapacity = watermarkCapacity;
+      return this;
+    }
+
+    /** Receives the outcome of each patch, by object ID, e.g. to log failures. */
+    public Builder setCallback(BatchCallback<String, ? super GiftCardObject> callback) {
+      this.callback = callback;
+      return this;
+    }
+
+    /** Build the sync. Call {@link GiftCardBalanceSync#start()} to begin patching. */
+    public GiftCardBalanceSync build() {
+      return new GiftCardBalanceSync(this);
+    }
+  }
+}
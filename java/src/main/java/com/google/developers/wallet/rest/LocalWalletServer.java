@@ -0,0 +1,650 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.util.Data;
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.RSAPrivateKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * In-process stand-in for the Google Wallet API, for load and latency testing without
+ * credentials or quota.
+ *
+ * <p>Implements get, insert, update, patch, addMessage and list for the classes and objects of
+ * every pass type, plus the batch endpoint, keeping resources in memory. Point clients at it with
+ * {@link #newClientsBuilder()}, or with {@link WalletClients.Builder#setRootUrl} and any
+ * credentials.
+ *
+ * <p>Latency, server errors and throttling can be injected. Errors and throttling apply to each API
+ * call, including each call in a batch; latency applies once per HTTP request.
+ */
+public final class LocalWalletServer implements AutoCloseable {
+  private static final String API_PATH = "/walletobjects/v1/";
+  private static final String BATCH_PATH = "/batch";
+  private static final String RESPONSE_BOUNDARY = "batch_response";
+
+  static {
+    // The JDK server writes headers and body separately, so without TCP_NODELAY each response
+    // waits for the client's delayed ACK (about 40 ms). Read once, when the server is first used.
+    if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+      System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+  }
+
+  private final JsonFactory jsonFactory = GsonFactory.getDefaultInstance();
+
+  /** Stored resources, keyed by resource name (e.g. "eventTicketObject") and then by ID. */
+  private final Map<String, NavigableMap<String, GenericJson>> resources = new HashMap<>();
+
+  private final int port;
+  private final long minLatencyNanos;
+  private final long maxLatencyNanos;
+  private final double errorRate;
+  private final double requestsPerSecond;
+
+  private final LongAdder requestCount = new LongAdder();
+  private final LongAdder throttledCount = new LongAdder();
+  private final LongAdder injectedErrorCount = new LongAdder();
+
+  /** Available throttling tokens and when they were last topped up; guarded by this. */
+  private double tokens;
+  private long tokensUpdatedNanos;
+
+  private HttpServer server;
+  private ExecutorService executor;
+
+  private LocalWalletServer(Builder builder) {
+    this.port = builder.port;
+    this.minLatencyNanos = builder.minLatencyNanos;
+    this.maxLatencyNanos = builder.maxLatencyNanos;
+    this.errorRate = builder.errorRate;
+    this.requestsPerSecond = builder.requestsPerSecond;
+    this.tokens = Math.max(1, requestsPerSecond);
+    this.tokensUpdatedNanos = System.nanoTime();
+
+    for (PassType<?, ?> type : PassType.ALL) {
+      resources.put(type.getName() + "Class", new ConcurrentSkipListMap<>());
+      resources.put(type.getName() + "Object", new ConcurrentSkipListMap<>());
+    }
+  }
+
+  /** @return A new builder. */
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /**
+   * Start listening on the loopback interface.
+   *
+   * @return This server.
+   */
+  public synchronized LocalWalletServer start() throws IOException {
+    if (server != null) {
+      throw new IllegalStateException("Server already started");
+    }
+
+    // Injected latency blocks a thread per request, so threads are not limited
+    executor =
+        VirtualThreads.isSupported()
+            ? VirtualThreads.newPerTaskExecutor()
+            : Executors.newCachedThreadPool();
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    server.createContext("/", this::handle);
+    server.setExecutor(executor);
+    server.start();
+    return this;
+  }
+
+  /** Stop the server. Stored resources are kept until it is started again. */
+  @Override
+  public synchronized void close() {
+    if (server != null) {
+      server.stop(0);
+      executor.shutdownNow();
+      server = null;
+      executor = null;
+    }
+  }
+
+  /** @return The root URL to use instead of the Google Wallet API endpoint. */
+  public synchronized String getRootUrl() {
+    if (server == null) {
+      throw new IllegalStateException("Server not started");
+    }
+    return String.format(
+        "http://%s:%d/",
+        server.getAddress().getAddress().getHostAddress(), server.getAddress().getPort());
+  }
+
+  /**
+   * Create a builder for clients that send their requests to this server. No key file is needed:
+   * requests carry a placeholder access token and JWTs are signed with a throwaway key.
+   *
+   * @return A new builder, which may be customized further.
+   */
+  public WalletClients.Builder newClientsBuilder() {
+    KeyPairGenerator generator;
+    try {
+      generator = KeyPairGenerator.getInstance("RSA");
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex);
+    }
+    generator.initialize(2048);
+    RSAPrivateKey privateKey = (RSAPrivateKey) generator.generateKeyPair().getPrivate();
+
+    return WalletClients.newBuilder()
+        .setCredentials(GoogleCredentials.create(new AccessToken("local", null)))
+        .setJwtSigner(
+            new WalletJwtSigner("local@localhost", privateKey, List.of("www.example.com")))
+        .setRootUrl(getRootUrl());
+  }
+
+  /** @return The number of API calls received, counting each call in a batch. */
+  public long getRequestCount() {
+    return requestCount.sum();
+  }
+
+  /** @return The number of API calls rejected with 429. */
+  public long getThrottledCount() {
+    return throttledCount.sum();
+  }
+
+  /** @return The number of API calls failed with an injected 503. */
+  public long getInjectedErrorCount() {
+    return injectedErrorCount.sum();
+  }
+
+  /** Remove all stored classes and objects. */
+  public void clear() {
+    for (NavigableMap<String, GenericJson> stored : resources.values()) {
+      stored.clear();
+    }
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      // The API client compresses request bodies by default
+      InputStream requestBody = exchange.getRequestBody();
+      if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+        requestBody = new GZIPInputStream(requestBody);
+      }
+      String body;
+      try (InputStream in = requestBody) {
+        body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+      }
+
+      sleepLatency();
+
+      String method = exchange.getRequestMethod();
+      String override = exchange.getRequestHeaders().getFirst("X-HTTP-Method-Override");
+      if (override != null) {
+        method = override;
+      }
+
+      Response response;
+      if (exchange.getRequestURI().getPath().equals(BATCH_PATH)) {
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        response = handleBatch(contentType, body);
+      } else {
+        response = handleCall(method, exchange.getRequestURI(), body);
+      }
+
+      exchange.getResponseHeaders().add("Content-Type", response.contentType);
+      if (response.retryAfterSeconds > 0) {
+        exchange.getResponseHeaders().add("Retry-After", "" + response.retryAfterSeconds);
+      }
+      byte[] content = response.body.getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(response.status, content.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(content);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void sleepLatency() {
+    if (maxLatencyNanos <= 0) {
+      return;
+    }
+
+    long latency = ThreadLocalRandom.current().nextLong(minLatencyNanos, maxLatencyNanos + 1);
+    try {
+      TimeUnit.NANOSECONDS.sleep(latency);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Answer each part of a multipart/mixed batch request, in order. */
+  private Response handleBatch(String contentType, String body) {
+    int boundaryIndex = contentType == null ? -1 : contentType.indexOf("boundary=");
+    if (boundaryIndex < 0) {
+      return error(400, "INVALID_ARGUMENT", "Batch requests must be multipart/mixed");
+    }
+    String boundary = contentType.substring(boundaryIndex + 9).replace("\"", "").trim();
+
+    StringBuilder out = new StringBuilder();
+    for (String part : body.replace("\r\n", "\n").split("--" + boundary)) {
+      // Skip the preamble and the closing delimiter
+      int headersEnd = part.indexOf("\n\n");
+      if (headersEnd < 0) {
+        continue;
+      }
+      String partHeaders = part.substring(0, headersEnd);
+      String request = part.substring(headersEnd + 2);
+
+      // The embedded request: request line, headers, blank line, body
+      int requestHeadersEnd = request.indexOf("\n\n");
+      String head = requestHeadersEnd < 0 ? request : request.substring(0, requestHeadersEnd);
+      String requestBody = requestHeadersEnd < 0 ? "" : request.substring(requestHeadersEnd + 2);
+      String[] lines = head.split("\n");
+      String[] requestLine = lines[0].split(" ");
+      String method = requestLine[0];
+      for (int i = 1; i < lines.length; i++) {
+        if (lines[i].regionMatches(true, 0, "X-HTTP-Method-Override:", 0, 23)) {
+          method = lines[i].substring(23).trim();
+        }
+      }
+
+      Response response = handleCall(method, URI.create(requestLine[1]), requestBody.trim());
+
+      out.append("--").append(RESPONSE_BOUNDARY).append("\r\n");
+      out.append("Content-Type: application/http\r\n");
+      String contentId = header(partHeaders, "Content-ID");
+      if (contentId != null) {
+        out.append("Content-ID: ").append(contentId.replace("<", "<response-")).append("\r\n");
+      }
+      out.append("\r\n");
+      out.append("HTTP/1.1 ").append(response.status).append(" ").append(reason(response.status));
+      out.append("\r\nContent-Type: ").append(response.contentType).append("\r\n");
+      if (response.retryAfterSeconds > 0) {
+        out.append("Retry-After: ").append(response.retryAfterSeconds).append("\r\n");
+      }
+      out.append("\r\n").append(response.body).append("\r\n");
+    }
+    out.append("--").append(RESPONSE_BOUNDARY).append("--\r\n");
+
+    return new Response(200, "multipart/mixed; boundary=" + RESPONSE_BOUNDARY, out.toString(), 0);
+  }
+
+  /** Answer a single API call, applying throttling and error injection first. */
+  private Response handleCall(String method, URI uri, String body) {
+    requestCount.increment();
+    if (!tryAcquireToken()) {
+      throttledCount.increment();
+      Response response = error(429, "RESOURCE_EXHAUSTED", "Quota exceeded");
+      return new Response(response.status, response.contentType, response.body, 1);
+    }
+    if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+      injectedErrorCount.increment();
+      return error(503, "UNAVAILABLE", "Injected error");
+    }
+
+    String path = uri.getRawPath();
+    if (!path.startsWith(API_PATH)) {
+      return error(404, "NOT_FOUND", "Unknown path " + path);
+    }
+    String[] segments = path.substring(API_PATH.length()).split("/");
+    NavigableMap<String, GenericJson> stored = resources.get(segments[0]);
+    if (stored == null) {
+      return error(404, "NOT_FOUND", "Unknown resource " + segments[0]);
+    }
+
+    try {
+      if (segments.length == 1 && method.equals("GET")) {
+        return list(segments[0], stored, parseQuery(uri.getRawQuery()));
+      } else if (segments.length == 1 && method.equals("POST")) {
+        return insert(stored, parse(body));
+      }
+
+      String id = URLDecoder.decode(segments[1], StandardCharsets.UTF_8);
+      if (segments.length == 2 && method.equals("GET")) {
+        GenericJson resource = stored.get(id);
+        return resource == null ? notFound(id) : ok(resource);
+      } else if (segments.length == 2 && method.equals("PUT")) {
+        return update(stored, id, parse(body));
+      } else if (segments.length == 2 && method.equals("PATCH")) {
+        return patch(stored, id, parse(body));
+      } else if (segments.length == 3 && segments[2].equals("addMessage")) {
+        return addMessage(stored, id, parse(body));
+      }
+      return error(404, "NOT_FOUND", "Unknown method " + method + " " + path);
+    } catch (IOException | IllegalArgumentException ex) {
+      return error(400, "INVALID_ARGUMENT", "Invalid request: " + ex.getMessage());
+    }
+  }
+
+  private Response insert(NavigableMap<String, GenericJson> stored, GenericJson resource) {
+    Object id = resource.get("id");
+    if (!(id instanceof String)) {
+      return error(400, "INVALID_ARGUMENT", "Resource ID is required");
+    }
+    if (stored.putIfAbsent((String) id, resource) != null) {
+      return error(409, "ALREADY_EXISTS", "Resource " + id + " already exists");
+    }
+    return ok(resource);
+  }
+
+  private Response update(
+      NavigableMap<String, GenericJson> stored, String id, GenericJson resource) {
+    resource.put("id", id);
+    return stored.replace(id, resource) == null ? notFound(id) : ok(resource);
+  }
+
+  private Response patch(NavigableMap<String, GenericJson> stored, String id, GenericJson fields) {
+    GenericJson patched =
+        stored.computeIfPresent(
+            id,
+            (key, existing) -> {
+              GenericJson merged = existing.clone();
+              merge(merged, fields);
+              merged.put("id", id);
+              return merged;
+            });
+    return patched == null ? notFound(id) : ok(patched);
+  }
+
+  /** Apply patch semantics: nested objects are merged, lists replaced and nulls cleared. */
+  @SuppressWarnings("unchecked")
+  private static void merge(Map<String, Object> target, Map<String, Object> fields) {
+    for (Map.Entry<String, Object> field : fields.entrySet()) {
+      Object existing = target.get(field.getKey());
+      Object value = field.getValue();
+      if (value == null || Data.isNull(value)) {
+        target.remove(field.getKey());
+      } else if (existing instanceof Map && value instanceof Map) {
+        merge((Map<String, Object>) existing, (Map<String, Object>) value);
+      } else {
+        target.put(field.getKey(), value);
+      }
+    }
+  }
+
+  private Response addMessage(
+      NavigableMap<String, GenericJson> stored, String id, GenericJson request) {
+    Object message = request.get("message");
+    if (message == null) {
+      return error(400, "INVALID_ARGUMENT", "Message is required");
+    }
+
+    GenericJson updated =
+        stored.computeIfPresent(
+            id,
+            (key, existing) -> {
+              GenericJson merged = existing.clone();
+              List<Object> messages = new ArrayList<>();
+              if (merged.get("messages") instanceof List) {
+                messages.addAll((List<?>) merged.get("messages"));
+              }
+              messages.add(message);
+              merged.put("messages", messages);
+              return merged;
+            });
+    if (updated == null) {
+      return notFound(id);
+    }
+
+    GenericJson response = new GenericJson();
+    response.put("resource", updated);
+    return ok(response);
+  }
+
+  /** List classes by issuer or objects by class, ordered by ID and paginated by ID. */
+  private Response list(
+      String resourceName, NavigableMap<String, GenericJson> stored, Map<String, String> query) {
+    boolean isClass = resourceName.endsWith("Class");
+    String filter = query.get(isClass ? "issuerId" : "classId");
+    if (filter == null) {
+      return error(400, "INVALID_ARGUMENT", (isClass ? "issuerId" : "classId") + " is required");
+    }
+    int maxResults =
+        query.containsKey("maxResults")
+            ? Integer.parseInt(query.get("maxResults"))
+            : Integer.MAX_VALUE;
+    String token = query.get("token");
+
+    NavigableMap<String, GenericJson> candidates =
+        token == null ? stored : stored.tailMap(token, true);
+    if (isClass) {
+      candidates = candidates.subMap(filter + ".", true, filter + "/", false);
+    }
+
+    List<GenericJson> page = new ArrayList<>();
+    String nextPageToken = null;
+    for (GenericJson resource : candidates.values()) {
+      if (!isClass && !filter.equals(resource.get("classId"))) {
+        continue;
+      }
+      if (page.size() == maxResults) {
+        nextPageToken = (String) resource.get("id");
+        break;
+      }
+      page.add(resource);
+    }
+
+    GenericJson pagination = new GenericJson();
+    pagination.put("kind", "walletobjects#pagination");
+    pagination.put("resultsPerPage", page.size());
+    if (nextPageToken != null) {
+      pagination.put("nextPageToken", nextPageToken);
+    }
+    GenericJson response = new GenericJson();
+    response.put("resources", page);
+    response.put("pagination", pagination);
+    return ok(response);
+  }
+
+  /** Take a token from the bucket, which refills at the configured rate. */
+  private synchronized boolean tryAcquireToken() {
+    if (requestsPerSecond <= 0) {
+      return true;
+    }
+
+    long now = System.nanoTime();
+    double capacity = Math.max(1, requestsPerSecond);
+    tokens = Math.min(capacity, tokens + (now - tokensUpdatedNanos) * requestsPerSecond / 1e9);
+    tokensUpdatedNanos = now;
+    if (tokens < 1) {
+      return false;
+    }
+    tokens--;
+    return true;
+  }
+
+  private GenericJson parse(String body) throws IOException {
+    if (body.isEmpty()) {
+      throw new IllegalArgumentException("Request body is required");
+    }
+    return jsonFactory.fromString(body, GenericJson.class);
+  }
+
+  private Response ok(GenericJson body) {
+    try {
+      return new Response(200, "application/json; charset=UTF-8", jsonFactory.toString(body), 0);
+    } catch (IOException ex) {
+      return error(500, "INTERNAL", ex.toString());
+    }
+  }
+
+  private Response notFound(String id) {
+    return error(404, "NOT_FOUND", "Resource " + id + " not found");
+  }
+
+  /** An error response in the format of the Google APIs. */
+  private Response error(int status, String reason, String message) {
+    Map<String, Object> detail = new HashMap<>();
+    detail.put("domain", "global");
+    detail.put("reason", reason);
+    detail.put("message", message);
+
+    GenericJson error = new GenericJson();
+    error.put("code", status);
+    error.put("message", message);
+    error.put("status", reason);
+    error.put("errors", List.of(detail));
+
+    GenericJson body = new GenericJson();
+    body.put("error", error);
+    try {
+      return new Response(
+          status, "application/json; charset=UTF-8", jsonFactory.toString(body), 0);
+    } catch (IOException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  private static Map<String, String> parseQuery(String rawQuery) {
+    Map<String, String> query = new HashMap<>();
+    if (rawQuery == null) {
+      return query;
+    }
+    for (String pair : rawQuery.split("&")) {
+      int eq = pair.indexOf('=');
+      if (eq > 0) {
+        query.put(
+            URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+            URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+      }
+    }
+    return query;
+  }
+
+  /** Find a header in a block of "Name: value" lines, ignoring case. */
+  private static String header(String headers, String name) {
+    for (String line : headers.split("\n")) {
+      if (line.regionMatches(true, 0, name + ":", 0, name.length() + 1)) {
+        return line.substring(name.length() + 1).trim();
+      }
+    }
+    return null;
+  }
+
+  private static String reason(int status) {
+    switch (status) {
+      case 200:
+        return "OK";
+      case 400:
+        return "Bad Request";
+      case 404:
+        return "Not Found";
+      case 409:
+        return "Conflict";
+      case 429:
+        return "Too Many Requests";
+      case 503:
+        return "Service Unavailable";
+      default:
+        return "Error";
+    }
+  }
+
+  /** Status, body and throttling hint of a response. */
+  private static final class Response {
+    final int status;
+    final String contentType;
+    final String body;
+    final long retryAfterSeconds;
+
+    Response(int status, String contentType, String body, long retryAfterSeconds) {
+      this.status = status;
+      this.contentType = contentType;
+      this.body = body;
+      this.retryAfterSeconds = retryAfterSeconds;
+    }
+  }
+
+  /** Builder for {@link LocalWalletServer}. */
+  public static final class Builder {
+    private int port;
+    private long minLatencyNanos;
+    private long maxLatencyNanos;
+    private double errorRate;
+    private double requestsPerSecond;
+
+    private Builder() {}
+
+    /** Port to listen on. Defaults to any free port. */
+    public Builder setPort(int port) {
+      this.port = port;
+      return this;
+    }
+
+    /** Delay each HTTP request by a random time in this range. Defaults to no delay. */
+    public Builder setLatency(long min, long max, TimeUnit unit) {
+      if (min < 0 || max < min) {
+        throw new IllegalArgumentException("Latency range must satisfy 0 <= min <= max");
+      }
+      this.minLatencyNanos = unit.toNanos(min);
+      this.maxLatencyNanos = unit.toNanos(max);
+      return this;
+    }
+
+    /** Fraction of API calls, between 0 and 1, that fail with 503. Defaults to 0. */
+    public Builder setErrorRate(double errorRate) {
+      if (errorRate < 0 || errorRate > 1) {
+        throw new IllegalArgumentException("Error rate must be between 0 and 1");
+      }
+      this.errorRate = errorRate;
+      return this;
+    }
+
+    /**
+     * Maximum API calls per second, with bursts of up to one second's worth. Calls over the rate
+     * fail with 429 and a Retry-After header. Defaults to 0, for no limit.
+     */
+    public Builder setRateLimit(double requestsPerSecond) {
+      if (requestsPerSecond < 0) {
+        throw new IllegalArgumentException("Rate limit must not be negative");
+      }
+      this.requestsPerSecond = requestsPerSecond;
+      return this;
+    }
+
+    /** Build the server. Call {@link LocalWalletServer#start()} to start it. */
+    public LocalWalletServer build() {
+      return new LocalWalletServer(this);
+    }
+  }
+}
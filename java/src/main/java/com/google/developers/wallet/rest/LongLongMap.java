@@ -0,0 +1,178 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from long keys to long values, without boxing either.
+ *
+ * <p>Uses open addressing with linear probing, so an entry costs two longs and a flag instead of
+ * a node and two boxed numbers. Not thread-safe.
+ */
+final class LongLongMap {
+  private static final int MIN_CAPACITY = 16;
+
+  private long[] keys;
+  private long[] values;
+  private boolean[] used;
+  private int size;
+
+  LongLongMap() {
+    this(MIN_CAPACITY);
+  }
+
+  LongLongMap(int expectedSize) {
+    allocate(capacityFor(expectedSize));
+  }
+
+  /** @return The number of entries. */
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  boolean containsKey(long key) {
+    return used[find(key)];
+  }
+
+  /** @return The value of the key, or the default if there is none. */
+  long get(long key, long defaultValue) {
+    int slot = find(key);
+    return used[slot] ? values[slot] : defaultValue;
+  }
+
+  void put(long key, long value) {
+    int slot = find(key);
+    if (used[slot]) {
+      values[slot] = value;
+    } else {
+      insert(slot, key, value);
+    }
+  }
+
+  /**
+   * Add to the value of a key, starting from zero if it has none.
+   *
+   * @return The new value.
+   */
+  long add(long key, long delta) {
+    int slot = find(key);
+    if (used[slot]) {
+      return values[slot] += delta;
+    }
+    insert(slot, key, delta);
+    return delta;
+  }
+
+  void remove(long key) {
+    int slot = find(key);
+    if (!used[slot]) {
+      return;
+    }
+    used[slot] = false;
+    size--;
+
+    // Shift later entries of the probe sequence back, so lookups never stop at the hole early
+    int mask = keys.length - 1;
+    int hole = slot;
+    for (int next = (hole + 1) & mask; used[next]; next = (next + 1) & mask) {
+      int home = hash(keys[next]) & mask;
+      if (((next - home) & mask) >= ((next - hole) & mask)) {
+        keys[hole] = keys[next];
+        values[hole] = values[next];
+        used[hole] = true;
+        used[next] = false;
+        hole = next;
+      }
+    }
+  }
+
+  void clear() {
+    Arrays.fill(used, false);
+    size = 0;
+  }
+
+  /** Receives the entries of a map. */
+  @FunctionalInterface
+  interface EntryConsumer {
+    void accept(long key, long value);
+  }
+
+  void forEach(EntryConsumer consumer) {
+    for (int slot = 0; slot < keys.length; slot++) {
+      if (used[slot]) {
+        consumer.accept(keys[slot], values[slot]);
+      }
+    }
+  }
+
+  private int find(long key) {
+    int mask = keys.length - 1;
+    int slot = hash(key) & mask;
+    while (used[slot] && keys[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void insert(int slot, long key, long value) {
+    keys[slot] = key;
+    values[slot] = value;
+    used[slot] = true;
+    if (++size > keys.length * 3 / 4) {
+      rehash(keys.length * 2);
+    }
+  }
+
+  private void rehash(int capacity) {
+    long[] oldKeys = keys;
+    long[] oldValues = values;
+    boolean[] oldUsed = used;
+    allocate(capacity);
+    for (int slot = 0; slot < oldKeys.length; slot++) {
+      if (oldUsed[slot]) {
+        int target = find(oldKeys[slot]);
+        keys[target] = oldKeys[slot];
+        values[target] = oldValues[slot];
+        used[target] = true;
+      }
+    }
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    values = new long[capacity];
+    used = new boolean[capacity];
+  }
+
+  private static int capacityFor(int expectedSize) {
+    int capacity = MIN_CAPACITY;
+    while (capacity * 3 / 4 < expectedSize) {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  /** Spread sequential keys such as account numbers across the table. Visible for tests. */
+  static int hash(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+}
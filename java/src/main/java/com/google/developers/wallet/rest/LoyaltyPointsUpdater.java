@@ -0,0 +1,416 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.services.walletobjects.model.LoyaltyObject;
+import com.google.api.services.walletobjects.model.LoyaltyPoints;
+import com.google.api.services.walletobjects.model.LoyaltyPointsBalance;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+
+/**
+ * Applies a stream of loyalty points transactions as one balance patch per account and window.
+ *
+ * <p>Earn and burn transactions are summed per account in a primitive-keyed map. When the
+ * window closes, each account with a net change gets a single patch that sets only its points
+ * balance, and all of them are sent in batches through a {@link BatchExecutor}.
+ *
+ * <p>The API sets balances rather than adding to them, so the updater needs each account's
+ * current balance. It remembers the balances it wrote, falls back to the clients' {@link
+ * PassShadowStore}, and fetches the rest in batches before patching. It must therefore be the
+ * only writer of the balances it manages.
+ */
+public final class LoyaltyPointsUpdater implements AutoCloseable {
+  private final BatchExecutor batchExecutor;
+  private final PassShadowStore shadowStore;
+  private final LongFunction<String> objectIds;
+  private final BatchCallback<Update, ? super LoyaltyObject> callback;
+  private final long windowMillis;
+  private final ScheduledExecutorService checker;
+
+  /** Net points per account since the last flush. Guarded by this. */
+  private LongLongMap deltas = new LongLongMap();
+
+  /** Balances as last written or read, by account. Guarded by itself. */
+  private final LongLongMap balances = new LongLongMap();
+
+  /** Held while flushing, so that the patches for an account are sent one after another. */
+  private final Object flushLock = new Object();
+
+  private long received;
+
+  private LoyaltyPointsUpdater(Builder builder) {
+    this.batchExecutor = builder.batchExecutor;
+    this.shadowStore = builder.shadowStore;
+    this.objectIds = builder.objectIds;
+    this.callback = builder.callback;
+    this.windowMillis = builder.windowMillis;
+    this.checker =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "wallet-loyalty-points");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  /**
+   * Create a builder for an updater that sends requests through the given clients.
+   *
+   * @param clients The shared API clients.
+   * @param objectIds Maps an account ID to its loyalty object ID: "{issuerId}.{objectSuffix}"
+   * @return A new builder.
+   */
+  public static Builder newBuilder(WalletClients clients, LongFunction<String> objectIds) {
+    return new Builder(
+        BatchExecutor.newBuilder(clients).build(), clients.getShadowStore(), objectIds);
+  }
+
+  /**
+   * Start patching balances at the end of every window.
+   *
+   * @return This updater.
+   */
+  public LoyaltyPointsUpdater start() {
+    checker.scheduleWithFixedDelay(
+        () -> {
+          try {
+            flush();
+          } catch (IOException | RuntimeException ex) {
+            // The failed accounts are reported to the callback and the unreported ones are
+            // pending again. Letting the exception escape would cancel all later flushes
+          }
+        },
+        windowMillis,
+        windowMillis,
+        TimeUnit.MILLISECONDS);
+    return this;
+  }
+
+  /** Stop flushing periodically, and patch the balances still pending. */
+  @Override
+  public void close() throws IOException {
+    checker.shutdown();
+    try {
+      checker.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    flush();
+  }
+
+  /**
+   * Record a transaction.
+   *
+   * @param accountId The loyalty account.
+   * @param points Points earned, or negative for points burned.
+   */
+  public synchronized void submit(long accountId, long points) {
+    received++;
+    deltas.add(accountId, points);
+  }
+
+  /** @return The number of accounts with a pending change. */
+  public synchronized int getPendingCount() {
+    return deltas.size();
+  }
+
+  /** @return The number of transactions submitted so far. */
+  public synchronized long getReceivedCount() {
+    return received;
+  }
+
+  /**
+   * Patch the balances of all accounts with pending transactions now. If the flush fails, the
+   * points of the accounts not yet reported to the callback are pending again.
+   */
+  public void flush() throws IOException {
+    synchronized (flushLock) {
+      LongLongMap pending;
+      synchronized (this) {
+        if (deltas.isEmpty()) {
+          return;
+        }
+        pending = deltas;
+        deltas = new LongLongMap(pending.size());
+      }
+
+      try {
+        // Collect the updates first, as reporting one removes it from the pending map
+        List<Update> updates = new ArrayList<>(pending.size());
+        pending.forEach(
+            (accountId, delta) -> {
+              if (delta != 0) {
+                updates.add(new Update(accountId, objectIds.apply(accountId), delta));
+              }
+            });
+
+        List<Update> known = new ArrayList<>(updates.size());
+        List<Update> unknown = new ArrayList<>();
+        List<Update> outOfRange = new ArrayList<>();
+        synchronized (balances) {
+          for (Update update : updates) {
+            if (balances.containsKey(update.accountId)) {
+              update.balance = balances.get(update.accountId, 0) + update.delta;
+            } else if (!fromShadowStore(update)) {
+              unknown.add(update);
+              continue;
+            }
+            (inRange(update) ? known : outOfRange).add(update);
+          }
+        }
+        for (Update update : outOfRange) {
+          reportOutOfRange(update, pending);
+        }
+
+        if (!unknown.isEmpty()) {
+          fetch(unknown, known, pending);
+        }
+        patch(known, pending);
+      } catch (IOException | RuntimeException ex) {
+        restore(pending);
+        throw ex;
+      }
+    }
+  }
+
+  /** @return Whether the new balance fits the API's 32-bit balance. */
+  private static boolean inRange(Update update) {
+    return update.balance >= Integer.MIN_VALUE && update.balance <= Integer.MAX_VALUE;
+  }
+
+  /**
+   * Report an update whose balance does not fit the API's balance as failed. Its points are
+   * dropped; the balance is left as it was.
+   */
+  private void reportOutOfRange(Update update, LongLongMap pending) {
+    GoogleJsonError error = new GoogleJsonError();
+    error.setCode(400);
+    error.setMessage("Balance " + update.balance + " is out of range for an integer balance");
+    reported(pending, update);
+    callback.onFailure(update, error);
+  }
+
+  /** Mark an update as reported to the callback, so a failed flush does not submit it again. */
+  private static void reported(LongLongMap pending, Update update) {
+    synchronized (pending) {
+      pending.remove(update.accountId);
+    }
+  }
+
+  /** Add the points not reported to the callback to those submitted since. */
+  private void restore(LongLongMap pending) {
+    synchronized (pending) {
+      synchronized (this) {
+        pending.forEach(
+            (accountId, delta) -> {
+              if (delta != 0) {
+                deltas.add(accountId, delta);
+              }
+            });
+      }
+    }
+  }
+
+  /** Take the balance from the shadow store, if it has the object. */
+  private boolean fromShadowStore(Update update) {
+    if (shadowStore == null) {
+      return false;
+    }
+    LoyaltyObject stored = shadowStore.getPassObject(PassType.LOYALTY, update.objectId);
+    if (stored == null) {
+      return false;
+    }
+    update.balance = balanceOf(stored) + update.delta;
+    return true;
+  }
+
+  /** Get the current balances in batches, and queue the updates that found their object. */
+  private void fetch(List<Update> unknown, List<Update> known, LongLongMap pending)
+      throws IOException {
+    List<Update> found = new ArrayList<>(unknown.size());
+    batchExecutor.execute(
+        unknown.iterator(),
+        (service, update) -> PassType.LOYALTY.getObjectById(service, update.objectId),
+        new BatchCallback<Update, LoyaltyObject>() {
+          @Override
+          public void onSuccess(Update update, LoyaltyObject response) {
+            long balance = balanceOf(response);
+            // Keep what was read, so that a failed flush need not read it again
+            synchronized (balances) {
+              balances.put(update.accountId, balance);
+            }
+            update.balance = balance + update.delta;
+            if (!inRange(update)) {
+              reportOutOfRange(update, pending);
+              return;
+            }
+            synchronized (found) {
+              found.add(update);
+            }
+          }
+
+          @Override
+          public void onFailure(Update update, GoogleJsonError error) {
+            reported(pending, update);
+            callback.onFailure(update, error);
+          }
+        });
+    known.addAll(found);
+  }
+
+  private void patch(List<Update> updates, LongLongMap pending) throws IOException {
+    batchExecutor.execute(
+        updates.iterator(),
+        (service, update) ->
+            PassType.LOYALTY.patchObject(
+                service,
+                update.objectId,
+                new LoyaltyObject()
+                    .setLoyaltyPoints(
+                        new LoyaltyPoints()
+                            .setBalance(
+                                new LoyaltyPointsBalance()
+                                    .setInt(update.balance.intValue())))),
+        new BatchCallback<Update, LoyaltyObject>() {
+          @Override
+          public void onSuccess(Update update, LoyaltyObject response) {
+            synchronized (balances) {
+              balances.put(update.accountId, update.balance);
+            }
+            PassType.LOYALTY.rememberObject(shadowStore, response);
+            reported(pending, update);
+            callback.onSuccess(update, response);
+          }
+
+          @Override
+          public void onFailure(Update update, GoogleJsonError error) {
+            // The balance may or may not have been written, so read it again next time
+            synchronized (balances) {
+              balances.remove(update.accountId);
+            }
+            reported(pending, update);
+            callback.onFailure(update, error);
+          }
+        });
+  }
+
+  private static long balanceOf(LoyaltyObject object) {
+    if (object.getLoyaltyPoints() == null
+        || object.getLoyaltyPoints().getBalance() == null
+        || object.getLoyaltyPoints().getBalance().getInt() == null) {
+      return 0;
+    }
+    return object.getLoyaltyPoints().getBalance().getInt();
+  }
+
+  /** The net change of one account within a window. */
+  public static final class Update {
+    private final long accountId;
+    private final String objectId;
+    private final long delta;
+    private Long balance;
+
+    Update(long accountId, String objectId, long delta) {
+      this.accountId = accountId;
+      this.objectId = objectId;
+      this.delta = delta;
+    }
+
+    /** @return The loyalty account. */
+    public long getAccountId() {
+      return accountId;
+    }
+
+    /** @return The loyalty object ID: "{issuerId}.{objectSuffix}" */
+    public String getObjectId() {
+      return objectId;
+    }
+
+    /** @return The net points of the transactions in the window. */
+    public long getDelta() {
+      return delta;
+    }
+
+    /** @return The new balance, or null if the current balance could not be read. */
+    public Long getBalance() {
+      return balance;
+    }
+
+    @Override
+    public String toString() {
+      return objectId + (delta < 0 ? "" : "+") + delta;
+    }
+  }
+
+  /** Builder for {@link LoyaltyPointsUpdater}. */
+  public static final class Builder {
+    private BatchExecutor batchExecutor;
+    private final PassShadowStore shadowStore;
+    private final LongFunction<String> objectIds;
+    private BatchCallback<Update, ? super LoyaltyObject> callback =
+        new BatchCallback<Update, Object>() {
+          @Override
+          public void onSuccess(Update update, Object response) {}
+
+          @Override
+          public void onFailure(Update update, GoogleJsonError error) {}
+        };
+    private long windowMillis = TimeUnit.SECONDS.toMillis(10);
+
+    private Builder(
+        BatchExecutor batchExecutor, PassShadowStore shadowStore, LongFunction<String> objectIds) {
+      this.batchExecutor = batchExecutor;
+      this.shadowStore = shadowStore;
+      this.objectIds = objectIds;
+    }
+
+    /** Send the requests through this executor, e.g. to change the batch size or retries. */
+    public Builder setBatchExecutor(BatchExecutor batchExecutor) {
+      this.batchExecutor = batchExecutor;
+      return this;
+    }
+
+    /** How long to sum transactions before patching. Defaults to 10 seconds. */
+    public Builder setWindow(long duration, TimeUnit unit) {
+      if (duration < 1) {
+        throw new IllegalArgumentException("Window must be positive");
+      }
+      this.windowMillis = Math.max(1, unit.toMillis(duration));
+      return this;
+    }
+
+    /**
+     * Receives the outcome of each account's update, e.g. to submit the points of a failed one
+     * again once the cause is fixed.
+     */
+    public Builder setCallback(BatchCallback<Update, ? super LoyaltyObject> callback) {
+      this.callback = callback;
+      return this;
+    }
+
+    /** Build the updater. Call {@link LoyaltyPointsUpdater#start()} to begin patching. */
+    public LoyaltyPointsUpdater build() {
+      return new LoyaltyPointsUpdater(this);
+    }
+  }
+}
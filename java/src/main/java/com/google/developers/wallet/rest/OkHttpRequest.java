@@ -0,0 +1,111 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Call;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+
+/** Single request sent through an {@link OkHttpTransport}. */
+final class OkHttpRequest extends LowLevelHttpRequest {
+  private static final byte[] EMPTY_BODY = new byte[0];
+
+  private final OkHttpClient client;
+  private final String method;
+  private final Request.Builder requestBuilder;
+  private int connectTimeoutMillis;
+  private int readTimeoutMillis;
+  private int writeTimeoutMillis;
+
+  OkHttpRequest(OkHttpClient client, String method, String url) {
+    this.client = client;
+    this.method = method;
+    this.requestBuilder = new Request.Builder().url(url);
+    this.connectTimeoutMillis = client.connectTimeoutMillis();
+    this.readTimeoutMillis = client.readTimeoutMillis();
+    this.writeTimeoutMillis = client.writeTimeoutMillis();
+  }
+
+  @Override
+  public void addHeader(String name, String value) {
+    requestBuilder.addHeader(name, value);
+  }
+
+  @Override
+  public void setTimeout(int connectTimeout, int readTimeout) {
+    this.connectTimeoutMillis = connectTimeout;
+    this.readTimeoutMillis = readTimeout;
+  }
+
+  @Override
+  public void setWriteTimeout(int writeTimeout) {
+    this.writeTimeoutMillis = writeTimeout;
+  }
+
+  @Override
+  public LowLevelHttpResponse execute() throws IOException {
+    RequestBody body = null;
+    if (getStreamingContent() != null) {
+      ByteArrayOutputStream content = new ByteArrayOutputStream();
+      getStreamingContent().writeTo(content);
+
+      String contentType = getContentType();
+      body =
+          RequestBody.create(
+              content.toByteArray(), contentType == null ? null : MediaType.parse(contentType));
+      if (getContentEncoding() != null) {
+        requestBuilder.addHeader("Content-Encoding", getContentEncoding());
+      }
+    } else if (requiresBody(method)) {
+      body = RequestBody.create(EMPTY_BODY, null);
+    }
+
+    Call call = clientForTimeouts().newCall(requestBuilder.method(method, body).build());
+    return new OkHttpResponse(call.execute());
+  }
+
+  /** Derive a client only when this request overrides the transport's default timeouts. */
+  private OkHttpClient clientForTimeouts() {
+    if (connectTimeoutMillis == client.connectTimeoutMillis()
+        && readTimeoutMillis == client.readTimeoutMillis()
+        && writeTimeoutMillis == client.writeTimeoutMillis()) {
+      return client;
+    }
+
+    // Derived clients share the connection pool and dispatcher of the original
+    return client
+        .newBuilder()
+        .connectTimeout(connectTimeoutMillis, TimeUnit.MILLISECONDS)
+        .readTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS)
+        .writeTimeout(writeTimeoutMillis, TimeUnit.MILLISECONDS)
+        .build();
+  }
+
+  private static boolean requiresBody(String method) {
+    return method.equals("POST")
+        || method.equals("PUT")
+        || method.equals("PATCH")
+        || method.equals("PROPPATCH")
+        || method.equals("REPORT");
+  }
+}
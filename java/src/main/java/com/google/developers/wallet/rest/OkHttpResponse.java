@@ -0,0 +1,94 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import com.google.api.client.http.LowLevelHttpResponse;
+import java.io.InputStream;
+import okhttp3.Headers;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/** Response to an {@link OkHttpRequest}. */
+final class OkHttpResponse extends LowLevelHttpResponse {
+  private final Response response;
+  private final Headers headers;
+
+  OkHttpResponse(Response response) {
+    this.response = response;
+    this.headers = response.headers();
+  }
+
+  @Override
+  public InputStream getContent() {
+    ResponseBody body = response.body();
+    return body == null ? null : body.byteStream();
+  }
+
+  @Override
+  public String getContentEncoding() {
+    return response.header("Content-Encoding");
+  }
+
+  @Override
+  public long getContentLength() {
+    ResponseBody body = response.body();
+    return body == null ? -1 : body.contentLength();
+  }
+
+  @Override
+  public String getContentType() {
+    return response.header("Content-Type");
+  }
+
+  @Override
+  public String getStatusLine() {
+    // HTTP/2 has no status line, so build an HTTP/1.1 style one for logging
+    String version = response.protocol() == Protocol.HTTP_1_0 ? "HTTP/1.0" : "HTTP/1.1";
+    return String.format("%s %d %s", version, response.code(), response.message());
+  }
+
+  @Override
+  public int getStatusCode() {
+    return response.code();
+  }
+
+  @Override
+  public String getReasonPhrase() {
+    return response.message();
+  }
+
+  @Override
+  public int getHeaderCount() {
+    return headers.size();
+  }
+
+  @Override
+  public String getHeaderName(int index) {
+    return headers.name(index);
+  }
+
+  @Override
+  public String getHeaderValue(int index) {
+    return headers.value(index);
+  }
+
+  @Override
+  public void disconnect() {
+    // Returns the connection to the pool once the body is consumed
+    response.close();
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+/**
+ * HTTP transport backed by OkHttp.
+ *
+ * <p>Unlike {@code NetHttpTransport}, this transport keeps an explicitly sized connection pool,
+ * and negotiates HTTP/2 so concurrent requests are multiplexed over a single connection. Requests
+ * run on the calling thread, so the callers' threads bound the number in flight.
+ *
+ * <p>Use it through {@link WalletClients.Builder#setHttpTransport} or by setting the
+ * WALLET_HTTP_TRANSPORT environment variable to {@code okhttp}.
+ */
+public final class OkHttpTransport extends HttpTransport {
+  /** Client used for every request; shares its connection pool. */
+  private final OkHttpClient client;
+
+  /**
+   * Create a transport that sends requests through an existing OkHttp client.
+   *
+   * @param client The OkHttp client to use.
+   */
+  public OkHttpTransport(OkHttpClient client) {
+    this.client = client;
+  }
+
+  /** Create a transport with default pool settings. */
+  public OkHttpTransport() {
+    this(newBuilder().buildClient());
+  }
+
+  /**
+   * Create a builder for a transport with custom pool settings.
+   *
+   * @return A new builder.
+   */
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /** @return The underlying OkHttp client. */
+  public OkHttpClient getClient() {
+    return client;
+  }
+
+  @Override
+  public boolean supportsMethod(String method) {
+    // OkHttp supports PATCH natively, so no X-HTTP-Method-Override is needed
+    return true;
+  }
+
+  @Override
+  protected LowLevelHttpRequest buildRequest(String method, String url) {
+    return new OkHttpRequest(client, method, url);
+  }
+
+  @Override
+  public void shutdown() {
+    client.dispatcher().executorService().shutdown();
+    client.connectionPool().evictAll();
+  }
+
+  /** Builder for {@link OkHttpTransport}. */
+  public static final class Builder {
+    private int maxIdleConnections = 32;
+    private long keepAliveMillis = TimeUnit.MINUTES.toMillis(5);
+    private boolean http2Enabled = true;
+    // Match the HttpRequest defaults so requests do not need a per-call client
+    private int connectTimeoutMillis = 20_000;
+    private int readTimeoutMillis = 20_000;
+
+    private Builder() {}
+
+    /** Maximum number of idle connections kept in the pool. Defaults to 32. */
+    public Builder setMaxIdleConnections(int maxIdleConnections) {
+      this.maxIdleConnections = maxIdleConnections;
+      return this;
+    }
+
+    /** How long an idle connection is kept in the pool. Defaults to 5 minutes. */
+    public Builder setKeepAlive(long duration, TimeUnit unit) {
+      this.keepAliveMillis = unit.toMillis(duration);
+      return this;
+    }
+
+    /** Whether to negotiate HTTP/2 with servers that support it. Defaults to true. */
+    public Builder setHttp2Enabled(boolean http2Enabled) {
+      this.http2Enabled = http2Enabled;
+      return this;
+    }
+
+    /** Default connect timeout, used unless a request sets its own. Defaults to 20 seconds. */
+    public Builder setConnectTimeoutMillis(int connectTimeoutMillis) {
+      this.connectTimeoutMillis = connectTimeoutMillis;
+      return this;
+    }
+
+    /** Default read timeout, used unless a request sets its own. Defaults to 20 seconds. */
+    public Builder setReadTimeoutMillis(int readTimeoutMillis) {
+      this.readTimeoutMillis = readTimeoutMillis;
+      return this;
+    }
+
+    /** Build the transport. */
+    public OkHttpTransport build() {
+      return new OkHttpTransport(buildClient());
+    }
+
+    private OkHttpClient buildClient() {
+      return new OkHttpClient.Builder()
+          .connectionPool(
+              new ConnectionPool(maxIdleConnections, keepAliveMillis, TimeUnit.MILLISECONDS))
+          .protocols(
+              http2Enabled
+                  ? List.of(Protocol.HTTP_2, Protocol.HTTP_1_1)
+                  : List.of(Protocol.HTTP_1_1))
+          .connectTimeout(connectTimeoutMillis, TimeUnit.MILLISECONDS)
+          .readTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS)
+          // HttpRequest does not set a write timeout unless asked to
+          .writeTimeout(0, TimeUnit.MILLISECONDS)
+          .followRedirects(false)
+          .build();
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.util.ClassInfo;
+import com.google.api.client.util.Data;
+import com.google.api.client.util.FieldInfo;
+import com.google.api.client.util.Types;
+import com.google.api.services.walletobjects.Walletobjects;
+import com.google.api.services.walletobjects.WalletobjectsRequest;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Computes the minimal patch that turns one pass class or object into another.
+ *
+ * <p>A patch holds only the fields that changed. Nested objects are compared field by field, since
+ * the API merges them; lists are sent whole, since the API replaces them; fields that were removed
+ * are sent as JSON null, which clears them. Small changes such as a new seat or balance thus send a
+ * few bytes instead of the whole object.
+ */
+public final class PassDiff {
+  private PassDiff() {}
+
+  /**
+   * Compute the patch from one version of a pass class or object to another.
+   *
+   * @param previous The current version, e.g. as last returned by the API.
+   * @param desired The new version.
+   * @return A patch body of the same type, empty if nothing changed.
+   */
+  public static <T extends GenericJson> T diff(T previous, T desired) {
+    @SuppressWarnings("unchecked")
+    T patch = (T) Types.newInstance(desired.getClass());
+    diffInto(previous, desired, patch);
+    return patch;
+  }
+
+  /**
+   * Create the cheapest request that changes a pass class: a patch with the changed fields, or an
+   * update when that is smaller, e.g. because most fields changed.
+   *
+   * @param service The Google Wallet service client.
+   * @param type The pass type of the class.
+   * @param previous The current version of the class.
+   * @param desired The new version of the class; its ID selects the class.
+   * @return The request, or null if nothing changed.
+   */
+  public static <C extends GenericJson> WalletobjectsRequest<C> prepareClassChange(
+      Walletobjects service, PassType<C, ?> type, C previous, C desired) throws IOException {
+    C patch = diff(previous, desired);
+    if (patch.isEmpty()) {
+      return null;
+    }
+    return isSmaller(service.getJsonFactory(), patch, desired)
+        ? type.patchClass(service, type.getId(desired), patch)
+        : type.updateClass(service, type.getId(desired), desired);
+  }
+
+  /**
+   * Create the cheapest request that changes a pass object: a patch with the changed fields, or an
+   * update when that is smaller, e.g. because most fields changed.
+   *
+   * @param service The Google Wallet service client.
+   * @param type The pass type of the object.
+   * @param previous The current version of the object.
+   * @param desired The new version of the object; its ID selects the object.
+   * @return The request, or null if nothing changed.
+   */
+  public static <O extends GenericJson> WalletobjectsRequest<O> prepareObjectChange(
+      Walletobjects service, PassType<?, O> type, O previous, O desired) throws IOException {
+    O patch = diff(previous, desired);
+    if (patch.isEmpty()) {
+      return null;
+    }
+    return isSmaller(service.getJsonFactory(), patch, desired)
+        ? type.patchObject(service, type.getId(desired), patch)
+        : type.updateObject(service, type.getId(desired), desired);
+  }
+
+  /** Put the fields of {@code desired} that differ from {@code previous} into {@code patch}. */
+  private static void diffInto(
+      Map<String, Object> previous, Map<String, Object> desired, Map<String, Object> patch) {
+    for (Map.Entry<String, Object> entry : desired.entrySet()) {
+      Object before = previous.get(entry.getKey());
+      Object after = entry.getValue();
+      if (Data.isNull(after)) {
+        if (before != null && !Data.isNull(before)) {
+          patch.put(entry.getKey(), after);
+        }
+      } else if (before instanceof Map && after instanceof Map) {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> nested = (Map<String, Object>) Data.newMapInstance(after.getClass());
+        diffInto(asMap(before), asMap(after), nested);
+        if (!nested.isEmpty()) {
+          patch.put(entry.getKey(), nested);
+        }
+      } else if (!Objects.equals(before, after)) {
+        patch.put(entry.getKey(), after);
+      }
+    }
+
+    // Fields that are gone must be cleared explicitly, or the API keeps them
+    for (Map.Entry<String, Object> entry : previous.entrySet()) {
+      if (!desired.containsKey(entry.getKey()) && !Data.isNull(entry.getValue())) {
+        patch.put(entry.getKey(), nullFor(desired, entry.getKey()));
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> asMap(Object value) {
+    return (Map<String, Object>) value;
+  }
+
+  /** Get the null marker for a field, which serializes as JSON null. */
+  private static Object nullFor(Map<String, Object> owner, String name) {
+    FieldInfo field = owner instanceof GenericJson ? fieldOf((GenericJson) owner, name) : null;
+    Class<?> type = field == null ? Object.class : field.getType();
+    if (type.isInterface()) {
+      type = Map.class.isAssignableFrom(type) ? HashMap.class : ArrayList.class;
+    }
+    return Data.nullOf(type);
+  }
+
+  private static FieldInfo fieldOf(GenericJson owner, String name) {
+    return ClassInfo.of(owner.getClass()).getFieldInfo(name);
+  }
+
+  private static boolean isSmaller(JsonFactory jsonFactory, GenericJson patch, GenericJson full)
+      throws IOException {
+    return jsonFactory.toByteArray(patch).length < jsonFactory.toByteArray(full).length;
+  }
+}
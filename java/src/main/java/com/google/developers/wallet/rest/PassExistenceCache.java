@@ -0,0 +1,83 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thread-safe record of pass class and object IDs ("{issuerId}.{suffix}") known to exist.
+ *
+ * <p>Create methods consult the cache before calling the API, so repeated calls for the same pass
+ * skip the network entirely. The cache holds at most a fixed number of IDs per kind and forgets
+ * the least recently used ones first.
+ */
+public final class PassExistenceCache {
+  // Access-ordered maps rather than sets, so that a lookup with get() counts as a use
+  private final Map<String, Boolean> classIds;
+  private final Map<String, Boolean> objectIds;
+
+  /**
+   * Create a cache.
+   *
+   * @param maxEntries Maximum number of class IDs, and separately of object IDs, to remember.
+   */
+  public PassExistenceCache(int maxEntries) {
+    this.classIds = newLruMap(maxEntries);
+    this.objectIds = newLruMap(maxEntries);
+  }
+
+  /** @return Whether the class is known to exist. */
+  public boolean containsClass(String classId) {
+    return classIds.get(classId) != null;
+  }
+
+  /** Record that the class exists. */
+  public void addClass(String classId) {
+    classIds.put(classId, Boolean.TRUE);
+  }
+
+  /** Forget the class, e.g. after the API reports it as not found. */
+  public void removeClass(String classId) {
+    classIds.remove(classId);
+  }
+
+  /** @return Whether the object is known to exist. */
+  public boolean containsObject(String objectId) {
+    return objectIds.get(objectId) != null;
+  }
+
+  /** Record that the object exists. */
+  public void addObject(String objectId) {
+    objectIds.put(objectId, Boolean.TRUE);
+  }
+
+  /** Forget the object, e.g. after the API reports it as not found. */
+  public void removeObject(String objectId) {
+    objectIds.remove(objectId);
+  }
+
+  private static Map<String, Boolean> newLruMap(int maxEntries) {
+    return Collections.synchronizedMap(
+        new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > maxEntries;
+          }
+        });
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.json.GenericJson;
+import com.google.api.services.walletobjects.Walletobjects;
+import com.google.api.services.walletobjects.model.AddMessageRequest;
+import com.google.api.services.walletobjects.model.Message;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Sends a message to many pass objects, e.g. a gate change to every ticket of an event.
+ *
+ * <p>A message added to a class reaches all of its objects in a single call, while a message per
+ * object costs one request each. When messaging a set of objects, the messenger lists the class
+ * and adds the message to the class instead if the set covers every object that is not expired.
+ * Otherwise the targeted messages are sent through a {@link BatchExecutor}, which limits how many
+ * batches are in flight and retries failed requests.
+ */
+public final class PassMessenger {
+  /** Object state that hides a pass in the "Expired passes" section. */
+  private static final String EXPIRED = "EXPIRED";
+
+  private final Walletobjects service;
+  private final BatchExecutor batchExecutor;
+  private final int pageSize;
+  private final int coverageCheckThreshold;
+
+  private PassMessenger(Builder builder) {
+    this.service = builder.service;
+    this.batchExecutor = builder.batchExecutor;
+    this.pageSize = builder.pageSize;
+    this.coverageCheckThreshold = builder.coverageCheckThreshold;
+  }
+
+  /**
+   * Create a builder for a messenger that sends requests through the given clients.
+   *
+   * @param clients The shared API clients.
+   * @return A new builder.
+   */
+  public static Builder newBuilder(WalletClients clients) {
+    return new Builder(clients.getService(), BatchExecutor.newBuilder(clients).build());
+  }
+
+  /**
+   * Add a message to a class, which shows it on every object of the class.
+   *
+   * @param type The pass type of the class.
+   * @param classId The class ID: "{issuerId}.{classSuffix}"
+   * @param message The message to add.
+   */
+  public void sendToClass(PassType<?, ?> type, String classId, Message message)
+      throws IOException {
+    type.addClassMessage(service, classId, new AddMessageRequest().setMessage(message)).execute();
+  }
+
+  /**
+   * Add a message to the given objects of a class.
+   *
+   * <p>If there are at least as many objects as the coverage check threshold and they include
+   * every object of the class that is not expired, the message is added to the class in a single
+   * call, and the callback receives the class response for each object.
+   *
+   * @param type The pass type of the objects.
+   * @param classId The class ID of the objects: "{issuerId}.{classSuffix}"
+   * @param objectIds The object IDs: "{issuerId}.{objectSuffix}"
+   * @param message The message to add.
+   * @param callback Receives the outcome of each object. May be null.
+   * @return The number of objects messaged and failed, and the IDs of the failed ones.
+   */
+  public BatchResult<String> send(
+      PassType<?, ?> type,
+      String classId,
+      Collection<String> objectIds,
+      Message message,
+      BatchCallback<String, ? super GenericJson> callback)
+      throws IOException {
+    if (objectIds.size() < coverageCheckThreshold || !coversClass(type, classId, objectIds)) {
+      return sendToObjects(type, objectIds.iterator(), message, callback);
+    }
+
+    AddMessageRequest request = new AddMessageRequest().setMessage(message);
+    GenericJson response = type.addClassMessage(service, classId, request).execute();
+    BatchResult<String> result = new BatchResult<>();
+    for (String objectId : objectIds) {
+      result.recordSuccess();
+      if (callback != null) {
+        callback.onSuccess(objectId, response);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Add a message to each of the given objects, in batches.
+   *
+   * @param type The pass type of the objects.
+   * @param objectIds The object IDs: "{issuerId}.{objectSuffix}". Read lazily.
+   * @param message The message to add.
+   * @param callback Receives the outcome of each object. May be null.
+   * @return The number of objects messaged and failed, and the IDs of the failed ones.
+   */
+  public BatchResult<String> sendToObjects(
+      PassType<?, ?> type,
+      Iterator<String> objectIds,
+      Message message,
+      BatchCallback<String, ? super GenericJson> callback)
+      throws IOException {
+    // Requests are serialized when their batch is sent, so all of them can share one body
+    AddMessageRequest request = new AddMessageRequest().setMessage(message);
+    return batchExecutor.execute(
+        objectIds,
+        (service, objectId) -> type.addObjectMessage(service, objectId, request),
+        callback != null ? callback : new IgnoringCallback());
+  }
+
+  /**
+   * Whether the objects include every object of the class that is not expired, and nothing else.
+   * Listing stops at the first object that is missing.
+   */
+  private boolean coversClass(PassType<?, ?> type, String classId, Collection<String> objectIds)
+      throws IOException {
+    Set<String> remaining = new HashSet<>(objectIds);
+    try (AsyncWalletClient lister = AsyncWalletClient.newBuilder(service).build();
+        PassPageIterator<? extends GenericJson> objects =
+            lister.listObjects(type, classId, null, pageSize)) {
+      while (objects.hasNext()) {
+        GenericJson object = objects.next();
+        if (!remaining.remove((String) object.get("id"))
+            && !EXPIRED.equalsIgnoreCase((String) object.get("state"))) {
+          return false;
+        }
+      }
+    } catch (UncheckedIOException ex) {
+      throw ex.getCause();
+    }
+
+    // Objects of other classes would not see a class message
+    return remaining.isEmpty();
+  }
+
+  private static final class IgnoringCallback implements BatchCallback<String, Object> {
+    @Override
+    public void onSuccess(String objectId, Object response) {}
+
+    @Override
+    public void onFailure(String objectId, GoogleJsonError error) {}
+  }
+
+  /** Builder for {@link PassMessenger}. */
+  public static final class Builder {
+    private final Walletobjects service;
+    private BatchExecutor batchExecutor;
+    private int pageSize = 1_000;
+    private int coverageCheckThreshold = 100;
+
+    private Builder(Walletobjects service, BatchExecutor batchExecutor) {
+      this.service = service;
+      this.batchExecutor = batchExecutor;
+    }
+
+    /** Send targeted messages through this executor, e.g. to change the parallelism. */
+    public Builder setBatchExecutor(BatchExecutor batchExecutor) {
+      this.batchExecutor = batchExecutor;
+      return this;
+    }
+
+    /** Number of objects to list per page when checking coverage. Defaults to 1000. */
+    public Builder setPageSize(int pageSize) {
+      if (pageSize < 1) {
+        throw new IllegalArgumentException("Page size must be at least 1");
+      }
+      this.pageSize = pageSize;
+      return this;
+    }
+
+    /**
+     * Minimum number of objects for which to check whether a class message reaches them all.
+     * Smaller sets fit in a single batch, so listing the class would not pay off. Defaults to
+     * 100; {@link Integer#MAX_VALUE} always sends targeted messages.
+     */
+    public Builder setCoverageCheckThreshold(int coverageCheckThreshold) {
+      if (coverageCheckThreshold < 1) {
+        throw new IllegalArgumentException("Coverage check threshold must be at least 1");
+      }
+      this.coverageCheckThreshold = coverageCheckThreshold;
+      return this;
+    }
+
+    /** Build the messenger. */
+    public PassMessenger build() {
+      return new PassMessenger(this);
+    }
+  }
+}
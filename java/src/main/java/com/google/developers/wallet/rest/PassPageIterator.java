@@ -0,0 +1,140 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import com.google.api.client.json.GenericJson;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterates over the pass classes or objects returned by a list request, page by page.
+ *
+ * <p>Pages are fetched lazily: the next page is requested as soon as the current one arrives, so
+ * it is usually ready by the time the caller has processed the current one. At most two pages are
+ * held at a time, however many passes there are.
+ *
+ * <p>To resume an interrupted walk, save {@link #getPageToken()} and pass it to the list method
+ * later. The walk then restarts at the beginning of the page that was being processed, so some
+ * passes may be seen twice, but none are skipped.
+ *
+ * <p>API errors are thrown from {@link #hasNext()} as {@link UncheckedIOException}. Not
+ * thread-safe.
+ *
+ * @param <T> The pass class or object model.
+ */
+public final class PassPageIterator<T> implements Iterator<T>, AutoCloseable {
+  private final Function<String, CompletableFuture<? extends GenericJson>> fetchPage;
+  private final Function<GenericJson, List<T>> resources;
+  private final Function<GenericJson, String> nextPageToken;
+
+  /** Passes of the current page not yet returned. */
+  private Iterator<T> page = Collections.emptyIterator();
+
+  /** Token of the current page; null for the first page. */
+  private String pageToken;
+
+  /** The next page, already requested; null if the current page is the last one. */
+  private CompletableFuture<? extends GenericJson> nextPage;
+
+  /** Token of {@link #nextPage}. */
+  private String nextToken;
+
+  PassPageIterator(
+      String startToken,
+      Function<String, CompletableFuture<? extends GenericJson>> fetchPage,
+      Function<GenericJson, List<T>> resources,
+      Function<GenericJson, String> nextPageToken) {
+    this.fetchPage = fetchPage;
+    this.resources = resources;
+    this.nextPageToken = nextPageToken;
+    this.pageToken = startToken;
+    this.nextToken = startToken;
+    this.nextPage = fetchPage.apply(startToken);
+  }
+
+  @Override
+  public boolean hasNext() {
+    // Pages may be empty, so keep going until one has passes or there are no more
+    while (!page.hasNext()) {
+      if (nextPage == null) {
+        return false;
+      }
+
+      GenericJson response = await(nextPage);
+      pageToken = nextToken;
+      page = resources.apply(response).iterator();
+      nextToken = nextPageToken.apply(response);
+      nextPage = nextToken == null ? null : fetchPage.apply(nextToken);
+    }
+    return true;
+  }
+
+  @Override
+  public T next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return page.next();
+  }
+
+  /**
+   * Get the token to resume from: that of the page the last returned pass is on.
+   *
+   * @return The token, or null to start from the first page.
+   */
+  public String getPageToken() {
+    return pageToken;
+  }
+
+  /** @return A sequential stream of the remaining passes that closes this iterator when closed. */
+  public Stream<T> stream() {
+    Spliterator<T> spliterator =
+        Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL);
+    return StreamSupport.stream(spliterator, false).onClose(this::close);
+  }
+
+  /** Stop prefetching. The page being fetched, if any, is discarded. */
+  @Override
+  public void close() {
+    if (nextPage != null) {
+      nextPage.cancel(false);
+      nextPage = null;
+    }
+    page = Collections.emptyIterator();
+  }
+
+  private static GenericJson await(CompletableFuture<? extends GenericJson> page) {
+    try {
+      return page.join();
+    } catch (CompletionException ex) {
+      if (ex.getCause() instanceof IOException) {
+        throw new UncheckedIOException((IOException) ex.getCause());
+      }
+      throw ex;
+    }
+  }
+}
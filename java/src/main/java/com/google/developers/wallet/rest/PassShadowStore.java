@@ -0,0 +1,391 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponseInterceptor;
+import com.google.api.client.http.json.JsonHttpContent;
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.util.Data;
+import com.google.api.services.walletobjects.WalletobjectsRequest;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Last known state of the pass classes and objects written through these samples.
+ *
+ * <p>Update, patch, expire and addMessage calls consult the store instead of fetching the pass
+ * first, which saves one API call each. Record the response of every write with {@link #putClass}
+ * or {@link #putObject}. Installed with {@link WalletClients.Builder#setShadowStore}, the store
+ * forgets a pass whenever the API answers 404 or 409 for it, so a stale entry costs at most one
+ * failed call.
+ *
+ * <p>The store is thread-safe. A store opened with {@link #open(Path)} also appends every change
+ * to a file, flushing it right away, and reads it back on the next run. Failing to write the file
+ * never fails an API call; the pass is then only forgotten for the current run.
+ */
+public final class PassShadowStore implements Closeable {
+  private static final String API_PATH = "/walletobjects/v1/";
+
+  /** Class and object model types by resource name, e.g. "loyaltyclass". */
+  private static final Map<String, Class<? extends GenericJson>> MODELS = new HashMap<>();
+
+  static {
+    for (PassType<?, ?> type : PassType.ALL) {
+      MODELS.put(resourceName(type, "class"), type.getClassModel());
+      MODELS.put(resourceName(type, "object"), type.getObjectModel());
+    }
+  }
+
+  /** Passes by "{resource name}/{id}", e.g. "loyaltyobject/3388000000022195723.object". */
+  private final ConcurrentMap<String, GenericJson> passes = new ConcurrentHashMap<>();
+
+  private final JsonFactory jsonFactory = GsonFactory.getDefaultInstance();
+
+  /** Log of changes, or null if the store is not persisted. */
+  private final Path file;
+
+  private Writer log;
+
+  private PassShadowStore(Path file) {
+    this.file = file;
+  }
+
+  /** @return An empty store that is kept in memory only. */
+  public static PassShadowStore inMemory() {
+    return new PassShadowStore(null);
+  }
+
+  /**
+   * Open a store persisted in a file, reading the passes recorded by earlier runs.
+   *
+   * @param file The file to read and append changes to. Created if it does not exist.
+   * @return The store.
+   * @throws IOException If the file cannot be read, or has a malformed entry other than one cut
+   *     short at its end.
+   */
+  public static PassShadowStore open(Path file) throws IOException {
+    PassShadowStore store = new PassShadowStore(file);
+    long entries = 0;
+    boolean torn = false;
+    if (Files.exists(file)) {
+      // A run that stopped while writing an entry leaves it without its line break
+      torn = !endsWithLineBreak(file);
+      try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+        String line = reader.readLine();
+        for (long lineNumber = 1; line != null; lineNumber++) {
+          String next = reader.readLine();
+          if (next == null && torn) {
+            break;
+          }
+          try {
+            store.replay(line);
+          } catch (IOException | IllegalArgumentException ex) {
+            throw new IOException(
+                "Malformed entry on line " + lineNumber + " of " + file + ": " + ex.getMessage(),
+                ex);
+          }
+          entries++;
+          line = next;
+        }
+      }
+    }
+
+    // Superseded entries only grow the file, so drop them once they make up half of it. Rewrite
+    // a torn file too, as appending to its last line would garble the next entry
+    if (torn || entries > 2L * store.size()) {
+      store.compact();
+    }
+    synchronized (store) {
+      if (store.log == null) {
+        store.log =
+            Files.newBufferedWriter(
+                file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+      }
+    }
+    return store;
+  }
+
+  /**
+   * Wrap a request initializer so that passes the API reports as missing (404) or conflicting
+   * (409) are removed from the store.
+   *
+   * @param delegate The initializer to wrap. May be null.
+   * @return An initializer that runs the delegate and then installs the invalidating interceptor.
+   */
+  public HttpRequestInitializer wrap(HttpRequestInitializer delegate) {
+    return request -> {
+      if (delegate != null) {
+        delegate.initialize(request);
+      }
+
+      // The key is read before the interceptors installed by the delegate, such as those of
+      // ApiMetrics, replace the body of an insert
+      String[] key = new String[1];
+      HttpExecuteInterceptor executeDelegate = request.getInterceptor();
+      request.setInterceptor(
+          intercepted -> {
+            if (key[0] == null) {
+              key[0] = keyOf(intercepted.getUrl(), intercepted.getContent());
+            }
+            if (executeDelegate != null) {
+              executeDelegate.intercept(intercepted);
+            }
+          });
+
+      // Only runs for requests sent on their own; BatchExecutor reports the parts of a batch
+      HttpResponseInterceptor responseDelegate = request.getResponseInterceptor();
+      request.setResponseInterceptor(
+          response -> {
+            if (key[0] != null) {
+              onResponse(key[0], response.getStatusCode());
+            }
+            if (responseDelegate != null) {
+              responseDelegate.interceptResponse(response);
+            }
+          });
+    };
+  }
+
+  /**
+   * Forget the pass a call was for if the API reported it as missing (404) or conflicting (409).
+   *
+   * @param key The pass, see {@link #keyOf(WalletobjectsRequest)}.
+   * @param statusCode The HTTP status code of the call.
+   */
+  void onResponse(String key, int statusCode) {
+    if (statusCode != 404 && statusCode != 409) {
+      return;
+    }
+    try {
+      remove(key);
+    } catch (IOException ex) {
+      // The store is a cache: the pass is forgotten for this run, and the call that succeeded
+      // must not fail because the file could not be written
+    }
+  }
+
+  /**
+   * Get the key of the pass a request is for.
+   *
+   * @param request A request built from the service client.
+   * @return The key, e.g. "loyaltyobject/3388000000022195723.object", or null if the request is
+   *     not for a single pass.
+   */
+  static String keyOf(WalletobjectsRequest<?> request) {
+    return keyOf(request.buildHttpRequestUrl(), request.getHttpContent());
+  }
+
+  /** @return The last known state of the class, or null if unknown. Safe to modify. */
+  public <C extends GenericJson> C getPassClass(PassType<C, ?> type, String classId) {
+    return get(type.getClassModel(), key(type, "class", classId));
+  }
+
+  /** @return The last known state of the object, or null if unknown. Safe to modify. */
+  public <O extends GenericJson> O getPassObject(PassType<?, O> type, String objectId) {
+    return get(type.getObjectModel(), key(type, "object", objectId));
+  }
+
+  /** @return Whether the class is known to exist. */
+  public boolean containsClass(PassType<?, ?> type, String classId) {
+    return passes.containsKey(key(type, "class", classId));
+  }
+
+  /** @return Whether the object is known to exist. */
+  public boolean containsObject(PassType<?, ?> type, String objectId) {
+    return passes.containsKey(key(type, "object", objectId));
+  }
+
+  /** Record the state of a class, e.g. as returned by an insert, update or patch. */
+  public <C extends GenericJson> void putClass(PassType<C, ?> type, C passClass)
+      throws IOException {
+    put(key(type, "class", type.getId(passClass)), passClass);
+  }
+
+  /** Record the state of an object, e.g. as returned by an insert, update or patch. */
+  public <O extends GenericJson> void putObject(PassType<?, O> type, O object)
+      throws IOException {
+    put(key(type, "object", type.getId(object)), object);
+  }
+
+  /** Forget a class, e.g. after it was changed elsewhere. */
+  public void removeClass(PassType<?, ?> type, String classId) throws IOException {
+    remove(key(type, "class", classId));
+  }
+
+  /** Forget an object, e.g. after it was changed elsewhere. */
+  public void removeObject(PassType<?, ?> type, String objectId) throws IOException {
+    remove(key(type, "object", objectId));
+  }
+
+  /** @return The number of passes in the store. */
+  public int size() {
+    return passes.size();
+  }
+
+  /**
+   * Rewrite the file with only the current state of each pass. Does nothing for a store kept in
+   * memory only.
+   */
+  public synchronized void compact() throws IOException {
+    if (file == null) {
+      return;
+    }
+
+    Path compacted = file.resolveSibling(file.getFileName() + ".tmp");
+    try (BufferedWriter writer = Files.newBufferedWriter(compacted, StandardCharsets.UTF_8)) {
+      for (Map.Entry<String, GenericJson> entry : passes.entrySet()) {
+        writeEntry(writer, entry.getKey(), entry.getValue());
+      }
+    }
+    if (log != null) {
+      log.close();
+    }
+    Files.move(
+        compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    log =
+        Files.newBufferedWriter(
+            file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+  }
+
+  /** Flush the file, if any. Every change is flushed as it is made, so this is rarely needed. */
+  public synchronized void flush() throws IOException {
+    if (log != null) {
+      log.flush();
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (log != null) {
+      log.close();
+      log = null;
+    }
+  }
+
+  private <T extends GenericJson> T get(Class<T> model, String key) {
+    GenericJson pass = passes.get(key);
+    return pass == null ? null : model.cast(pass.clone());
+  }
+
+  private void put(String key, GenericJson pass) throws IOException {
+    GenericJson copy = pass.clone();
+    synchronized (this) {
+      passes.put(key, copy);
+      if (log != null) {
+        writeEntry(log, key, copy);
+        log.flush();
+      }
+    }
+  }
+
+  private void remove(String key) throws IOException {
+    synchronized (this) {
+      if (passes.remove(key) != null && log != null) {
+        log.write(key);
+        log.write('\n');
+        log.flush();
+      }
+    }
+  }
+
+  /** Write one line: the key, a tab and the pass as JSON. A key alone marks a removal. */
+  private void writeEntry(Writer writer, String key, GenericJson pass) throws IOException {
+    writer.write(key);
+    writer.write('\t');
+    writer.write(jsonFactory.toString(pass));
+    writer.write('\n');
+  }
+
+  private void replay(String line) throws IOException {
+    int tab = line.indexOf('\t');
+    String key = tab < 0 ? line : line.substring(0, tab);
+    int slash = key.indexOf('/');
+    Class<? extends GenericJson> model = slash < 0 ? null : MODELS.get(key.substring(0, slash));
+    if (model == null) {
+      throw new IOException("Unknown pass key " + key);
+    }
+
+    if (tab < 0) {
+      passes.remove(key);
+    } else {
+      passes.put(key, jsonFactory.fromString(line.substring(tab + 1), model));
+    }
+  }
+
+  private static boolean endsWithLineBreak(Path file) throws IOException {
+    try (SeekableByteChannel channel = Files.newByteChannel(file)) {
+      if (channel.size() == 0) {
+        return true;
+      }
+      ByteBuffer last = ByteBuffer.allocate(1);
+      channel.position(channel.size() - 1).read(last);
+      return last.get(0) == '\n';
+    }
+  }
+
+  private static String key(PassType<?, ?> type, String kind, String id) {
+    return resourceName(type, kind) + "/" + id;
+  }
+
+  private static String resourceName(PassType<?, ?> type, String kind) {
+    return type.getName().toLowerCase() + kind;
+  }
+
+  /** Get the key of the pass a request is for, from the path or the inserted body. */
+  private static String keyOf(GenericUrl url, HttpContent content) {
+    String path = url.getRawPath();
+    if (path == null || !path.contains(API_PATH)) {
+      return null;
+    }
+
+    // Path parts are decoded: ["", "walletobjects", "v1", "loyaltyObject", id, ...]
+    List<String> parts = url.getPathParts();
+    int index = parts.indexOf("v1") + 1;
+    String resource = index > 0 && index < parts.size() ? parts.get(index).toLowerCase() : null;
+    if (!MODELS.containsKey(resource)) {
+      return null;
+    }
+    if (index + 1 < parts.size()) {
+      return resource + "/" + parts.get(index + 1);
+    }
+    if (content instanceof JsonHttpContent && ((JsonHttpContent) content).getData() != null) {
+      Object id = Data.mapOf(((JsonHttpContent) content).getData()).get("id");
+      return id == null ? null : resource + "/" + id;
+    }
+    return null;
+  }
+}
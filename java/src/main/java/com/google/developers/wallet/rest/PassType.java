@@ -0,0 +1,951 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.json.GenericJson;
+import com.google.api.services.walletobjects.Walletobjects;
+import com.google.api.services.walletobjects.WalletobjectsRequest;
+import com.google.api.services.walletobjects.model.*;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A Google Wallet pass type, such as event tickets or loyalty cards.
+ *
+ * <p>The generated API client has a separate resource class per pass type with no common
+ * interface. This class maps each pass type to its resources so code can work with any of them.
+ *
+ * @param <C> The pass class model, e.g. {@link EventTicketClass}.
+ * @param <O> The pass object model, e.g. {@link EventTicketObject}.
+ */
+public abstract class PassType<C extends GenericJson, O extends GenericJson> {
+  public static final PassType<EventTicketClass, EventTicketObject> EVENT_TICKET =
+      new PassType<>("eventTicket", EventTicketClass.class, EventTicketObject.class) {
+        @Override
+        public WalletobjectsRequest<EventTicketClass> getClassById(
+            Walletobjects service, String classId) throws IOException {
+          return service.eventticketclass().get(classId);
+        }
+
+        @Override
+        public WalletobjectsRequest<EventTicketClass> insertClass(
+            Walletobjects service, EventTicketClass passClass) throws IOException {
+          return service.eventticketclass().insert(passClass);
+        }
+
+        @Override
+        public WalletobjectsRequest<EventTicketClass> updateClass(
+            Walletobjects service, String classId, EventTicketClass passClass) throws IOException {
+          return service.eventticketclass().update(classId, passClass);
+        }
+
+        @Override
+        public WalletobjectsRequest<EventTicketClass> patchClass(
+            Walletobjects service, String classId, EventTicketClass passClass) throws IOException {
+          return service.eventticketclass().patch(classId, passClass);
+        }
+
+        @Override
+        public WalletobjectsRequest<? extends GenericJson> addClassMessage(
+            Walletobjects service, String classId, AddMessageRequest request) throws IOException {
+          return service.eventticketclass().addmessage(classId, request);
+        }
+
+        @Override
+        public WalletobjectsRequest<EventTicketObject> getObjectById(
+            Walletobjects service, String objectId) throws IOException {
+          return service.eventticketobject().get(objectId);
+        }
+
+        @Override
+        public WalletobjectsRequest<EventTicketObject> insertObject(
+            Walletobjects service, EventTicketObject object) throws IOException {
+          return service.eventticketobject().insert(object);
+        }
+
+        @Override
+        public WalletobjectsRequest<EventTicketObject> updateObject(
+            Walletobjects service, String objectId, EventTicketObject object) throws IOException {
+          return service.eventticketobject().update(objectId, object);
+        }
+
+        @Override
+        public WalletobjectsRequest<EventTicketObject> patchObject(
+            Walletobjects service, String objectId, EventTicketObject object) throws IOException {
+          return service.eventticketobject().patch(objectId, object);
+        }
+
+        @Override
+        public WalletobjectsRequest<? extends GenericJson> addObjectMessage(
+            Walletobjects service, String objectId, AddMessageRequest request) throws IOException {
+          return service.eventticketobject().addmessage(objectId, request);
+        }
+
+        @Override
+        public WalletobjectsRequest<? extends GenericJson> listClasses(
+            Walletobjects service, long issuerId, String token, Integer maxResults)
+            throws IOException {
+          return service
+              .eventticketclass()
+              .list()
+              .setIssuerId(issuerId)
+              .setToken(token)
+              .setMaxResults(maxResults);
+        }
+
+        @Override
+        public WalletobjectsRequest<? extends GenericJson> listObjects(
+            Walletobjects service, String classId, String token, Integer maxResults)
+            throws IOException {
+          return service
+              .eventticketobject()
+              .list()
+              .setClassId(classId)
+              .setToken(token)
+              .setMaxResults(maxResults);
+        }
+      };
+
+  public static final PassType<FlightClass, FlightObject> FLIGHT =
+      new PassType<>("flight", FlightClass.class, FlightObject.class) {
+        @Override
+        public WalletobjectsRequest<FlightClass> getClassById(Walletobjects service, String classId)
+            throws IOException {
+          return service.flightclass().get(classId);
+        }
+
+        @Override
+        public WalletobjectsRequest<FlightClass> insertClass(
+            Walletobjects service, FlightClass passClass) throws IOException {
+          return service.flightclass().insert(passClass);
+        }
+
+        @Override
+        public WalletobjectsRequest<FlightClass> updateClass(
+            Walletobjects service, String classId, FlightClass passClass) throws IOException {
+          return service.flightclass().update(classId, passClass);
+        }
+
+        @Override
+        public WalletobjectsRequest<FlightClass> patchClass(
+            Walletobjects service, String classId, FlightClass passClass) throws IOException {
+          return service.flightclass().patch(classId, passClass);
+        }
+
+        @Override
+        public WalletobjectsRequest<? extends GenericJson> addClassMessage(
+            Walletobjects service, String classId, AddMessageRequest request) throws IOException {
+          return service.flightclass().addmessage(classId, request);
+        }
+
+        @Override
+        public WalletobjectsRequest<FlightObject> getObjectById(
+            Walletobjects service, String objectId) throws IOException {
+          return service.flightobject().get(objectId);
+        }
+
+        @Override
+        public WalletobjectsRequest<FlightObject> insertObject(
+            Walletobjects service, FlightObject object) throws IOException {
+          return service.flightobject().insert(object);
+        }
+
+        @Override
+        public WalletobjectsRequest<FlightObject> updateObject(
+            Walletobjects service, String objectId, FlightObject object) throws IOException {
+          return service.flightobject().update(objectId, object);
+        }
+
+        @Override
+        public WalletobjectsRequest<FlightObject> patchObject(
+            Walletobjects service, String objectId, FlightObject object) throws IOException {
+          return service.flightobject().patch(objectId, object);
+        }
+
+        @Override
+        public WalletobjectsRequest<? extends GenericJson> addObjectMessage(
+            Walletobjects service, String objectId, AddMessageRequest request) throws IOException {
+          return service.flightobject().addmessage(objectId, request);
+        }
+
+        @Override
+        public WalletobjectsRequest<? extends GenericJson> listClasses(
+            Walletobjects service, long issuerId, String token, Integer maxResults)
+            throws IOException {
+          return service
+              .flightclass()
+              .list()
+              .setIssuerId(issuerId)
+              .setToken(token)
+              .setMaxResults(maxResults);
+        }
+
+        @Override
+        public WalletobjectsRequest<? extends GenericJson> listObjects(
+            Walletobjects service, String classId, String token, Integer maxResults)
+            throws IOException {
+          return service
+              .flightobject()
+              .list()
+              .setClassId(classId)
+              .setToken(token)
+              .setMaxResults(maxResults);
+        }
+      };
+
+  public static final PassType<GenericClass, GenericObject> GENERIC =
+      new PassType<>("generic", GenericClass.class, GenericObject.class) {
+        @Override
+        public WalletobjectsRequest<GenericClass> getClassById(
+            Walletobjects service, String classId) throws IOException {
+          return service.genericclass().get(classId);
+        }
+
+        @Override
+        public WalletobjectsRequest<GenericClass> insertClass(
+            Walletobjects service, GenericClass passClass) throws IOException {
+          return service.genericclass().insert(passClass);
+        }
+
+        @Override
+        public WalletobjectsRequest<GenericClass> updateClass(
+            Walletobjects service, String classId, GenericClass passClass) throws IOException {
+          return service.genericclass().update(classId, passClass);
+        }
+
+        @Override
+        public WalletobjectsRequest<GenericClass> patchClass(
+            Walletobjects service, String classId, GenericClass passClass) throws IOException {
+          return service.genericclass().patch(classId, passClass);
+        }
+
+        @Override
+        public WalletobjectsRequest<? extends GenericJson> addClassMessage(
+            Walletobjects service, String classId, AddMessageRequest request) throws IOException {
+          return service.genericclass().addmessage(classId, request);
+        }
+
+        @Override
+        public WalletobjectsRequest<GenericObject> getObjectById(
+            Walletobjects service, String objectId) throws IOException {
+          return service.genericobject().get(objectId);
+        }
+
+        @Override
+        public WalletobjectsRequest<GenericObject> insertObject(
+            Walletobjects service, GenericObject object) throws IOException {
+          return service.genericobject().insert(object);
+        }
+
+        @Override
+        public WalletobjectsRequest<GenericObject> updateObject(
+            Walletobjects service, String objectId, GenericObject object) throws IOException {
+          return service.genericobject().update(objectId, object);
+        }
+
+        @Override
+        public WalletobjectsRequest<GenericObject> patchObject(
+            Walletobjects service, String objectId, GenericObject object) throws IOException {
+          return service.genericobject().patch(objectId, object);
+        }
+
+        @Override
+        public WalletobjectsRequest<? extends GenericJson> addObjectMessage(
+            Walletobjects service, String objectId, AddMessageRequest request) throws IOException {
+          return service.genericobject().addmessage(objectId, request);
+        }
+
+        @Override
+        public WalletobjectsRequest<? extends GenericJson> listClasses(
+            Walletobjects service, long issuerId, String token, Integer maxResults)
+            throws IOException {
+          return service
+              .genericclass()
+              .list()
+              .setIssuerId(issuerId)
+              .setToken(token)
+              .setMaxResults(maxResults);
+        }
+
+        @Override
+        public WalletobjectsRequest<? extends GenericJson> listObjects(
+            Walletobjects service, String classId, String token, Integer maxResults)
+            throws IOException {
+          return service
+              .genericobject()
+              .list()
+              .setClassId(classId)
+              .setToken(token)
+              .setMaxResults(maxResults);
+        }
+      };
+
+  public static final PassType<GiftCardClass, GiftCardObject> GIFT_CARD =
+      new PassType<>("giftCard", GiftCardClass.class, GiftCardObject.class) {
+        @Override
+        public WalletobjectsRequest<GiftCardClass> getClassById(
+            Walletobjects service, String classId) throws IOException {
+          return service.giftcardclass().get(classId);
+        }
+
+        @Override
+        public WalletobjectsRequest<GiftCardClass> insertClass(
+            Walletobjects service, GiftCardClass passClass) throws IOException {
+          return service.giftcardclass().insert(passClass);
+        }
+
+        @Override
+        public WalletobjectsRequest<GiftCardClass> updateClass(
+            Walletobjects service, String classId, GiftCardClass passClass) throws IOException {
+          return service.giftcardclass().update(classId, passClass);
+        }
+
+        @Override
+        public WalletobjectsRequest<GiftCardClass> patchClass(
+            Walletobjects service, String classId, GiftCardClass passClass) throws IOException {
+          return service.giftcardclass().patch(classId, passClass);
+        }
+
+        @Override
+        public WalletobjectsRequest<? extends GenericJson> addClassMessage(
+            Walletobjects service, String classId, AddMessageRequest request) throws IOException {
+          return service.giftcardclass().addmessage(classId, request);
+        }
+
+        @Override
+        public WalletobjectsRequest<GiftCardObject> getObjectById(
+            Walletobjects service, String objectId) throws IOException {
+          return service.giftcardobject().get(objectId);
+        }
+
+        @Override
+        public WalletobjectsRequest<GiftCardObject> insertObject(
+            Walletobjects service, GiftCardObject object) throws IOException {
+          return service.giftcardobject().insert(object);
+        }
+
+        @Override
+        public WalletobjectsRequest<GiftCardObject> updateObject(
+            Walletobjects service, String objectId, GiftCardObject object) throws IOException {
+          return service.giftcardobject().update(objectId, object);
+        }
+
+        @Override
+        public WalletobjectsRequest<GiftCardObject> patchObject(
+            Walletobjects service, String objectId, GiftCardObject object) throws IOException {
+          return service.giftcardobject().patch(objectId, object);
+        }
+
+        @Override
+        public WalletobjectsRequest<? extends GenericJson> addObjectMessage(
+            Walletobjects service, String objectId, AddMessageRequest request) throws IOException {
+          return service.giftcardobject().addmessage(objectId, request);
+        }
+
+        @Override
+        public WalletobjectsRequest<? extends GenericJson> listClasses(
+            Walletobjects service, long issuerId, String token, Integer maxResults)
+            throws IOException {
+          return service
+              .giftcardclass()
+              .list()
+              .setIssuerId(issuerId)
+              .setToken(token)
+              .setMaxResults(maxResults);
+        }
+
+        @Override
+        public WalletobjectsRequest<? extends GenericJson> listObjects(
+            Walletobjects service, String classId, String token, Integer maxResults)
+            throws IOException {
+          return service
+              .giftcardobject()
+              .list()
+              .setClassId(classId)
+              .setToken(token)
+              .setMaxResults(maxResults);
+        }
+      };
+
+  public static final PassType<LoyaltyClass, LoyaltyObject> LOYALTY =
+      new PassType<>("loyalty", LoyaltyClass.class, LoyaltyObject.class) {
+        @Override
+        public WalletobjectsRequest<LoyaltyClass> getClassById(
+            Walletobjects service, String classId) throws IOException {
+          return service.loyaltyclass().get(classId);
+        }
+
+        @Override
+        public WalletobjectsRequest<LoyaltyClass> insertClass(
+            Walletobjects service, LoyaltyClass passClass) throws IOException {
+          return service.loyaltyclass().insert(passClass);
+        }
+
+        @Override
+        public WalletobjectsRequest<LoyaltyClass> updateClass(
+            Walletobjects service, String classId, LoyaltyClass passClass) throws IOException {
+          return service.loyaltyclass().update(classId, passClass);
+        }
+
+        @Override
+        public WalletobjectsRequest<LoyaltyClass> patchClass(
+            Walletobjects service, String classId, LoyaltyClass passClass) throws IOException {
+          return service.loyaltyclass().patch(classId, passClass);
+        }
+
+        @Override
+        public WalletobjectsRequest<? extends GenericJson> addClassMessage(
+            Walletobjects service, String classId, AddMessageRequest request) throws IOException {
+          return service.loyaltyclass().addmessage(classId, request);
+        }
+
+        @Override
+        public WalletobjectsRequest<LoyaltyObject> getObjectById(
+            Walletobjects service, String objectId) throws IOException {
+          return service.loyaltyobject().get(objectId);
+        }
+
+        @Override
+        public WalletobjectsRequest<LoyaltyObject> insertObject(
+            Walletobjects service, LoyaltyObject object) throws IOException {
+          return service.loyaltyobject().insert(object);
+        }
+
+        @Override
+        public WalletobjectsRequest<LoyaltyObject> updateObject(
+            Walletobjects service, String objectId, LoyaltyObject object) throws IOException {
+          return service.loyaltyobject().update(objectId, object);
+        }
+
+        @Override
+        public WalletobjectsRequest<LoyaltyObject> patchObject(
+            Walletobjects service, String objectId, LoyaltyObject object) throws IOException {
+          return service.loyaltyobject().patch(objectId, object);
+        }
+
+        @Override
+        public WalletobjectsRequest<? extends GenericJson> addObjectMessage(
+            Walletobjects service, String objectId, AddMessageRequest request) throws IOException {
+          return service.loyaltyobject().addmessage(objectId, request);
+        }
+
+        @Override
+        public WalletobjectsRequest<? extends GenericJson> listClasses(
+            Walletobjects service, long issuerId, String token, Integer maxResults)
+            throws IOException {
+          return service
+              .loyaltyclass()
+              .list()
+              .setIssuerId(issuerId)
+              .setToken(token)
+              .setMaxResults(maxResults);
+        }
+
+        @Override
+        public WalletobjectsRequest<? extends GenericJson> listObjects(
+            Walletobjects service, String classId, String token, Integer maxResults)
+            throws IOException {
+          return service
+              .loyaltyobject()
+              .list()
+              .setClassId(classId)
+              .setToken(token)
+              .setMaxResults(maxResults);
+        }
+      };
+
+  public static final PassType<OfferClass, OfferObject> OFFER =
+      new PassType<>("offer", OfferClass.class, OfferObject.class) {
+        @Override
+        public WalletobjectsRequest<OfferClass> getClassById(Walletobjects service, String classId)
+            throws IOException {
+          return service.offerclass().get(classId);
+        }
+
+        @Override
+        public WalletobjectsRequest<OfferClass> insertClass(
+            Walletobjects service, OfferClass passClass) throws IOException {
+          return service.offerclass().insert(passClass);
+        }
+
+        @Override
+        public WalletobjectsRequest<OfferClass> updateClass(
+            Walletobjects service, String classId, OfferClass passClass) throws IOException {
+          return service.offerclass().update(classId, passClass);
+        }
+
+        @Override
+        public WalletobjectsRequest<OfferClass> patchClass(
+            Walletobjects service, String classId, OfferClass passClass) throws IOException {
+          return service.offerclass().patch(classId, passClass);
+        }
+
+        @Override
+        public WalletobjectsRequest<? extends GenericJson> addClassMessage(
+            Walletobjects service, String classId, AddMessageRequest request) throws IOException {
+          return service.offerclass().addmessage(classId, request);
+        }
+
+        @Override
+        public WalletobjectsRequest<OfferObject> getObjectById(
+            Walletobjects service, String objectId) throws IOException {
+          return service.offerobject().get(objectId);
+        }
+
+        @Override
+        public WalletobjectsRequest<OfferObject> insertObject(
+            Walletobjects service, OfferObject object) throws IOException {
+          return service.offerobject().insert(object);
+        }
+
+        @Override
+        public WalletobjectsRequest<OfferObject> updateObject(
+            Walletobjects service, String objectId, OfferObject object) throws IOException {
+          return service.offerobject().update(objectId, object);
+        }
+
+        @Override
+        public WalletobjectsRequest<OfferObject> patchObject(
+            Walletobjects service, String objectId, OfferObject object) throws IOException {
+          return service.offerobject().patch(objectId, object);
+        }
+
+        @Override
+        public WalletobjectsRequest<? extends GenericJson> addObjectMessage(
+            Walletobjects service, String objectId, AddMessageRequest request) throws IOException {
+          return service.offerobject().addmessage(objectId, request);
+        }
+
+        @Override
+        public WalletobjectsRequest<? extends GenericJson> listClasses(
+            Walletobjects service, long issuerId, String token, Integer maxResults)
+            throws IOException {
+          return service
+              .offerclass()
+              .list()
+              .setIssuerId(issuerId)
+              .setToken(token)
+              .setMaxResults(maxResults);
+        }
+
+        @Override
+        public WalletobjectsRequest<? extends GenericJson> listObjects(
+            Walletobjects service, String classId, String token, Integer maxResults)
+            throws IOException {
+          return service
+              .offerobject()
+              .list()
+              .setClassId(classId)
+              .setToken(token)
+              .setMaxResults(maxResults);
+        }
+      };
+
+  public static final PassType<TransitClass, TransitObject> TRANSIT =
+      new PassType<>("transit", TransitClass.class, TransitObject.class) {
+        @Override
+        public WalletobjectsRequest<TransitClass> getClassById(
+            Walletobjects service, String classId) throws IOException {
+          return service.transitclass().get(classId);
+        }
+
+        @Override
+        public WalletobjectsRequest<TransitClass> insertClass(
+            Walletobjects service, TransitClass passClass) throws IOException {
+          return service.transitclass().insert(passClass);
+        }
+
+        @Override
+        public WalletobjectsRequest<TransitClass> updateClass(
+            Walletobjects service, String classId, TransitClass passClass) throws IOException {
+          return service.transitclass().update(classId, passClass);
+        }
+
+        @Override
+        public WalletobjectsRequest<TransitClass> patchClass(
+            Walletobjects service, String classId, TransitClass passClass) throws IOException {
+          return service.transitclass().patch(classId, passClass);
+        }
+
+        @Override
+        public WalletobjectsRequest<? extends GenericJson> addClassMessage(
+            Walletobjects service, String classId, AddMessageRequest request) throws IOException {
+          return service.transitclass().addmessage(classId, request);
+        }
+
+        @Override
+        public WalletobjectsRequest<TransitObject> getObjectById(
+            Walletobjects service, String objectId) throws IOException {
+          return service.transitobject().get(objectId);
+        }
+
+        @Override
+        public WalletobjectsRequest<TransitObject> insertObject(
+            Walletobjects service, TransitObject object) throws IOException {
+          return service.transitobject().insert(object);
+        }
+
+        @Override
+        public WalletobjectsRequest<TransitObject> updateObject(
+            Walletobjects service, String objectId, TransitObject object) throws IOException {
+          return service.transitobject().update(objectId, object);
+        }
+
+        @Override
+        public WalletobjectsRequest<TransitObject> patchObject(
+            Walletobjects service, String objectId, TransitObject object) throws IOException {
+          return service.transitobject().patch(objectId, object);
+        }
+
+        @Override
+        public WalletobjectsRequest<? extends GenericJson> addObjectMessage(
+            Walletobjects service, String objectId, AddMessageRequest request) throws IOException {
+          return service.transitobject().addmessage(objectId, request);
+        }
+
+        @Override
+        public WalletobjectsRequest<? extends GenericJson> listClasses(
+            Walletobjects service, long issuerId, String token, Integer maxResults)
+            throws IOException {
+          return service
+              .transitclass()
+              .list()
+              .setIssuerId(issuerId)
+              .setToken(token)
+              .setMaxResults(maxResults);
+        }
+
+        @Override
+        public WalletobjectsRequest<? extends GenericJson> listObjects(
+            Walletobjects service, String classId, String token, Integer maxResults)
+            throws IOException {
+          return service
+              .transitobject()
+              .list()
+              .setClassId(classId)
+              .setToken(token)
+              .setMaxResults(maxResults);
+        }
+      };
+
+  /** All pass types. */
+  public static final List<PassType<?, ?>> ALL =
+      List.of(EVENT_TICKET, FLIGHT, GENERIC, GIFT_CARD, LOYALTY, OFFER, TRANSIT);
+
+  private final String name;
+  private final Class<C> classModel;
+  private final Class<O> objectModel;
+
+  private PassType(String name, Class<C> classModel, Class<O> objectModel) {
+    this.name = name;
+    this.classModel = classModel;
+    this.objectModel = objectModel;
+  }
+
+  /** @return The pass type name as used in the API, e.g. "eventTicket". */
+  public String getName() {
+    return name;
+  }
+
+  /** @return The pass class model type. */
+  public Class<C> getClassModel() {
+    return classModel;
+  }
+
+  /** @return The pass object model type. */
+  public Class<O> getObjectModel() {
+    return objectModel;
+  }
+
+  /**
+   * Get the ID of a pass class or object of this type.
+   *
+   * @param resource The pass class or object.
+   * @return The ID: "{issuerId}.{suffix}"
+   */
+  public String getId(GenericJson resource) {
+    return (String) resource.get("id");
+  }
+
+  /**
+   * Get the pass class from the response of an addClassMessage request.
+   *
+   * @param addMessageResponse The response, e.g. an {@link EventTicketClassAddMessageResponse}.
+   * @return The class with the message added.
+   */
+  public C getUpdatedClass(GenericJson addMessageResponse) {
+    return classModel.cast(addMessageResponse.get("resource"));
+  }
+
+  /**
+   * Get the pass object from the response of an addObjectMessage request.
+   *
+   * @param addMessageResponse The response, e.g. an {@link EventTicketObjectAddMessageResponse}.
+   * @return The object with the message added.
+   */
+  public O getUpdatedObject(GenericJson addMessageResponse) {
+    return objectModel.cast(addMessageResponse.get("resource"));
+  }
+
+  /**
+   * Get the pass classes from the response of a listClasses request.
+   *
+   * @param listResponse The response, e.g. an {@link EventTicketClassListResponse}.
+   * @return The classes on this page; empty if there are none.
+   */
+  @SuppressWarnings("unchecked")
+  public List<C> getListedClasses(GenericJson listResponse) {
+    Object resources = listResponse.get("resources");
+    return resources == null ? List.of() : (List<C>) resources;
+  }
+
+  /**
+   * Get the pass objects from the response of a listObjects request.
+   *
+   * @param listResponse The response, e.g. an {@link EventTicketObjectListResponse}.
+   * @return The objects on this page; empty if there are none.
+   */
+  @SuppressWarnings("unchecked")
+  public List<O> getListedObjects(GenericJson listResponse) {
+    Object resources = listResponse.get("resources");
+    return resources == null ? List.of() : (List<O>) resources;
+  }
+
+  /**
+   * Get the token of the next page from the response of a list request.
+   *
+   * @param listResponse The response of a listClasses or listObjects request.
+   * @return The token, or null if this was the last page.
+   */
+  public String getNextPageToken(GenericJson listResponse) {
+    Pagination pagination = (Pagination) listResponse.get("pagination");
+    return pagination == null ? null : pagination.getNextPageToken();
+  }
+
+  /**
+   * Insert a class, treating a 409 response as the class existing already.
+   *
+   * @param service The Google Wallet service client.
+   * @param existenceCache Records that the class exists, or null.
+   * @param passClass The class to insert.
+   * @return The class as returned by the API, or null if it existed already.
+   */
+  public C insertClassIfAbsent(
+      Walletobjects service, PassExistenceCache existenceCache, C passClass) throws IOException {
+    C response = executeIfAbsent(insertClass(service, passClass));
+    if (existenceCache != null) {
+      existenceCache.addClass(getId(response != null ? response : passClass));
+    }
+    return response;
+  }
+
+  /**
+   * Insert an object, treating a 409 response as the object existing already.
+   *
+   * @param service The Google Wallet service client.
+   * @param existenceCache Records that the object exists, or null.
+   * @param object The object to insert.
+   * @return The object as returned by the API, or null if it existed already.
+   */
+  public O insertObjectIfAbsent(
+      Walletobjects service, PassExistenceCache existenceCache, O object) throws IOException {
+    O response = executeIfAbsent(insertObject(service, object));
+    if (existenceCache != null) {
+      existenceCache.addObject(getId(response != null ? response : object));
+    }
+    return response;
+  }
+
+  /** Execute an insert, returning null if it fails with 409 because the pass exists. */
+  private static <T> T executeIfAbsent(WalletobjectsRequest<T> insert) throws IOException {
+    try {
+      return insert.execute();
+    } catch (GoogleJsonResponseException ex) {
+      if (ex.getStatusCode() != 409) {
+        throw ex;
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Record the state of a class just written, so the next change does not need to fetch it.
+   *
+   * @param shadowStore The store to record it in, or null to do nothing.
+   * @param passClass The class as returned by the API.
+   */
+  public void rememberClass(PassShadowStore shadowStore, C passClass) {
+    if (shadowStore != null) {
+      try {
+        shadowStore.putClass(this, passClass);
+      } catch (IOException ex) {
+        // The store is a cache; the class is still remembered for this run
+      }
+    }
+  }
+
+  /**
+   * Record the state of an object just written, so the next change does not need to fetch it.
+   *
+   * @param shadowStore The store to record it in, or null to do nothing.
+   * @param object The object as returned by the API.
+   */
+  public void rememberObject(PassShadowStore shadowStore, O object) {
+    if (shadowStore != null) {
+      try {
+        shadowStore.putObject(this, object);
+      } catch (IOException ex) {
+        // The store is a cache; the object is still remembered for this run
+      }
+    }
+  }
+
+  /**
+   * Create a get request for a pass class.
+   *
+   * @param service The Google Wallet service client.
+   * @param classId The class ID: "{issuerId}.{classSuffix}"
+   * @return The request, ready to execute or queue in a batch.
+   */
+  public abstract WalletobjectsRequest<C> getClassById(Walletobjects service, String classId)
+      throws IOException;
+
+  /**
+   * Create an insert request for a pass class.
+   *
+   * @param service The Google Wallet service client.
+   * @param passClass The pass class to insert.
+   * @return The request, ready to execute or queue in a batch.
+   */
+  public abstract WalletobjectsRequest<C> insertClass(Walletobjects service, C passClass)
+      throws IOException;
+
+  /**
+   * Create an update request for a pass class, which replaces all of its fields.
+   *
+   * @param service The Google Wallet service client.
+   * @param classId The class ID: "{issuerId}.{classSuffix}"
+   * @param passClass The new pass class.
+   * @return The request, ready to execute or queue in a batch.
+   */
+  public abstract WalletobjectsRequest<C> updateClass(
+      Walletobjects service, String classId, C passClass) throws IOException;
+
+  /**
+   * Create a patch request for a pass class, which replaces only the fields that are set.
+   *
+   * @param service The Google Wallet service client.
+   * @param classId The class ID: "{issuerId}.{classSuffix}"
+   * @param passClass The fields to change.
+   * @return The request, ready to execute or queue in a batch.
+   */
+  public abstract WalletobjectsRequest<C> patchClass(
+      Walletobjects service, String classId, C passClass) throws IOException;
+
+  /**
+   * Create an addMessage request for a pass class.
+   *
+   * @param service The Google Wallet service client.
+   * @param classId The class ID: "{issuerId}.{classSuffix}"
+   * @param request The message to add.
+   * @return The request; see {@link #getUpdatedClass} for its response.
+   */
+  public abstract WalletobjectsRequest<? extends GenericJson> addClassMessage(
+      Walletobjects service, String classId, AddMessageRequest request) throws IOException;
+
+  /**
+   * Create a get request for a pass object.
+   *
+   * @param service The Google Wallet service client.
+   * @param objectId The object ID: "{issuerId}.{objectSuffix}"
+   * @return The request, ready to execute or queue in a batch.
+   */
+  public abstract WalletobjectsRequest<O> getObjectById(Walletobjects service, String objectId)
+      throws IOException;
+
+  /**
+   * Create an insert request for a pass object.
+   *
+   * @param service The Google Wallet service client.
+   * @param object The pass object to insert.
+   * @return The request, ready to execute or queue in a batch.
+   */
+  public abstract WalletobjectsRequest<O> insertObject(Walletobjects service, O object)
+      throws IOException;
+
+  /**
+   * Create an update request for a pass object, which replaces all of its fields.
+   *
+   * @param service The Google Wallet service client.
+   * @param objectId The object ID: "{issuerId}.{objectSuffix}"
+   * @param object The new pass object.
+   * @return The request, ready to execute or queue in a batch.
+   */
+  public abstract WalletobjectsRequest<O> updateObject(
+      Walletobjects service, String objectId, O object) throws IOException;
+
+  /**
+   * Create a patch request for a pass object, which replaces only the fields that are set.
+   *
+   * @param service The Google Wallet service client.
+   * @param objectId The object ID: "{issuerId}.{objectSuffix}"
+   * @param object The fields to change.
+   * @return The request, ready to execute or queue in a batch.
+   */
+  public abstract WalletobjectsRequest<O> patchObject(
+      Walletobjects service, String objectId, O object) throws IOException;
+
+  /**
+   * Create an addMessage request for a pass object.
+   *
+   * @param service The Google Wallet service client.
+   * @param objectId The object ID: "{issuerId}.{objectSuffix}"
+   * @param request The message to add.
+   * @return The request; see {@link #getUpdatedObject} for its response.
+   */
+  public abstract WalletobjectsRequest<? extends GenericJson> addObjectMessage(
+      Walletobjects service, String objectId, AddMessageRequest request) throws IOException;
+
+  /**
+   * Create a list request for the pass classes of an issuer.
+   *
+   * @param service The Google Wallet service client.
+   * @param issuerId The issuer ID.
+   * @param token The token of the page to get, or null for the first page.
+   * @param maxResults The maximum number of classes per page, or null for the API default.
+   * @return The request; see {@link #getListedClasses} for its response.
+   */
+  public abstract WalletobjectsRequest<? extends GenericJson> listClasses(
+      Walletobjects service, long issuerId, String token, Integer maxResults) throws IOException;
+
+  /**
+   * Create a list request for the pass objects of a class.
+   *
+   * @param service The Google Wallet service client.
+   * @param classId The class ID: "{issuerId}.{classSuffix}"
+   * @param token The token of the page to get, or null for the first page.
+   * @param maxResults The maximum number of objects per page, or null for the API default.
+   * @return The request; see {@link #getListedObjects} for its response.
+   */
+  public abstract WalletobjectsRequest<? extends GenericJson> listObjects(
+      Walletobjects service, String classId, String token, Integer maxResults) throws IOException;
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator over items read one ahead from a source, such as the tickets of a {@link CsvReader}.
+ * Closes the source once the last item has been read. Read errors are thrown as an
+ * UncheckedIOException.
+ */
+abstract class ReadAheadIterator<T> implements Iterator<T> {
+  private final Closeable source;
+  private T next;
+  private boolean done;
+
+  ReadAheadIterator(Closeable source) {
+    this.source = source;
+  }
+
+  /** @return The next item, or null at the end of the source. */
+  abstract T readNext() throws IOException;
+
+  @Override
+  public boolean hasNext() {
+    if (next == null && !done) {
+      try {
+        next = readNext();
+        if (next == null) {
+          done = true;
+          source.close();
+        }
+      } catch (IOException ex) {
+        throw new UncheckedIOException(ex);
+      }
+    }
+    return next != null;
+  }
+
+  @Override
+  public T next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    T item = next;
+    next = null;
+    return item;
+  }
+}
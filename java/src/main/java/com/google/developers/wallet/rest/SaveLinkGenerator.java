@@ -0,0 +1,198 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import com.google.api.client.json.GenericJson;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Creates "Add to Google Wallet" links for any number of passes, e.g. one per user of a campaign.
+ *
+ * <p>Signing is CPU-bound, so links are signed on a work-stealing pool with one thread per core
+ * by default. Items are read lazily and at most a fixed number of them are held between reading
+ * and delivery to the {@link SaveLinkSink}, so arbitrarily long streams can be processed. Links
+ * are delivered in the order they finish signing, not the order of the items.
+ */
+public final class SaveLinkGenerator {
+  private final WalletJwtSigner signer;
+  private final int parallelism;
+  private final int maxPending;
+
+  private SaveLinkGenerator(Builder builder) {
+    this.signer = builder.signer;
+    this.parallelism = builder.parallelism;
+    this.maxPending = builder.maxPending > 0 ? builder.maxPending : builder.parallelism * 64;
+  }
+
+  /**
+   * Create a builder for a generator that signs with the given signer.
+   *
+   * @param signer Signs the links.
+   * @return A new builder.
+   */
+  public static Builder newBuilder(WalletJwtSigner signer) {
+    return new Builder(signer);
+  }
+
+  /**
+   * Create one link per pass object.
+   *
+   * @param type The pass type of the objects.
+   * @param objects The objects, which do not need to be inserted beforehand.
+   * @param sink Receives each object with its link.
+   * @return The number of links created.
+   */
+  public <O extends GenericJson> long generate(
+      PassType<?, O> type, Stream<O> objects, SaveLinkSink<? super O> sink) throws IOException {
+    String key = type.getName() + "Objects";
+    return generate(objects.iterator(), object -> Map.of(key, List.of(object)), sink);
+  }
+
+  /**
+   * Create one link per item, blocking until all of them have been delivered.
+   *
+   * @param items The items to create links for. Read lazily, from the calling thread only.
+   * @param payloadFunction Creates the JWT payload for each item, e.g. {"loyaltyObjects": [...]}.
+   *     Called from the pool threads.
+   * @param sink Receives each item with its link, on the calling thread.
+   * @return The number of links created.
+   */
+  public <T> long generate(
+      Iterator<T> items,
+      Function<? super T, Map<String, Object>> payloadFunction,
+      SaveLinkSink<? super T> sink)
+      throws IOException {
+    BlockingQueue<SignedLink<T>> signed = new LinkedBlockingQueue<>();
+    ExecutorService executor = Executors.newWorkStealingPool(parallelism);
+    long submitted = 0;
+    long delivered = 0;
+    try {
+      while (items.hasNext()) {
+        // Deliver whatever is ready, then wait for more until there is room for another item
+        delivered += deliver(signed, sink, false);
+        while (submitted - delivered >= maxPending) {
+          delivered += deliver(signed, sink, true);
+        }
+
+        T item = items.next();
+        submitted++;
+        executor.execute(
+            () -> {
+              try {
+                String saveUrl = signer.createSaveUrl(payloadFunction.apply(item));
+                signed.add(new SignedLink<>(item, saveUrl));
+              } catch (RuntimeException ex) {
+                signed.add(new SignedLink<>(item, ex));
+              }
+            });
+      }
+
+      while (delivered < submitted) {
+        delivered += deliver(signed, sink, true);
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while creating save links");
+    } finally {
+      executor.shutdownNow();
+    }
+    return delivered;
+  }
+
+  /** Pass signed links to the sink, waiting for at least one if {@code block} is set. */
+  private static <T> int deliver(
+      BlockingQueue<SignedLink<T>> signed,
+      SaveLinkSink<? super T> sink,
+      boolean block)
+      throws IOException, InterruptedException {
+    int count = 0;
+    SignedLink<T> link = block ? signed.take() : signed.poll();
+    while (link != null) {
+      if (link.failure != null) {
+        throw link.failure;
+      }
+      sink.accept(link.item, link.saveUrl);
+      count++;
+      link = signed.poll();
+    }
+    return count;
+  }
+
+  /** An item and its link, or the exception thrown while signing it. */
+  private static final class SignedLink<T> {
+    final T item;
+    final String saveUrl;
+    final RuntimeException failure;
+
+    SignedLink(T item, String saveUrl) {
+      this.item = item;
+      this.saveUrl = saveUrl;
+      this.failure = null;
+    }
+
+    SignedLink(T item, RuntimeException failure) {
+      this.item = item;
+      this.saveUrl = null;
+      this.failure = failure;
+    }
+  }
+
+  /** Builder for {@link SaveLinkGenerator}. */
+  public static final class Builder {
+    private final WalletJwtSigner signer;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int maxPending;
+
+    private Builder(WalletJwtSigner signer) {
+      this.signer = signer;
+    }
+
+    /** Number of threads signing links. Defaults to the number of available processors. */
+    public Builder setParallelism(int parallelism) {
+      if (parallelism < 1) {
+        throw new IllegalArgumentException("Parallelism must be at least 1");
+      }
+      this.parallelism = parallelism;
+      return this;
+    }
+
+    /**
+     * Maximum number of items read but not yet delivered to the sink. Defaults to 64 per thread.
+     */
+    public Builder setMaxPending(int maxPending) {
+      if (maxPending < 1) {
+        throw new IllegalArgumentException("Max pending must be at least 1");
+      }
+      this.maxPending = maxPending;
+      return this;
+    }
+
+    /** Build the generator. */
+    public SaveLinkGenerator build() {
+      return new SaveLinkGenerator(this);
+    }
+  }
+}
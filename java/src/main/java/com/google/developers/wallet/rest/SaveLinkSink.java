@@ -0,0 +1,56 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import com.google.api.client.json.GenericJson;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Receives the "Add to Google Wallet" links created by a {@link SaveLinkGenerator}.
+ *
+ * <p>Links are delivered one at a time from the thread that called the generator, so
+ * implementations do not need to be thread-safe.
+ *
+ * @param <T> The item type, e.g. a pass object.
+ */
+@FunctionalInterface
+public interface SaveLinkSink<T> {
+  /**
+   * Invoked for each link.
+   *
+   * @param item The item the link was created for.
+   * @param saveUrl The "Add to Google Wallet" link.
+   */
+  void accept(T item, String saveUrl) throws IOException;
+
+  /**
+   * Create a sink that writes one line per link: the pass ID, a tab and the link.
+   *
+   * <p>The writer is neither flushed nor closed by the sink.
+   *
+   * @param writer The writer to write to, e.g. a buffered file writer.
+   * @return A new sink.
+   */
+  static <T extends GenericJson> SaveLinkSink<T> lines(Writer writer) {
+    return (item, saveUrl) -> {
+      writer.write(String.valueOf(item.get("id")));
+      writer.write('\t');
+      writer.write(saveUrl);
+      writer.write('\n');
+    };
+  }
+}
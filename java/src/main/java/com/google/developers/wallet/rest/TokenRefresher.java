@@ -0,0 +1,206 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.GoogleCredentials;
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Authenticates requests with an access token that is refreshed in the background.
+ *
+ * <p>{@code HttpCredentialsAdapter} refreshes the token when a request finds it about to expire,
+ * so that request, and every other request waiting for the credentials meanwhile, stalls for the
+ * token exchange. This class instead refreshes on its own thread a while before the token
+ * expires, and requests only read the current token. Requests block only if no valid token is
+ * available, e.g. because background refreshes have kept failing until the token expired, or
+ * when a request is rejected with 401.
+ *
+ * <p>One instance can authenticate any number of clients and threads.
+ */
+public final class TokenRefresher implements HttpRequestInitializer, AutoCloseable {
+  /** Delay before retrying a failed background refresh; doubled for each further failure. */
+  private static final long INITIAL_RETRY_MILLIS = 1_000;
+
+  private static final long MAX_RETRY_MILLIS = 60_000;
+
+  private final GoogleCredentials credentials;
+  private final long refreshMarginMillis;
+  private final ScheduledExecutorService scheduler;
+
+  /** The token sent with requests. */
+  private volatile AccessToken accessToken;
+
+  /** The next background refresh; guarded by this. */
+  private ScheduledFuture<?> nextRefresh;
+
+  /** Background refreshes failed in a row; only used on the scheduler thread. */
+  private int failures;
+
+  /**
+   * Create a refresher. Call {@link #start()} before use.
+   *
+   * @param credentials Credentials that can refresh their access token.
+   * @param refreshMargin How long before expiry to refresh the token.
+   * @param unit The unit of the refresh margin.
+   */
+  public TokenRefresher(GoogleCredentials credentials, long refreshMargin, TimeUnit unit) {
+    this.credentials = credentials;
+    this.refreshMarginMillis = unit.toMillis(refreshMargin);
+    this.scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "wallet-token-refresher");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  /**
+   * Fetch the first access token, unless the credentials already hold one that is not about to
+   * expire, and schedule its refresh.
+   *
+   * @return This refresher.
+   */
+  public TokenRefresher start() throws IOException {
+    AccessToken token = credentials.getAccessToken();
+    if (token == null || expiresWithin(token, refreshMarginMillis)) {
+      token = credentials.refreshAccessToken();
+    }
+    accessToken = token;
+    scheduleRefresh(token);
+    return this;
+  }
+
+  /** Stop refreshing the token. Requests still use the last token until it expires. */
+  @Override
+  public void close() {
+    scheduler.shutdownNow();
+  }
+
+  /** @return The token currently sent with requests. */
+  public AccessToken getAccessToken() {
+    return accessToken;
+  }
+
+  @Override
+  public void initialize(HttpRequest request) throws IOException {
+    request.getHeaders().setAuthorization("Bearer " + currentToken().getTokenValue());
+    request.setUnsuccessfulResponseHandler(new UnauthorizedHandler());
+  }
+
+  /** Return the current token, refreshing on the calling thread only if it has expired. */
+  private AccessToken currentToken() throws IOException {
+    AccessToken token = accessToken;
+    if (token == null || expiresWithin(token, 0)) {
+      token = refreshNow(token);
+    }
+    return token;
+  }
+
+  /**
+   * Refresh the token on the calling thread, unless another thread already replaced the given
+   * stale token with a valid one.
+   */
+  private synchronized AccessToken refreshNow(AccessToken stale) throws IOException {
+    AccessToken token = accessToken;
+    if (token != null && token != stale && !expiresWithin(token, 0)) {
+      return token;
+    }
+
+    token = credentials.refreshAccessToken();
+    accessToken = token;
+    scheduleRefresh(token);
+    return token;
+  }
+
+  private void refreshInBackground() {
+    AccessToken token;
+    try {
+      token = credentials.refreshAccessToken();
+    } catch (IOException | RuntimeException ex) {
+      // The current token may still be valid for a while, so keep trying
+      failures++;
+      long delay = Math.min(MAX_RETRY_MILLIS, INITIAL_RETRY_MILLIS << Math.min(failures - 1, 16));
+      schedule(delay);
+      return;
+    }
+
+    failures = 0;
+    accessToken = token;
+    scheduleRefresh(token);
+  }
+
+  /** Schedule the refresh of a token, unless it never expires. */
+  private void scheduleRefresh(AccessToken token) {
+    Date expiration = token.getExpirationTime();
+    if (expiration != null) {
+      schedule(expiration.getTime() - System.currentTimeMillis() - refreshMarginMillis);
+    }
+  }
+
+  private synchronized void schedule(long delayMillis) {
+    if (scheduler.isShutdown()) {
+      return;
+    }
+    if (nextRefresh != null) {
+      nextRefresh.cancel(false);
+    }
+    long delay = Math.max(0, delayMillis);
+    nextRefresh = scheduler.schedule(this::refreshInBackground, delay, TimeUnit.MILLISECONDS);
+  }
+
+  private static boolean expiresWithin(AccessToken token, long millis) {
+    Date expiration = token.getExpirationTime();
+    return expiration != null && expiration.getTime() - System.currentTimeMillis() <= millis;
+  }
+
+  /** Refreshes the token and retries once when a request is rejected as unauthorized. */
+  private final class UnauthorizedHandler implements HttpUnsuccessfulResponseHandler {
+    private boolean retried;
+
+    @Override
+    public boolean handleResponse(HttpRequest request, HttpResponse response, boolean supportsRetry)
+        throws IOException {
+      if (response.getStatusCode() != HttpStatusCodes.STATUS_CODE_UNAUTHORIZED
+          || !supportsRetry
+          || retried) {
+        return false;
+      }
+      retried = true;
+
+      String sent = request.getHeaders().getAuthorization();
+      AccessToken token = accessToken;
+      if (token != null && sent != null && sent.equals("Bearer " + token.getTokenValue())) {
+        token = refreshNow(token);
+      } else {
+        token = currentToken();
+      }
+      request.getHeaders().setAuthorization("Bearer " + token.getTokenValue());
+      return true;
+    }
+  }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.services.walletobjects.model.Barcode;
+import com.google.api.services.walletobjects.model.LocalizedString;
+import com.google.api.services.walletobjects.model.TicketLeg;
+import com.google.api.services.walletobjects.model.TransitObject;
+import com.google.api.services.walletobjects.model.TranslatedString;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Reads transit tickets from a fare and itinerary feed, for issuing them in bulk.
+ *
+ * <p>Two formats are supported, both with the fields ticketId, classSuffix, passengerName,
+ * fareName and barcode per ticket, and originCode, originName, destinationCode, destinationName,
+ * departure and arrival per leg:
+ *
+ * <ul>
+ *   <li>CSV with a header row naming the columns, and one row per leg. Consecutive rows with the
+ *       same ticketId form a multi-leg ticket, whose ticket fields are taken from its first row.
+ *   <li>JSON lines, one ticket per line, with its legs in a "legs" array.
+ * </ul>
+ *
+ * <p>Tickets are read lazily, so a feed of any size can be passed to {@link
+ * BatchExecutor#insertObjects}. Station and fare names repeat across most tickets, so each
+ * distinct name is turned into a single LocalizedString shared by all tickets that use it; the
+ * objects returned must therefore not be modified.
+ */
+public final class TransitTicketFeed {
+  private final String issuerId;
+  private final String language;
+  private final JsonFactory jsonFactory;
+
+  /** Shared LocalizedString instances, by name. */
+  private final ConcurrentMap<String, LocalizedString> names = new ConcurrentHashMap<>();
+
+  private TransitTicketFeed(Builder builder) {
+    this.issuerId = builder.issuerId;
+    this.language = builder.language;
+    this.jsonFactory = builder.jsonFactory;
+  }
+
+  /**
+   * Create a builder for a feed of the given issuer's tickets.
+   *
+   * @param issuerId The issuer ID the classes and objects belong to.
+   * @return A new builder.
+   */
+  public static Builder newBuilder(String issuerId) {
+    return new Builder(issuerId);
+  }
+
+  /**
+   * Read tickets from CSV with a header row.
+   *
+   * @param reader The CSV feed. Closed once all tickets have been read.
+   * @return The tickets, read as they are iterated. Malformed rows throw an
+   *     IllegalArgumentException, and read errors an UncheckedIOException; {@link BatchExecutor}
+   *     reports either as a {@link BatchAbortedException} with the result so far.
+   */
+  public Iterator<TransitObject> readCsv(Reader reader) {
+    CsvReader rows;
+    try {
+      rows = new CsvReader(reader);
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+
+    return new ReadAheadIterator<TransitObject>(rows) {
+      /** The first row of the next ticket, already read while looking for the current one's end. */
+      private Map<String, String> lookahead;
+
+      /** A malformed row found while looking for the current ticket's end, thrown next. */
+      private IllegalArgumentException failure;
+
+      @Override
+      TransitObject readNext() throws IOException {
+        if (failure != null) {
+          IllegalArgumentException ex = failure;
+          failure = null;
+          throw ex;
+        }
+        Map<String, String> first = lookahead != null ? lookahead : rows.readRow();
+        lookahead = null;
+        if (first == null) {
+          return null;
+        }
+        String ticketId = require(first, "ticketId");
+
+        List<Map<String, String>> legs = new ArrayList<>();
+        legs.add(first);
+        Map<String, String> row;
+        try {
+          while ((row = rows.readRow()) != null) {
+            if (!ticketId.equals(require(row, "ticketId"))) {
+              lookahead = row;
+              break;
+            }
+            legs.add(row);
+          }
+        } catch (IllegalArgumentException ex) {
+          // Return the ticket read so far first
+          failure = ex;
+        }
+        return newTicket(first, legs);
+      }
+    };
+  }
+
+  /**
+   * Read tickets from JSON lines, one ticket per line.
+   *
+   * @param reader The JSON lines feed. Closed once all tickets have been read.
+   * @return The tickets, read as they are iterated. Malformed lines throw an
+   *     IllegalArgumentException, and read errors an UncheckedIOException; {@link BatchExecutor}
+   *     reports either as a {@link BatchAbortedException} with the result so far.
+   */
+  public Iterator<TransitObject> readJsonLines(Reader reader) {
+    BufferedReader lines = new BufferedReader(reader, 1 << 16);
+    return new ReadAheadIterator<TransitObject>(lines) {
+      private int lineNumber;
+
+      @Override
+      TransitObject readNext() throws IOException {
+        String line;
+        do {
+          line = lines.readLine();
+          if (line == null) {
+            return null;
+          }
+          lineNumber++;
+        } while (line.isBlank());
+
+        GenericJson json;
+        try {
+          json = jsonFactory.fromString(line, GenericJson.class);
+        } catch (IllegalArgumentException | IOException ex) {
+          throw new IllegalArgumentException("Line " + lineNumber + " is not valid JSON", ex);
+        }
+        Map<String, String> ticket = strings(json);
+        require(ticket, "ticketId");
+
+        List<Map<String, String>> legs = new ArrayList<>();
+        if (json.get("legs") instanceof List) {
+          for (Object leg : (List<?>) json.get("legs")) {
+            if (leg instanceof Map) {
+              legs.add(strings((Map<?, ?>) leg));
+            }
+          }
+        }
+        if (legs.isEmpty()) {
+          throw new IllegalArgumentException("Ticket on line " + lineNumber + " has no legs");
+        }
+        return newTicket(ticket, legs);
+      }
+    };
+  }
+
+  /** Build the object for a ticket and its legs. */
+  private TransitObject newTicket(Map<String, String> ticket, List<Map<String, String>> legs) {
+    List<TicketLeg> ticketLegs = new ArrayList<>(legs.size());
+    for (Map<String, String> leg : legs) {
+      ticketLegs.add(
+          new TicketLeg()
+              .setOriginStationCode(leg.get("originCode"))
+              .setOriginName(name(leg.get("originName")))
+              .setDestinationStationCode(leg.get("destinationCode"))
+              .setDestinationName(name(leg.get("destinationName")))
+              .setDepartureDateTime(leg.get("departure"))
+              .setArrivalDateTime(leg.get("arrival"))
+              .setFareName(name(ticket.get("fareName"))));
+    }
+
+    TransitObject object =
+        new TransitObject()
+            .setId(String.format("%s.%s", issuerId, ticket.get("ticketId")))
+            .setClassId(String.format("%s.%s", issuerId, require(ticket, "classSuffix")))
+            .setState("ACTIVE")
+            .setPassengerType("SINGLE_PASSENGER")
+            .setPassengerNames(ticket.get("passengerName"))
+            .setTripType("ONE_WAY");
+    if (ticket.get("barcode") != null) {
+      object.setBarcode(new Barcode().setType("QR_CODE").setValue(ticket.get("barcode")));
+    }
+
+    // A single leg goes in ticketLeg, connections in ticketLegs
+    if (ticketLegs.size() == 1) {
+      object.setTicketLeg(ticketLegs.get(0));
+    } else {
+      object.setTicketLegs(ticketLegs);
+    }
+    return object;
+  }
+
+  /** @return The shared LocalizedString for a name, or null if there is no name. */
+  private LocalizedString name(String value) {
+    if (value == null) {
+      return null;
+    }
+    return names.computeIfAbsent(
+        value,
+        v ->
+            new LocalizedString()
+                .setDefaultValue(new TranslatedString().setLanguage(language).setValue(v)));
+  }
+
+  private static String require(Map<String, String> fields, String name) {
+    String value = fields.get(name);
+    if (value == null) {
+      throw new IllegalArgumentException("Ticket has no " + name + ": " + fields);
+    }
+    return value;
+  }
+
+  /** The scalar fields of a JSON object, as strings. */
+  private static Map<String, String> strings(Map<?, ?> json) {
+    Map<String, String> fields = new HashMap<>();
+    for (Map.Entry<?, ?> field : json.entrySet()) {
+      Object value = field.getValue();
+      if (value instanceof String || value instanceof Number || value instanceof Boolean) {
+        fields.put(String.valueOf(field.getKey()), value.toString());
+      }
+    }
+    return fields;
+  }
+
+  /** Builder for {@link TransitTicketFeed}. */
+  public static final class Builder {
+    private final String issuerId;
+    private String language = "en-US";
+    private JsonFactory jsonFactory = GsonFactory.getDefaultInstance();
+
+    private Builder(String issuerId) {
+      this.issuerId = issuerId;
+    }
+
+    /** Language of the station and fare names. Defaults to "en-US". */
+    public Builder setLanguage(String language) {
+      this.language = language;
+      return this;
+    }
+
+    /** Parse JSON lines with this factory instead of the default {@link GsonFactory}. */
+    public Builder setJsonFactory(JsonFactory jsonFactory) {
+      this.jsonFactory = jsonFactory;
+      return this;
+    }
+
+    /** Build the feed reader. */
+    public TransitTicketFeed build() {
+      return new TransitTicketFeed(this);
+    }
+  }
+}
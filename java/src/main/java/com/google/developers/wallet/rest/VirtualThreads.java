@@ -0,0 +1,63 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Access to virtual threads, which need Java 21 while the samples build for Java 11.
+ *
+ * <p>The executor factory is looked up reflectively once; on older runtimes {@link
+ * #isSupported()} returns false.
+ */
+final class VirtualThreads {
+  private static final Method NEW_PER_TASK_EXECUTOR = findPerTaskExecutorFactory();
+
+  private VirtualThreads() {}
+
+  /** @return Whether the runtime supports virtual threads. */
+  static boolean isSupported() {
+    return NEW_PER_TASK_EXECUTOR != null;
+  }
+
+  /**
+   * Create an executor that starts a new virtual thread for each task.
+   *
+   * @return A new executor.
+   * @throws UnsupportedOperationException If the runtime does not support virtual threads.
+   */
+  static ExecutorService newPerTaskExecutor() {
+    if (NEW_PER_TASK_EXECUTOR == null) {
+      throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+    }
+    try {
+      return (ExecutorService) NEW_PER_TASK_EXECUTOR.invoke(null);
+    } catch (IllegalAccessException | InvocationTargetException ex) {
+      throw new IllegalStateException("Could not create a virtual thread executor", ex);
+    }
+  }
+
+  private static Method findPerTaskExecutorFactory() {
+    try {
+      return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+    } catch (NoSuchMethodException ex) {
+      return null;
+    }
+  }
+}
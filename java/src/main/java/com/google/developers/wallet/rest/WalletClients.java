@@ -0,0 +1,377 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.services.walletobjects.Walletobjects;
+import com.google.api.services.walletobjects.WalletobjectsScopes;
+import com.google.auth.oauth2.GoogleCredentials;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared, thread-safe holder for the credentials, HTTP transport and Google Wallet API client.
+ *
+ * <p>Building a client reads the service account key file, fetches an access token and opens a new
+ * HTTP transport, so clients are built once per key file and shared by all demo classes. All of
+ * the held objects are safe to use from multiple threads.
+ */
+public final class WalletClients {
+  /** Clients built by {@link #forKeyFile(String)}, keyed by key file path. */
+  private static final ConcurrentMap<String, WalletClients> REGISTRY = new ConcurrentHashMap<>();
+
+  /** Service account credentials for Google Wallet APIs. */
+  private final GoogleCredentials credentials;
+
+  /** HTTP transport shared by every request, and therefore its connection pool. */
+  private final HttpTransport httpTransport;
+
+  /** JSON factory used to parse and serialize API payloads. */
+  private final JsonFactory jsonFactory;
+
+  /** Authenticates, records and paces every request sent through {@link #service}. */
+  private final HttpRequestInitializer requestInitializer;
+
+  /** Keeps the access token of {@link #credentials} fresh, off the request threads. */
+  private final TokenRefresher tokenRefresher;
+
+  /** Latency, status codes and sizes of the API calls made through these clients. */
+  private final ApiMetrics metrics;
+
+  /** Paces API calls per issuer and resource type; null if calls are not limited. */
+  private final AdaptiveRateLimiter rateLimiter;
+
+  /** Last known state of the passes written; null if not kept. */
+  private final PassShadowStore shadowStore;
+
+  /** Google Wallet service client. */
+  private final Walletobjects service;
+
+  /** Domains allowed to show the "Add to Google Wallet" button for signed JWTs. */
+  private final List<String> origins;
+
+  /** Signs "Add to Google Wallet" JWTs; created on first use unless set by the builder. */
+  private volatile WalletJwtSigner jwtSigner;
+
+  private WalletClients(Builder builder) {
+    this.credentials = builder.credentials;
+    this.httpTransport = builder.httpTransport;
+    this.jsonFactory = builder.jsonFactory;
+    this.metrics = builder.metrics;
+    this.tokenRefresher = builder.tokenRefresher;
+    this.rateLimiter = builder.rateLimiter;
+    this.shadowStore = builder.shadowStore;
+    HttpRequestInitializer recorded = metrics.wrap(tokenRefresher);
+    if (shadowStore != null) {
+      recorded = shadowStore.wrap(recorded);
+    }
+    // The limiter goes outermost so that the recorded latency excludes the time spent waiting
+    this.requestInitializer = rateLimiter == null ? recorded : rateLimiter.wrap(recorded);
+    this.origins = builder.origins;
+    this.jwtSigner = builder.jwtSigner;
+
+    Walletobjects.Builder serviceBuilder =
+        new Walletobjects.Builder(httpTransport, jsonFactory, requestInitializer)
+            .setApplicationName(builder.applicationName);
+    if (builder.rootUrl != null) {
+      serviceBuilder.setRootUrl(builder.rootUrl);
+    }
+    this.service = serviceBuilder.build();
+  }
+
+  /**
+   * Get the clients for the key file in the GOOGLE_APPLICATION_CREDENTIALS environment variable.
+   *
+   * @return The shared clients for the default key file.
+   */
+  public static WalletClients getDefault() throws IOException, GeneralSecurityException {
+    return forKeyFile(
+        System.getenv().getOrDefault("GOOGLE_APPLICATION_CREDENTIALS", "/path/to/key.json"));
+  }
+
+  /**
+   * Get the clients for a service account key file, building them on first use.
+   *
+   * <p>Concurrent callers asking for the same key file wait for a single build and all receive
+   * the same instance.
+   *
+   * @param keyFilePath Path to service account key file from Google Cloud Console.
+   * @return The shared clients for the key file.
+   */
+  public static WalletClients forKeyFile(String keyFilePath)
+      throws IOException, GeneralSecurityException {
+    WalletClients clients = REGISTRY.get(keyFilePath);
+    if (clients != null) {
+      return clients;
+    }
+
+    try {
+      return REGISTRY.computeIfAbsent(
+          keyFilePath,
+          path -> {
+            try {
+              return newBuilder().setKeyFilePath(path).build();
+            } catch (IOException ex) {
+              throw new UncheckedIOException(ex);
+            } catch (GeneralSecurityException ex) {
+              throw new IllegalStateException(ex);
+            }
+          });
+    } catch (UncheckedIOException ex) {
+      throw ex.getCause();
+    } catch (IllegalStateException ex) {
+      if (ex.getCause() instanceof GeneralSecurityException) {
+        throw (GeneralSecurityException) ex.getCause();
+      }
+      throw ex;
+    }
+  }
+
+  /**
+   * Share the given clients for a key file, replacing any built before. Demo classes using that
+   * key file then send their requests through them, e.g. to a {@link LocalWalletServer}.
+   *
+   * @param keyFilePath Path the clients are registered for.
+   * @param clients The clients to share.
+   */
+  public static void register(String keyFilePath, WalletClients clients) {
+    REGISTRY.put(keyFilePath, clients);
+  }
+
+  /**
+   * Create a builder for clients that are not shared through the registry, for example to use a
+   * different HTTP transport or API endpoint.
+   *
+   * @return A new builder.
+   */
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /** @return Service account credentials for Google Wallet APIs. */
+  public GoogleCredentials getCredentials() {
+    return credentials;
+  }
+
+  /** @return The HTTP transport shared by all requests. */
+  public HttpTransport getHttpTransport() {
+    return httpTransport;
+  }
+
+  /** @return The JSON factory used by the service client. */
+  public JsonFactory getJsonFactory() {
+    return jsonFactory;
+  }
+
+  /** @return The initializer that authenticates, records and paces requests, e.g. for batches. */
+  public HttpRequestInitializer getRequestInitializer() {
+    return requestInitializer;
+  }
+
+  /** @return The refresher that provides the access token for every request. */
+  public TokenRefresher getTokenRefresher() {
+    return tokenRefresher;
+  }
+
+  /** @return Per-endpoint stats of the API calls made through these clients. */
+  public ApiMetrics getMetrics() {
+    return metrics;
+  }
+
+  /** @return The limiter that paces API calls, or null if calls are not limited. */
+  public AdaptiveRateLimiter getRateLimiter() {
+    return rateLimiter;
+  }
+
+  /** @return The last known state of the passes written, or null if not kept. */
+  public PassShadowStore getShadowStore() {
+    return shadowStore;
+  }
+
+  /** @return The Google Wallet service client. */
+  public Walletobjects getService() {
+    return service;
+  }
+
+  /**
+   * Get the signer for "Add to Google Wallet" JWTs, which requires service account credentials.
+   *
+   * @return The shared JWT signer.
+   */
+  public WalletJwtSigner getJwtSigner() {
+    WalletJwtSigner signer = jwtSigner;
+    if (signer == null) {
+      synchronized (this) {
+        signer = jwtSigner;
+        if (signer == null) {
+          signer = WalletJwtSigner.forCredentials(credentials, origins);
+          jwtSigner = signer;
+        }
+      }
+    }
+    return signer;
+  }
+
+  /** Builder for {@link WalletClients}. */
+  public static final class Builder {
+    private String keyFilePath;
+    private GoogleCredentials credentials;
+    private HttpTransport httpTransport;
+    private JsonFactory jsonFactory = GsonFactory.getDefaultInstance();
+    private String rootUrl;
+    private String applicationName = "APPLICATION_NAME";
+    private List<String> origins = List.of("www.example.com");
+    private WalletJwtSigner jwtSigner;
+    private ApiMetrics metrics = new ApiMetrics();
+    private long tokenRefreshMarginMillis = TimeUnit.MINUTES.toMillis(10);
+    private TokenRefresher tokenRefresher;
+    private AdaptiveRateLimiter rateLimiter;
+    private PassShadowStore shadowStore;
+
+    private Builder() {}
+
+    /** Read service account credentials from this key file. */
+    public Builder setKeyFilePath(String keyFilePath) {
+      this.keyFilePath = keyFilePath;
+      return this;
+    }
+
+    /** Use these credentials instead of reading a key file. */
+    public Builder setCredentials(GoogleCredentials credentials) {
+      this.credentials = credentials;
+      return this;
+    }
+
+    /**
+     * Use this HTTP transport instead of the default, for example an {@link OkHttpTransport} with
+     * a tuned connection pool.
+     */
+    public Builder setHttpTransport(HttpTransport httpTransport) {
+      this.httpTransport = httpTransport;
+      return this;
+    }
+
+    /** Use this JSON factory instead of the default {@link GsonFactory}. */
+    public Builder setJsonFactory(JsonFactory jsonFactory) {
+      this.jsonFactory = jsonFactory;
+      return this;
+    }
+
+    /** Send requests to this root URL instead of the Google Wallet API endpoint. */
+    public Builder setRootUrl(String rootUrl) {
+      this.rootUrl = rootUrl;
+      return this;
+    }
+
+    /** Application name sent in the User-Agent header. */
+    public Builder setApplicationName(String applicationName) {
+      this.applicationName = applicationName;
+      return this;
+    }
+
+    /** Domains allowed to show the "Add to Google Wallet" button for signed JWTs. */
+    public Builder setOrigins(List<String> origins) {
+      this.origins = List.copyOf(origins);
+      return this;
+    }
+
+    /** Sign JWTs with this signer instead of one created from the service account credentials. */
+    public Builder setJwtSigner(WalletJwtSigner jwtSigner) {
+      this.jwtSigner = jwtSigner;
+      return this;
+    }
+
+    /** Record API calls in these metrics, e.g. to share them between clients. */
+    public Builder setMetrics(ApiMetrics metrics) {
+      this.metrics = metrics;
+      return this;
+    }
+
+    /** Pace API calls with this limiter. By default calls are not limited. */
+    public Builder setRateLimiter(AdaptiveRateLimiter rateLimiter) {
+      this.rateLimiter = rateLimiter;
+      return this;
+    }
+
+    /**
+     * Keep the last known state of passes in this store, which forgets passes the API reports as
+     * missing or conflicting. The demo classes consult it instead of fetching passes once the
+     * clients are shared with {@link WalletClients#register}. By default no state is kept.
+     */
+    public Builder setShadowStore(PassShadowStore shadowStore) {
+      this.shadowStore = shadowStore;
+      return this;
+    }
+
+    /** Refresh the access token this long before it expires. Defaults to 10 minutes. */
+    public Builder setTokenRefreshMargin(long margin, TimeUnit unit) {
+      this.tokenRefreshMarginMillis = unit.toMillis(margin);
+      return this;
+    }
+
+    /** Load the credentials, fetch an access token and build the clients. */
+    public WalletClients build() throws IOException, GeneralSecurityException {
+      if (credentials == null) {
+        if (keyFilePath == null) {
+          throw new IllegalStateException("Either a key file path or credentials must be set");
+        }
+        try (InputStream keyFile = new FileInputStream(keyFilePath)) {
+          credentials =
+              GoogleCredentials.fromStream(keyFile)
+                  .createScoped(List.of(WalletobjectsScopes.WALLET_OBJECT_ISSUER));
+        }
+      }
+
+      // Fetches the first token now; later ones are fetched in the background before expiry
+      tokenRefresher =
+          new TokenRefresher(credentials, tokenRefreshMarginMillis, TimeUnit.MILLISECONDS).start();
+
+      if (httpTransport == null) {
+        httpTransport = newDefaultTransport();
+      }
+
+      return new WalletClients(this);
+    }
+
+    /**
+     * Create the transport named by the WALLET_HTTP_TRANSPORT environment variable: {@code net}
+     * (the default) for {@code NetHttpTransport}, or {@code okhttp} for {@link OkHttpTransport}.
+     */
+    private static HttpTransport newDefaultTransport()
+        throws IOException, GeneralSecurityException {
+      String transport = System.getenv().getOrDefault("WALLET_HTTP_TRANSPORT", "net");
+      switch (transport) {
+        case "net":
+          return GoogleNetHttpTransport.newTrustedTransport();
+        case "okhttp":
+          return new OkHttpTransport();
+        default:
+          throw new IllegalArgumentException("Unknown WALLET_HTTP_TRANSPORT: " + transport);
+      }
+    }
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.auth.oauth2.ServiceAccountCredentials;
+import java.security.interfaces.RSAPrivateKey;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Signs "Add to Google Wallet" JWTs with a service account key.
+ *
+ * <p>The signing algorithm and the claims shared by every JWT (iss, aud, typ and origins) are
+ * prepared once, so each call only adds the payload and signs. Instances are thread-safe.
+ */
+public final class WalletJwtSigner {
+  /** Prefix of "Add to Google Wallet" links; the signed JWT follows it. */
+  public static final String SAVE_URL_PREFIX = "https://pay.google.com/gp/v/save/";
+
+  /** Signs with the service account private key. */
+  private final Algorithm algorithm;
+
+  /** Claims shared by every JWT; never modified after construction. */
+  private final Map<String, Object> claimTemplate;
+
+  /**
+   * Create a signer.
+   *
+   * @param issuerEmail The service account email address, used as the JWT issuer.
+   * @param privateKey The service account private key.
+   * @param origins Domains allowed to show the "Add to Google Wallet" button.
+   */
+  public WalletJwtSigner(String issuerEmail, RSAPrivateKey privateKey, List<String> origins) {
+    this.algorithm = Algorithm.RSA256(null, privateKey);
+
+    Map<String, Object> claims = new HashMap<String, Object>();
+    claims.put("iss", issuerEmail);
+    claims.put("aud", "google");
+    claims.put("origins", List.copyOf(origins));
+    claims.put("typ", "savetowallet");
+    this.claimTemplate = Map.copyOf(claims);
+  }
+
+  /**
+   * Create a signer for service account credentials.
+   *
+   * @param credentials Service account credentials for Google Wallet APIs.
+   * @param origins Domains allowed to show the "Add to Google Wallet" button.
+   * @return A new signer.
+   */
+  public static WalletJwtSigner forCredentials(
+      GoogleCredentials credentials, List<String> origins) {
+    if (!(credentials instanceof ServiceAccountCredentials)) {
+      throw new IllegalArgumentException("JWTs must be signed with service account credentials");
+    }
+
+    ServiceAccountCredentials serviceAccount = (ServiceAccountCredentials) credentials;
+    return new WalletJwtSigner(
+        serviceAccount.getClientEmail(), (RSAPrivateKey) serviceAccount.getPrivateKey(), origins);
+  }
+
+  /**
+   * Sign a JWT with the given Google Wallet payload.
+   *
+   * @param payload The payload claim, e.g. {"eventTicketObjects": [...]}.
+   * @return The signed JWT.
+   */
+  public String sign(Map<String, Object> payload) {
+    Map<String, Object> claims = new HashMap<String, Object>(claimTemplate.size() * 2);
+    claims.putAll(claimTemplate);
+    claims.put("payload", payload);
+
+    return JWT.create().withPayload(claims).sign(algorithm);
+  }
+
+  /**
+   * Sign a JWT with the given Google Wallet payload and build the link that saves it.
+   *
+   * @param payload The payload claim, e.g. {"eventTicketObjects": [...]}.
+   * @return An "Add to Google Wallet" link.
+   */
+  public String createSaveUrl(Map<String, Object> payload) {
+    return SAVE_URL_PREFIX + sign(payload);
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import org.junit.jupiter.api.Test;
+
+public class BatchExecutorTest {
+  @Test
+  public void batchErrorResponseKeepsItsStatus() {
+    GoogleJsonError error =
+        BatchExecutor.toError(
+            new HttpResponseException.Builder(403, "Forbidden", new HttpHeaders()).build());
+
+    assertEquals(403, error.getCode());
+    assertFalse(BatchExecutor.isRetryable(error));
+  }
+
+  @Test
+  public void batchUnavailableIsRetried() {
+    GoogleJsonError error =
+        BatchExecutor.toError(
+            new HttpResponseException.Builder(503, "Service Unavailable", new HttpHeaders())
+                .build());
+
+    assertEquals(503, error.getCode());
+    assertTrue(BatchExecutor.isRetryable(error));
+  }
+
+  @Test
+  public void transportFailureHasCodeZero() {
+    IOException ex = new SocketTimeoutException("Read timed out");
+    GoogleJsonError error = BatchExecutor.toError(ex);
+
+    assertEquals(0, error.getCode());
+    assertTrue(BatchExecutor.isRetryable(error));
+  }
+}
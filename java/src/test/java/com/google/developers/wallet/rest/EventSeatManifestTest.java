@@ -0,0 +1,63 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.api.services.walletobjects.model.EventTicketObject;
+import java.io.StringReader;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import org.junit.jupiter.api.Test;
+
+public class EventSeatManifestTest {
+  /** Records whether the manifest was closed. */
+  private static final class TrackedReader extends StringReader {
+    boolean closed;
+
+    TrackedReader(String text) {
+      super(text);
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+      super.close();
+    }
+  }
+
+  @Test
+  public void readsSeatsAndClosesTheManifest() {
+    TrackedReader reader =
+        new TrackedReader("ticketId,section,row,seat\nt1,101,A,1\n\n,101,A,2\nt3,101,A,3\n");
+    Iterator<EventTicketObject> tickets =
+        EventSeatManifest.newBuilder("1", "match").build().readCsv(reader);
+
+    EventTicketObject first = tickets.next();
+    assertEquals("1.t1", first.getId());
+    assertEquals("1.match", first.getClassId());
+    assertEquals("101", first.getSeatInfo().getSection().getDefaultValue().getValue());
+    assertThrows(IllegalArgumentException.class, tickets::hasNext);
+    assertEquals("1.t3", tickets.next().getId());
+    assertFalse(reader.closed);
+    assertFalse(tickets.hasNext());
+    assertTrue(reader.closed);
+    assertThrows(NoSuchElementException.class, tickets::next);
+  }
+}
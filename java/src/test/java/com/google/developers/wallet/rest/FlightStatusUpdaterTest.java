@@ -0,0 +1,46 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.services.walletobjects.model.FlightClass;
+import org.junit.jupiter.api.Test;
+
+public class FlightStatusUpdaterTest {
+  @Test
+  public void patchesSetReviewStatus() throws Exception {
+    try (LocalWalletServer server = LocalWalletServer.newBuilder().build().start()) {
+      WalletClients clients =
+          server.newClientsBuilder().setHttpTransport(new NetHttpTransport()).build();
+      clients
+          .getService()
+          .flightclass()
+          .insert(new FlightClass().setId("1.flight").setReviewStatus("APPROVED"))
+          .execute();
+
+      try (FlightStatusUpdater updater = FlightStatusUpdater.newBuilder(clients).build()) {
+        updater.submit(FlightStatusEvent.departureGate("1.flight", "1", "A2"));
+        updater.submit(FlightStatusEvent.departureGate("1.flight", "1", "B7"));
+      }
+
+      FlightClass flight = clients.getService().flightclass().get("1.flight").execute();
+      assertEquals("UNDER_REVIEW", flight.getReviewStatus());
+      assertEquals("B7", flight.getOrigin().getGate());
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.services.walletobjects.model.GiftCardObject;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class GiftCardBalanceSyncTest {
+  private static final Instant TIME = Instant.parse("2024-01-01T00:00:00Z");
+
+  private static WalletClients newClients(LocalWalletServer server) throws Exception {
+    return server.newClientsBuilder().setHttpTransport(new NetHttpTransport()).build();
+  }
+
+  private static void insertCard(WalletClients clients, String objectId) throws Exception {
+    clients
+        .getService()
+        .giftcardobject()
+        .insert(new GiftCardObject().setId(objectId).setClassId("1.class").setState("ACTIVE"))
+        .execute();
+  }
+
+  @Test
+  public void repeatedEventsAreDropped() throws Exception {
+    try (LocalWalletServer server = LocalWalletServer.newBuilder().build().start()) {
+      WalletClients clients = newClients(server);
+      insertCard(clients, "1.card");
+      GiftCardBalanceSync sync = GiftCardBalanceSync.newBuilder(clients).build();
+
+      assertTrue(sync.submit("1.card", 5_000_000, "USD", TIME));
+      assertFalse(sync.submit("1.card", 5_000_000, "USD", TIME));
+      // The same time with another balance still wins, as the events may tie
+      assertTrue(sync.submit("1.card", 4_000_000, "USD", TIME));
+      assertEquals(1, sync.getPendingCount());
+
+      sync.flush();
+      assertFalse(sync.submit("1.card", 4_000_000, "USD", TIME));
+      assertFalse(sync.submit("1.card", 3_000_000, "USD", TIME));
+      assertEquals(0, sync.getPendingCount());
+      sync.close();
+
+      GiftCardObject card = clients.getService().giftcardobject().get("1.card").execute();
+      assertEquals(4_000_000L, (long) card.getBalance().getMicros());
+    }
+  }
+
+  @Test
+  public void failedBalanceIsNotRecordedAsWritten() throws Exception {
+    try (LocalWalletServer server = LocalWalletServer.newBuilder().build().start()) {
+      WalletClients clients = newClients(server);
+      List<String> failed = Collections.synchronizedList(new ArrayList<>());
+      GiftCardBalanceSync sync =
+          GiftCardBalanceSync.newBuilder(clients)
+              .setCallback(
+                  new BatchCallback<String, Object>() {
+                    @Override
+                    public void onSuccess(String objectId, Object response) {}
+
+                    @Override
+                    public void onFailure(String objectId, GoogleJsonError error) {
+                      failed.add(objectId);
+                    }
+                  })
+              .build();
+
+      // The card does not exist yet, so the patch fails and is not retried
+      sync.submit("1.card", 5_000_000, "USD", TIME);
+      sync.flush();
+      assertEquals(List.of("1.card"), failed);
+      assertEquals(0, sync.getPendingCount());
+
+      // Delivering the event again writes it once the card exists
+      insertCard(clients, "1.card");
+      assertTrue(sync.submit("1.card", 5_000_000, "USD", TIME));
+      sync.close();
+
+      GiftCardObject card = clients.getService().giftcardobject().get("1.card").execute();
+      assertEquals(5_000_000L, (long) card.getBalance().getMicros());
+    }
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class LongLongMapTest {
+  /** Slots in a map of the default size. */
+  private static final int MASK = 15;
+
+  /** @return Keys that all hash to the given slot of a map of the default size. */
+  private static long[] collidingKeys(int slot, int count) {
+    long[] keys = new long[count];
+    int found = 0;
+    for (long key = 1; found < count; key++) {
+      if ((LongLongMap.hash(key) & MASK) == slot) {
+        keys[found++] = key;
+      }
+    }
+    return keys;
+  }
+
+  @Test
+  public void removeKeepsCollidingKeysReachable() {
+    // Slot 15 is the last one, so the probe sequence wraps around to the start of the table
+    long[] keys = collidingKeys(MASK, 8);
+    for (int removed = 0; removed < keys.length; removed++) {
+      LongLongMap map = new LongLongMap();
+      for (long key : keys) {
+        map.put(key, key * 10);
+      }
+      map.remove(keys[removed]);
+
+      assertEquals(keys.length - 1, map.size());
+      for (int i = 0; i < keys.length; i++) {
+        assertEquals(i != removed, map.containsKey(keys[i]));
+        assertEquals(i != removed ? keys[i] * 10 : -1, map.get(keys[i], -1));
+      }
+    }
+  }
+
+  @Test
+  public void removeAfterForEachDropsOnlyCollectedKeys() {
+    long[] keys = collidingKeys(7, 6);
+    LongLongMap map = new LongLongMap();
+    for (long key : keys) {
+      map.add(key, key % 2 == 0 ? 1 : -1);
+    }
+
+    List<Long> negative = new ArrayList<>();
+    map.forEach(
+        (key, value) -> {
+          if (value < 0) {
+            negative.add(key);
+          }
+        });
+    negative.forEach(map::remove);
+
+    List<Long> visited = new ArrayList<>();
+    map.forEach((key, value) -> visited.add(key));
+    for (long key : keys) {
+      assertEquals(key % 2 == 0, visited.contains(key));
+    }
+    assertEquals(visited.size(), map.size());
+  }
+
+  @Test
+  public void matchesHashMap() {
+    Random random = new Random(42);
+    LongLongMap map = new LongLongMap();
+    Map<Long, Long> expected = new HashMap<>();
+    for (int i = 0; i < 100_000; i++) {
+      // Few distinct keys, so that puts, adds and removes keep hitting the same probe sequences
+      long key = random.nextInt(64);
+      switch (random.nextInt(3)) {
+        case 0:
+          map.put(key, i);
+          expected.put(key, (long) i);
+          break;
+        case 1:
+          map.add(key, i);
+          expected.merge(key, (long) i, Long::sum);
+          break;
+        default:
+          map.remove(key);
+          expected.remove(key);
+          break;
+      }
+    }
+
+    assertEquals(expected.size(), map.size());
+    for (long key = 0; key < 64; key++) {
+      assertEquals(expected.containsKey(key), map.containsKey(key));
+      assertEquals((long) expected.getOrDefault(key, -1L), map.get(key, -1));
+    }
+    Map<Long, Long> visited = new HashMap<>();
+    map.forEach((key, value) -> assertTrue(visited.put(key, value) == null));
+    assertEquals(expected, visited);
+  }
+
+  @Test
+  public void clearEmptiesTheMap() {
+    LongLongMap map = new LongLongMap();
+    for (long key : collidingKeys(3, 10)) {
+      map.put(key, 1);
+    }
+    map.clear();
+
+    assertTrue(map.isEmpty());
+    assertFalse(map.containsKey(collidingKeys(3, 1)[0]));
+  }
+}
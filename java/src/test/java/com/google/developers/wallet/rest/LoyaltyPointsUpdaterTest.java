@@ -0,0 +1,118 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.services.walletobjects.model.LoyaltyObject;
+import com.google.api.services.walletobjects.model.LoyaltyPoints;
+import com.google.api.services.walletobjects.model.LoyaltyPointsBalance;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Test;
+
+public class LoyaltyPointsUpdaterTest {
+  private static final String CLASS_ID = "1.loyalty_class";
+
+  private static String objectId(long accountId) {
+    return "1.account_" + accountId;
+  }
+
+  @Test
+  public void outOfRangeBalancesDoNotDropOtherAccounts() throws Exception {
+    // Accounts that share a home slot in the pending map, so that removing one shifts the others
+    List<Long> accounts = new ArrayList<>();
+    for (long accountId = 1; accounts.size() < 8; accountId++) {
+      if ((LongLongMap.hash(accountId) & 15) == 15) {
+        accounts.add(accountId);
+      }
+    }
+
+    try (LocalWalletServer server = LocalWalletServer.newBuilder().build().start()) {
+      WalletClients clients =
+          server.newClientsBuilder().setHttpTransport(new NetHttpTransport()).build();
+      for (int i = 0; i < accounts.size(); i++) {
+        // Every other account is already at the largest balance the API takes
+        int balance = i % 2 == 0 ? 100 : Integer.MAX_VALUE - 1;
+        clients
+            .getService()
+            .loyaltyobject()
+            .insert(
+                new LoyaltyObject()
+                    .setId(objectId(accounts.get(i)))
+                    .setClassId(CLASS_ID)
+                    .setState("ACTIVE")
+                    .setLoyaltyPoints(
+                        new LoyaltyPoints()
+                            .setBalance(new LoyaltyPointsBalance().setInt(balance))))
+            .execute();
+      }
+
+      List<Long> failed = Collections.synchronizedList(new ArrayList<>());
+      LoyaltyPointsUpdater updater =
+          LoyaltyPointsUpdater.newBuilder(clients, LoyaltyPointsUpdaterTest::objectId)
+              .setCallback(
+                  new BatchCallback<LoyaltyPointsUpdater.Update, Object>() {
+                    @Override
+                    public void onSuccess(LoyaltyPointsUpdater.Update update, Object response) {}
+
+                    @Override
+                    public void onFailure(
+                        LoyaltyPointsUpdater.Update update, GoogleJsonError error) {
+                      assertEquals(400, error.getCode());
+                      failed.add(update.getAccountId());
+                    }
+                  })
+              .build();
+
+      // The first flush reads the balances, the second one computes them from what it knows
+      for (long accountId : accounts) {
+        updater.submit(accountId, 1);
+      }
+      updater.flush();
+      for (long accountId : accounts) {
+        updater.submit(accountId, 1);
+      }
+      updater.flush();
+      updater.close();
+
+      List<Long> expectedFailed = new ArrayList<>();
+      Map<Long, Integer> expectedBalances = new TreeMap<>();
+      Map<Long, Integer> balances = new TreeMap<>();
+      for (int i = 0; i < accounts.size(); i++) {
+        long accountId = accounts.get(i);
+        if (i % 2 == 0) {
+          expectedBalances.put(accountId, 102);
+        } else {
+          expectedBalances.put(accountId, Integer.MAX_VALUE);
+          expectedFailed.add(accountId);
+        }
+        LoyaltyObject object =
+            clients.getService().loyaltyobject().get(objectId(accountId)).execute();
+        balances.put(accountId, object.getLoyaltyPoints().getBalance().getInt());
+      }
+      assertEquals(expectedBalances, balances);
+      Collections.sort(failed);
+      assertEquals(expectedFailed, failed);
+      assertEquals(0, updater.getPendingCount());
+    }
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class PassExistenceCacheTest {
+  @Test
+  public void lookupKeepsObjectFromBeingEvicted() {
+    PassExistenceCache cache = new PassExistenceCache(2);
+    cache.addObject("1.first");
+    cache.addObject("1.second");
+    assertTrue(cache.containsObject("1.first"));
+    cache.addObject("1.third");
+
+    assertTrue(cache.containsObject("1.first"));
+    assertFalse(cache.containsObject("1.second"));
+    assertTrue(cache.containsObject("1.third"));
+  }
+
+  @Test
+  public void lookupKeepsClassFromBeingEvicted() {
+    PassExistenceCache cache = new PassExistenceCache(2);
+    cache.addClass("1.first");
+    cache.addClass("1.second");
+    assertTrue(cache.containsClass("1.first"));
+    cache.addClass("1.third");
+
+    assertTrue(cache.containsClass("1.first"));
+    assertFalse(cache.containsClass("1.second"));
+  }
+}
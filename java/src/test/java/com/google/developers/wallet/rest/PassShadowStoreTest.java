@@ -0,0 +1,105 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.developers.wallet.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.api.services.walletobjects.model.LoyaltyObject;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.jupiter.api.Test;
+
+public class PassShadowStoreTest {
+  private static Path newFile() throws IOException {
+    Path file = Files.createTempFile("shadow", ".log");
+    file.toFile().deleteOnExit();
+    return file;
+  }
+
+  private static void append(Path file, String text) throws IOException {
+    Files.write(file, text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+  }
+
+  private static void putObjects(Path file, String... objectIds) throws IOException {
+    try (PassShadowStore store = PassShadowStore.open(file)) {
+      for (String objectId : objectIds) {
+        store.putObject(PassType.LOYALTY, new LoyaltyObject().setId(objectId).setState("ACTIVE"));
+      }
+    }
+  }
+
+  @Test
+  public void reopenKeepsPasses() throws IOException {
+    Path file = newFile();
+    putObjects(file, "1.first", "1.second");
+
+    try (PassShadowStore store = PassShadowStore.open(file)) {
+      assertEquals(2, store.size());
+      assertEquals("ACTIVE", store.getPassObject(PassType.LOYALTY, "1.second").getState());
+    }
+  }
+
+  @Test
+  public void tornLastEntryIsDropped() throws IOException {
+    Path file = newFile();
+    putObjects(file, "1.first");
+    append(file, "loyaltyobject/1.second\t{\"id\":\"1.sec");
+
+    try (PassShadowStore store = PassShadowStore.open(file)) {
+      assertEquals(1, store.size());
+      assertTrue(store.containsObject(PassType.LOYALTY, "1.first"));
+      store.putObject(PassType.LOYALTY, new LoyaltyObject().setId("1.third"));
+    }
+
+    // The torn entry was rewritten away, so the entry appended after it is readable
+    try (PassShadowStore store = PassShadowStore.open(file)) {
+      assertEquals(2, store.size());
+      assertTrue(store.containsObject(PassType.LOYALTY, "1.third"));
+      assertFalse(store.containsObject(PassType.LOYALTY, "1.second"));
+    }
+  }
+
+  @Test
+  public void malformedEntryBeforeTheEndFails() throws IOException {
+    Path file = newFile();
+    append(file, "loyaltyobject/1.first\t{\"id\":\"1.fi\n");
+    append(file, "loyaltyobject/1.second\t{\"id\":\"1.second\"}\n");
+
+    assertThrows(IOException.class, () -> PassShadowStore.open(file));
+  }
+
+  @Test
+  public void keyWithoutResourceFails() throws IOException {
+    Path file = newFile();
+    append(file, "1.first\t{}\n");
+
+    assertThrows(IOException.class, () -> PassShadowStore.open(file));
+  }
+
+  @Test
+  public void unknownResourceFails() throws IOException {
+    Path file = newFile();
+    append(file, "walletobject/1.first\t{}\n");
+
+    assertThrows(IOException.class, () -> PassShadowStore.open(file));
+  }
+}